@@ -0,0 +1,113 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Headless fixtures shared by the benchmarks: a detached DrawingPanel,
+ * synthetic mouse input and reproducible documents.
+ *
+ * @author DKRORY
+ */
+final class BenchmarkScenes {
+
+    static final int WIDTH = 1920;
+    static final int HEIGHT = 1080;
+
+    private BenchmarkScenes() {
+    }
+
+    // A drawing panel sized like a maximized window, never shown on screen
+    static DrawingPanel newPanel() {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(WIDTH, HEIGHT);
+        // Benchmarks feed events from their own thread, so draw each one right away instead of on the EDT's frame timer
+        panel.setFrameRate(0);
+        return panel;
+    }
+
+    // Opaque target image standing in for the screen
+    static BufferedImage newCanvas() {
+        return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    static MouseEvent mouseEvent(Component source, int id, int x, int y) {
+        return new MouseEvent(source, id, 0L, InputEvent.BUTTON1_DOWN_MASK, x, y, 1, false, MouseEvent.BUTTON1);
+    }
+
+    // Feed one event straight to the panel's listeners, the way the EDT would
+    static void dispatch(DrawingPanel panel, MouseEvent e) {
+        switch (e.getID()) {
+            case MouseEvent.MOUSE_PRESSED -> {
+                for (MouseListener l : panel.getMouseListeners()) {
+                    l.mousePressed(e);
+                }
+            }
+            case MouseEvent.MOUSE_RELEASED -> {
+                for (MouseListener l : panel.getMouseListeners()) {
+                    l.mouseReleased(e);
+                }
+            }
+            case MouseEvent.MOUSE_DRAGGED -> {
+                for (MouseMotionListener l : panel.getMouseMotionListeners()) {
+                    l.mouseDragged(e);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unsupported event " + e.getID());
+        }
+    }
+
+    // A smooth random walk of mouse samples 1-3 pixels apart, like a hand-drawn stroke
+    static int[][] strokePath(Random random, int samples) {
+        int[] xs = new int[samples];
+        int[] ys = new int[samples];
+        double x = random.nextInt(WIDTH);
+        double y = random.nextInt(HEIGHT);
+        double angle = random.nextDouble() * Math.PI * 2;
+        for (int i = 0; i < samples; i++) {
+            angle += (random.nextDouble() - 0.5) * 0.3;
+            double step = 1 + random.nextDouble() * 2;
+            x = Math.max(0, Math.min(WIDTH - 1, x + Math.cos(angle) * step));
+            y = Math.max(0, Math.min(HEIGHT - 1, y + Math.sin(angle) * step));
+            xs[i] = (int) x;
+            ys[i] = (int) y;
+        }
+        return new int[][]{xs, ys};
+    }
+
+    // Draw one stroke or shape with the panel's current tool
+    static void drag(DrawingPanel panel, int[][] path) {
+        int[] xs = path[0];
+        int[] ys = path[1];
+        dispatch(panel, mouseEvent(panel, MouseEvent.MOUSE_PRESSED, xs[0], ys[0]));
+        for (int i = 1; i < xs.length; i++) {
+            dispatch(panel, mouseEvent(panel, MouseEvent.MOUSE_DRAGGED, xs[i], ys[i]));
+        }
+        dispatch(panel, mouseEvent(panel, MouseEvent.MOUSE_RELEASED, xs[xs.length - 1], ys[ys.length - 1]));
+    }
+
+    // Fill the panel with a reproducible mix of every tool, colour and style
+    static void drawDocument(DrawingPanel panel, int shapeCount, long seed) {
+        Random random = new Random(seed);
+        Color[] colors = {Color.BLACK, Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE};
+        for (int i = 0; i < shapeCount; i++) {
+            int roll = random.nextInt(100);
+            ShapeType tool = roll < 40 ? ShapeType.FREEHAND
+                    : roll < 55 ? ShapeType.LINE
+                    : roll < 70 ? ShapeType.RECTANGLE
+                    : roll < 85 ? ShapeType.OVAL
+                    : ShapeType.ERASE;
+            panel.setCurrentShape(tool);
+            panel.setCurrentColor(colors[random.nextInt(colors.length)]);
+            boolean dotted = random.nextInt(4) == 0;
+            panel.setDotted(dotted);
+            panel.setFilled(!dotted && random.nextInt(4) == 0);
+            drag(panel, strokePath(random, tool == ShapeType.FREEHAND || tool == ShapeType.ERASE ? 30 : 20));
+        }
+    }
+}
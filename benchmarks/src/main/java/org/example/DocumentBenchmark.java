@@ -0,0 +1,64 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save and open of a drawing in the native document format, at 10k and
+ * 100k shapes kept as vectors. Opening reads the file and replaces the
+ * drawing of a panel with it, as the Open button does once the file is
+ * read. The opened shapes stay vectors; the layers are drawn on the next
+ * paint, on the render thread in the app, which is not timed.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class DocumentBenchmark {
+
+    @Param({"10000", "100000"})
+    public int shapeCount;
+
+    private DocumentFile.Document document;
+    private Path saved;
+    private Path target;
+    private DrawingPanel opened;
+
+    @Setup
+    public void setUp() throws IOException {
+        DrawingPanel panel = BenchmarkScenes.newPanel();
+        // Keep every shape as a vector, so the document holds them all
+        panel.setHistoryLimit(Integer.MAX_VALUE);
+        BenchmarkScenes.drawDocument(panel, shapeCount, 1L);
+        document = panel.document();
+        saved = Files.createTempFile("document", "." + DocumentFile.EXTENSION);
+        target = Files.createTempFile("document", "." + DocumentFile.EXTENSION);
+        DocumentFile.write(document, saved);
+        opened = BenchmarkScenes.newPanel();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        DocumentFile.write(document, target);
+    }
+
+    @Benchmark
+    public DrawingPanel open() throws IOException {
+        opened.openDocument(DocumentFile.read(saved, null, opened.getTileCache()));
+        return opened;
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.event.MouseEvent;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per event of feeding a synthetic drag through the panel's mouse
+ * listeners, press and release included. Each stroke is undone again so
+ * the document stays the same size across invocations.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+@OperationsPerInvocation(DragInputBenchmark.EVENTS)
+public class DragInputBenchmark {
+
+    static final int EVENTS = 1000;
+
+    @Param({"FREEHAND", "ERASE", "LINE", "RECTANGLE", "OVAL"})
+    public String tool;
+
+    private DrawingPanel panel;
+    private MouseEvent[] events;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        BenchmarkScenes.drawDocument(panel, 1000, 1L);
+        panel.setCurrentShape(ShapeType.valueOf(tool));
+
+        // Build the events up front so only the panel's handling is measured
+        int[][] path = BenchmarkScenes.strokePath(new Random(7), EVENTS);
+        events = new MouseEvent[EVENTS];
+        events[0] = BenchmarkScenes.mouseEvent(panel, MouseEvent.MOUSE_PRESSED, path[0][0], path[1][0]);
+        for (int i = 1; i < EVENTS - 1; i++) {
+            events[i] = BenchmarkScenes.mouseEvent(panel, MouseEvent.MOUSE_DRAGGED, path[0][i], path[1][i]);
+        }
+        events[EVENTS - 1] = BenchmarkScenes.mouseEvent(panel, MouseEvent.MOUSE_RELEASED,
+                path[0][EVENTS - 1], path[1][EVENTS - 1]);
+    }
+
+    @Benchmark
+    public void dragStroke() {
+        for (MouseEvent e : events) {
+            BenchmarkScenes.dispatch(panel, e);
+        }
+        panel.undo();
+    }
+}
@@ -0,0 +1,109 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paint bucket fill of a maximized 1920x1080 view, empty (the whole view
+ * is filled) and over a drawing of 1000 shapes. The search alone runs on
+ * the pixels of the painted view; a click goes through the panel's
+ * listener with the fill tool, as the EDT runs it: the view is sampled
+ * and searched, and since the area runs past the view, it is handed to
+ * the render thread to search over the whole canvas, and the panel is
+ * painted. The canvas search itself, which the fill waits for, runs over
+ * the 20000x20000 canvas. Each click is undone outside the timing, once
+ * its fill was committed.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class FloodFillBenchmark {
+
+    @Param({"0", "1000"})
+    public int shapeCount;
+
+    private DrawingPanel panel;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+    private int[] pixels;
+    private final FloodFill floodFill = new FloodFill();
+    private MouseEvent click;
+    private boolean clicked;
+    // Whole canvas as the render thread searches it
+    private SceneSnapshot drawing;
+    // Fills found by the render thread, committed on the benchmark thread as the EDT would
+    private RenderThread renderThread;
+    private final ConcurrentLinkedQueue<Runnable> delivered = new ConcurrentLinkedQueue<>();
+    private int shapesDrawn;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        BenchmarkScenes.drawDocument(panel, shapeCount, 1L);
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+        panel.paintComponent(g2d);
+        pixels = ((DataBufferInt) canvas.getRaster().getDataBuffer()).getData().clone();
+        drawing = new SceneSnapshot(panel.snapshot().getLayers(), panel.getBackground(), panel.getCanvasWidth(),
+                panel.getCanvasHeight());
+        shapesDrawn = panel.getShapeCount();
+        renderThread = new RenderThread(delivered::add);
+        panel.setRenderThread(renderThread);
+        panel.setCurrentShape(ShapeType.FILL);
+        panel.setCurrentColor(Color.ORANGE);
+        click = BenchmarkScenes.mouseEvent(panel, MouseEvent.MOUSE_PRESSED, BenchmarkScenes.WIDTH / 2,
+                BenchmarkScenes.HEIGHT / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderThread.shutdown();
+        g2d.dispose();
+    }
+
+    // Commit the fill the render thread found, take it back and paint, so every click fills the same area of the
+    // same drawing
+    @TearDown(Level.Invocation)
+    public void undoClick() throws InterruptedException {
+        if (clicked) {
+            clicked = false;
+            renderThread.awaitIdle();
+            for (Runnable done = delivered.poll(); done != null; done = delivered.poll()) {
+                done.run();
+            }
+            if (panel.getShapeCount() > shapesDrawn) {
+                panel.undo();
+            }
+            panel.paintComponent(g2d);
+        }
+    }
+
+    @Benchmark
+    public int[] search() {
+        return floodFill.fill(pixels, BenchmarkScenes.WIDTH, BenchmarkScenes.HEIGHT, BenchmarkScenes.WIDTH / 2,
+                BenchmarkScenes.HEIGHT / 2, 0, 0, 0);
+    }
+
+    @Benchmark
+    public int[] canvasSearch() {
+        return new CanvasFill(drawing, BenchmarkScenes.WIDTH / 2, BenchmarkScenes.HEIGHT / 2, 0).fill();
+    }
+
+    @Benchmark
+    public void click() {
+        BenchmarkScenes.dispatch(panel, click);
+        clicked = true;
+        panel.paintComponent(g2d);
+    }
+}
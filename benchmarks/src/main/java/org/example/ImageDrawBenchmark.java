@@ -0,0 +1,73 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing a loaded photo, straight from the decoded image versus through
+ * the ImageShape pyramid: a small dirty region at full scale, and the
+ * whole photo fitted into 1024 pixels.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class ImageDrawBenchmark {
+
+    @Param({"2000", "8000"})
+    public int imageSize;
+
+    @Param({"CLIP_256", "FIT_1024"})
+    public String view;
+
+    private BufferedImage photo;
+    private ImageShape shape;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+
+    @Setup
+    public void setUp() {
+        // Decoders hand JPEGs over as 3-byte BGR, which the screen cannot blit directly
+        photo = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = photo.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.ORANGE, imageSize, imageSize, Color.CYAN));
+        g.fillRect(0, 0, imageSize, imageSize);
+        g.dispose();
+        shape = new ImageShape(photo, new Point(0, 0));
+
+        canvas = new BufferedImage(1024, 1024, BufferedImage.TYPE_INT_RGB);
+        g2d = canvas.createGraphics();
+        if (view.equals("CLIP_256")) {
+            // A dirty region in the middle of the photo, the way a brush stroke damages it
+            g2d.translate(512 - imageSize / 2, 512 - imageSize / 2);
+            g2d.clipRect(imageSize / 2 - 128, imageSize / 2 - 128, 256, 256);
+        } else {
+            double scale = 1024.0 / imageSize;
+            g2d.scale(scale, scale);
+        }
+        // Build the pyramid level this view needs before measuring
+        shape.draw(g2d);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    @Benchmark
+    public void original() {
+        g2d.drawImage(photo, 0, 0, null);
+    }
+
+    @Benchmark
+    public void pyramid() {
+        shape.draw(g2d);
+    }
+}
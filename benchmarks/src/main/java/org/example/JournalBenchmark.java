@@ -0,0 +1,65 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost on the EDT of journaling a finished stroke of 30 and 300 points
+ * to the autosave, the way the panel does after every committed shape.
+ * Segments fill up and start over from a snapshot during the run, so the
+ * average includes that; forcing and writing snapshots happen on the
+ * journal's own thread.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class JournalBenchmark {
+
+    @Param({"30", "300"})
+    public int points;
+
+    private Path directory;
+    private Journal journal;
+    private Command command;
+    private List<Layer> layers;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        DrawingPanel panel = BenchmarkScenes.newPanel();
+        journal = Journal.open(directory, panel);
+        Scene scene = new Scene();
+        layers = scene.layers();
+        int[][] path = BenchmarkScenes.strokePath(new Random(1L), points);
+        command = new Command.AddShape(scene.active(), new Freehand(path[0], path[1], Color.BLACK, false), 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void recordStroke() {
+        journal.recorded(command, layers);
+    }
+}
@@ -0,0 +1,72 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stroke drawn on the top layer and taken back again, with the repaint
+ * behind each, in a document of one layer and of twenty. Only the edited
+ * layer is rasterized again; the others are composed from their cached
+ * rasters, and only where the stroke changed the picture.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class LayerEditBenchmark {
+
+    @Param({"1", "20"})
+    public int layerCount;
+
+    @Param({"500"})
+    public int shapesPerLayer;
+
+    private DrawingPanel panel;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+    private int[][][] strokes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        for (int i = 0; i < layerCount; i++) {
+            if (i > 0) {
+                panel.addLayer();
+            }
+            BenchmarkScenes.drawDocument(panel, shapesPerLayer, i + 1L);
+        }
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+        panel.paintComponent(g2d);
+        panel.setCurrentShape(ShapeType.FREEHAND);
+        panel.setCurrentColor(Color.MAGENTA);
+        Random random = new Random(42L);
+        strokes = new int[64][][];
+        for (int i = 0; i < strokes.length; i++) {
+            strokes[i] = BenchmarkScenes.strokePath(random, 60);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    // Draw a stroke on the top layer, then undo it, painting after each
+    @Benchmark
+    public void strokeAndUndo() {
+        BenchmarkScenes.drag(panel, strokes[next++ % strokes.length]);
+        panel.paintComponent(g2d);
+        panel.undo();
+        panel.paintComponent(g2d);
+    }
+}
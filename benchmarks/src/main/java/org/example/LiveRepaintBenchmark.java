@@ -0,0 +1,68 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The repaint a drag event triggers in the middle of a long stroke:
+ * paintComponent clipped to the newest segment, over a document of
+ * 10k committed shapes. Run with -prof gc to check that this path
+ * allocates nothing in the steady state.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class LiveRepaintBenchmark {
+
+    @Param({"FREEHAND", "ERASE"})
+    public String tool;
+
+    @Param({"100", "2000"})
+    public int strokeLength;
+
+    private DrawingPanel panel;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        BenchmarkScenes.drawDocument(panel, 10_000, 1L);
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+        // First paint builds the committed layer
+        panel.paintComponent(g2d);
+
+        // Leave a stroke in progress, with the mouse still pressed
+        panel.setCurrentShape(ShapeType.valueOf(tool));
+        int[][] path = BenchmarkScenes.strokePath(new Random(7), strokeLength);
+        BenchmarkScenes.dispatch(panel, BenchmarkScenes.mouseEvent(panel, MouseEvent.MOUSE_PRESSED, path[0][0], path[1][0]));
+        for (int i = 1; i < strokeLength; i++) {
+            BenchmarkScenes.dispatch(panel, BenchmarkScenes.mouseEvent(panel, MouseEvent.MOUSE_DRAGGED, path[0][i], path[1][i]));
+        }
+        int last = strokeLength - 1;
+        java.awt.Rectangle dirty = Shape.strokeBounds(path[0][last - 1], path[1][last - 1], path[0][last], path[1][last],
+                Shape.ERASER_WIDTH);
+        g2d.clipRect(dirty.x, dirty.y, dirty.width, dirty.height);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    @Benchmark
+    public void repaintNewestSegment() {
+        panel.paintComponent(g2d);
+    }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DrawingPanel.paintComponent over documents of growing size: a full
+ * replay of every shape, and the steady-state repaint of an unchanged
+ * document. With the default undo horizon the shapes behind it are baked
+ * into one raster; an unlimited horizon keeps every shape to replay.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class PaintReplayBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int shapeCount;
+
+    @Param({"1000", "2147483647"})
+    public int historyLimit;
+
+    private DrawingPanel panel;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        panel.setHistoryLimit(historyLimit);
+        BenchmarkScenes.drawDocument(panel, shapeCount, 1L);
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    // Throwing the committed layer and its checkpoints away forces every shape to be drawn again
+    @Benchmark
+    public void fullReplay() {
+        panel.redrawAll();
+        panel.paintComponent(g2d);
+    }
+
+    // Changing the background only composes it under the committed layer again
+    @Benchmark
+    public void changeBackground() {
+        flip = !flip;
+        panel.setBackground(flip ? Color.WHITE : Color.LIGHT_GRAY);
+        panel.paintComponent(g2d);
+    }
+
+    // Nothing changed since the last paint
+    @Benchmark
+    public void repaintUnchanged() {
+        panel.paintComponent(g2d);
+    }
+}
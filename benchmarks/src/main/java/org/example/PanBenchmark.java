@@ -0,0 +1,72 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Panning over a drawing spread across a 3x3 grid of screens of the canvas,
+ * baked into tiles, with the tile cache big enough for all of them and with
+ * a budget of 4 MB that spills most tiles to the spill file. A small scroll
+ * only draws the strip that comes into view; a jump to the far corner draws
+ * the whole view from tiles, reading spilled ones back with the small budget.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class PanBenchmark {
+
+    @Param({"4194304", "268435456"})
+    public long tileBudget;
+
+    private DrawingPanel panel;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        panel.setTileCacheBudget(tileBudget);
+        panel.setHistoryLimit(100);
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                panel.setViewOrigin(col * BenchmarkScenes.WIDTH, row * BenchmarkScenes.HEIGHT);
+                BenchmarkScenes.drawDocument(panel, 300, row * 3L + col + 1);
+            }
+        }
+        panel.setViewOrigin(BenchmarkScenes.WIDTH, BenchmarkScenes.HEIGHT);
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+        panel.paintComponent(g2d);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    // Scroll 64 pixels down and back up, painting after each
+    @Benchmark
+    public void scrollStep() {
+        flip = !flip;
+        Point origin = panel.getViewOrigin();
+        panel.setViewOrigin(origin.x, origin.y + (flip ? 64 : -64));
+        panel.paintComponent(g2d);
+    }
+
+    // Jump between opposite corners of the drawing, painting after each
+    @Benchmark
+    public void jumpAcross() {
+        flip = !flip;
+        panel.setViewOrigin(flip ? 0 : 2 * BenchmarkScenes.WIDTH, flip ? 0 : 2 * BenchmarkScenes.HEIGHT);
+        panel.paintComponent(g2d);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export of a square drawing covered with shapes, rendered by
+ * SceneSnapshot in tiles on fork/join pools of 1 to 8 workers. The output
+ * is the same for every pool size; the time per export should fall with
+ * the number of workers up to the number of cores.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ParallelRenderBenchmark {
+
+    @Param({"4096", "16384"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    // Shapes drawn per screen-sized part of the drawing
+    @Param({"100"})
+    public int density;
+
+    private SceneSnapshot scene;
+    private ForkJoinPool pool;
+    private TileRenderer renderer;
+
+    @Setup
+    public void setUp() {
+        DrawingPanel panel = BenchmarkScenes.newPanel();
+        panel.setCanvasSize(size, size);
+        // Keep every shape as a vector, so the export draws them all
+        panel.setHistoryLimit(Integer.MAX_VALUE);
+        long seed = 1;
+        for (int y = 0; y < size; y += BenchmarkScenes.HEIGHT) {
+            for (int x = 0; x < size; x += BenchmarkScenes.WIDTH) {
+                panel.setViewOrigin(x, y);
+                BenchmarkScenes.drawDocument(panel, density, seed++);
+            }
+        }
+        SceneSnapshot drawn = panel.snapshot();
+        scene = new SceneSnapshot(drawn.getLayers(), drawn.getBackground(), size, size);
+        pool = new ForkJoinPool(threads);
+        renderer = new TileRenderer(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public BufferedImage export() {
+        return scene.render(renderer, drawn -> true);
+    }
+}
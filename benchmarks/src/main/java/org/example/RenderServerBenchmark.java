@@ -0,0 +1,83 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Requests per second of the render server, as a local load test: every
+ * benchmark thread is a client sending one request after the other, so
+ * running it with -t 1, 4 and 16 shows how throughput scales with
+ * concurrent clients. Cached requests ask for the thumbnails of a few
+ * documents over and over; uncached ones ask for a region no one asked
+ * for before, so every request is rendered.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dsun.net.httpserver.nodelay=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class RenderServerBenchmark {
+
+    private static final int DOCUMENTS = 8;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private final AtomicLong requests = new AtomicLong();
+    private Path directory;
+    private RenderServer server;
+    private HttpClient client;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("render-server");
+        for (int i = 0; i < DOCUMENTS; i++) {
+            DrawingPanel panel = BenchmarkScenes.newPanel();
+            BenchmarkScenes.drawDocument(panel, 1000, i);
+            DocumentFile.write(panel.document(), directory.resolve("doc" + i + "." + DocumentFile.EXTENSION));
+        }
+        server = new RenderServer(directory, 0, 64L << 20);
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] request() throws IOException, InterruptedException {
+        long n = requests.getAndIncrement();
+        String query = cached ? "scale=0.25"
+                : "region=" + (n % 1024) + "," + (n / 1024 % 512) + ",512,512";
+        URI uri = URI.create("http://localhost:" + server.getPort() + "/render/doc" + (n % DOCUMENTS) + "."
+                + DocumentFile.EXTENSION + "?" + query);
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException(uri + ": " + response.statusCode());
+        }
+        return response.body();
+    }
+}
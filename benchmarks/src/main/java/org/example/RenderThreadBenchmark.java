@@ -0,0 +1,76 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time the EDT spends on Clear All and its undo, with the paint behind
+ * each, when the layer raster is rebuilt while painting and when it is
+ * rebuilt on the render thread. Checkpoints are off, so the undo replays
+ * every shape; with the render thread the paint keeps showing the old
+ * raster and the EDT is free for input while the shapes are drawn.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class RenderThreadBenchmark {
+
+    @Param({"10000"})
+    public int shapeCount;
+
+    @Param({"false", "true"})
+    public boolean renderThread;
+
+    private DrawingPanel panel;
+    private RenderThread thread;
+    // Rebuilt rasters handed back by the render thread, swapped in by the benchmark thread standing in for the EDT
+    private final ConcurrentLinkedQueue<Runnable> delivered = new ConcurrentLinkedQueue<>();
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        panel.setCheckpointBudget(0);
+        // Keep every shape as a vector, so the undo replays them all
+        panel.setHistoryLimit(Integer.MAX_VALUE);
+        if (renderThread) {
+            thread = new RenderThread(delivered::add);
+            panel.setRenderThread(thread);
+        }
+        BenchmarkScenes.drawDocument(panel, shapeCount, 1L);
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+        panel.paintComponent(g2d);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+        if (thread != null) {
+            thread.shutdown();
+        }
+    }
+
+    // Clear the document and bring it back, swapping in whatever the render thread has finished meanwhile
+    @Benchmark
+    public void undoClearAll() {
+        panel.clearAll();
+        panel.paintComponent(g2d);
+        panel.undo();
+        panel.paintComponent(g2d);
+        Runnable swap;
+        while ((swap = delivered.poll()) != null) {
+            swap.run();
+        }
+    }
+}
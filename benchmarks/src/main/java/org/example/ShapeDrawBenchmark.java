@@ -0,0 +1,81 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single Shape.draw for every kind of shape and style.
+ * FILLED only changes Rectangle and Oval, DOTTED does not apply to Erase
+ * and ImageShape; those combinations measure the plain draw.
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class ShapeDrawBenchmark {
+
+    @Param({"LINE", "RECTANGLE", "OVAL", "FREEHAND", "ERASE", "IMAGE"})
+    public String kind;
+
+    @Param({"SOLID", "DOTTED", "FILLED"})
+    public String style;
+
+    private Shape shape;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+
+    @Setup
+    public void setUp() {
+        BenchmarkScenes.newPanel();
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+
+        boolean dotted = style.equals("DOTTED");
+        boolean filled = style.equals("FILLED");
+        Point start = new Point(200, 150);
+        Point end = new Point(900, 700);
+        StrokeBuffer points = new StrokeBuffer();
+        int[][] path = BenchmarkScenes.strokePath(new Random(42), 400);
+        for (int i = 0; i < path[0].length; i++) {
+            points.add(path[0][i], path[1][i]);
+        }
+
+        shape = switch (kind) {
+            case "LINE" -> new Line(start, end, Color.BLUE, dotted);
+            case "RECTANGLE" -> new Rectangle(start, end, Color.BLUE, dotted, filled);
+            case "OVAL" -> new Oval(start, end, Color.BLUE, dotted, filled);
+            case "FREEHAND" -> new Freehand(points, Color.BLUE, dotted);
+            case "ERASE" -> new Erase(points);
+            case "IMAGE" -> new ImageShape(photo(800, 600), new Point(100, 100));
+            default -> throw new IllegalArgumentException(kind);
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    @Benchmark
+    public void draw() {
+        shape.draw(g2d);
+    }
+
+    // An image with some content, the way ImageIO.read would hand it over
+    private static BufferedImage photo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.CYAN));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return image;
+    }
+}
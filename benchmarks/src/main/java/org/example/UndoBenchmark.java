@@ -0,0 +1,66 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo followed by redo and the repaint behind each, with raster
+ * checkpoints turned off (every redraw replays the document from the
+ * start) and at the default budget (replay from the nearest checkpoint).
+ *
+ * @author DKRORY
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Thread)
+public class UndoBenchmark {
+
+    @Param({"1000", "10000"})
+    public int shapeCount;
+
+    @Param({"0", "67108864"})
+    public long checkpointBudget;
+
+    private DrawingPanel panel;
+    private BufferedImage canvas;
+    private Graphics2D g2d;
+
+    @Setup
+    public void setUp() {
+        panel = BenchmarkScenes.newPanel();
+        panel.setCheckpointBudget(checkpointBudget);
+        BenchmarkScenes.drawDocument(panel, shapeCount, 1L);
+        canvas = BenchmarkScenes.newCanvas();
+        g2d = canvas.createGraphics();
+        panel.paintComponent(g2d);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2d.dispose();
+    }
+
+    // Take back the last stroke and put it back, the way a user compares before and after
+    @Benchmark
+    public void undoRedoShape() {
+        panel.undo();
+        panel.paintComponent(g2d);
+        panel.redo();
+        panel.paintComponent(g2d);
+    }
+
+    // Bring back a whole document after Clear All, then clear it again
+    @Benchmark
+    public void undoRedoClearAll() {
+        panel.clearAll();
+        panel.paintComponent(g2d);
+        panel.undo();
+        panel.paintComponent(g2d);
+    }
+}
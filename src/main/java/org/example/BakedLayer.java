@@ -0,0 +1,219 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Raster holding the shapes that have fallen behind the undo horizon. Once
+ * a shape can no longer be undone it is drawn in here and released from
+ * the shape list, so a long session holds pixels instead of every stroke
+ * ever drawn. The raster is cut into tiles that are only allocated where
+ * something is drawn, so its memory follows the drawn area rather than
+ * the canvas size, and the tile cache may spill tiles out of the heap.
+ * Like the layer rasters it is transparent where nothing is drawn or
+ * something was erased, so whatever lies beneath shows through. A layer
+ * read from a document keeps the tiles stored there in the mapped file
+ * until each is first drawn or drawn into.
+ *
+ * @author DKRORY
+ */
+final class BakedLayer {
+
+    static final int TILE_SIZE = TileCache.TILE_SIZE;
+
+    // Receives the tiles of a layer with their premultiplied ARGB pixels
+    interface TileConsumer {
+        void accept(int column, int row, BufferedImage pixels);
+    }
+
+    // Shared with every baked layer of the panel; snapshots read their tiles without it
+    private final TileCache cache;
+    private final boolean snapshot;
+    // Area the layer covers, in canvas coordinates; shapes outside it are cut off
+    private final int canvasWidth;
+    private final int canvasHeight;
+    private final double scale;
+    // Tiles by row and column, for the tiles something has been drawn into
+    private final HashMap<Long, TileCache.Tile> tiles;
+    // Union of the baked shapes' bounds in canvas coordinates; empty (negative width) if nothing was baked
+    private final java.awt.Rectangle drawn;
+    // Tiles of a layer read from a document that are not in the cache yet, as pixels in the mapped file
+    private final HashMap<Long, IntBuffer> stored = new HashMap<>();
+
+    // Empty layer at the device scale of the layer rasters, covering a canvas of canvasWidth x canvasHeight
+    BakedLayer(TileCache cache, double scale, int canvasWidth, int canvasHeight) {
+        this.cache = cache;
+        this.snapshot = false;
+        this.scale = scale;
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+        this.tiles = new HashMap<>();
+        this.drawn = new java.awt.Rectangle(0, 0, -1, -1);
+    }
+
+    // Layer read from a document, covering drawn, whose tiles are added with store(); nothing touches the
+    // cache until the layer is used on the EDT, so it can be built on any thread
+    BakedLayer(TileCache cache, double scale, int canvasWidth, int canvasHeight, java.awt.Rectangle drawn) {
+        this(cache, scale, canvasWidth, canvasHeight);
+        this.drawn.setBounds(drawn);
+    }
+
+    private BakedLayer(BakedLayer source) {
+        this.cache = source.cache;
+        this.snapshot = true;
+        this.scale = source.scale;
+        this.canvasWidth = source.canvasWidth;
+        this.canvasHeight = source.canvasHeight;
+        this.tiles = new HashMap<>(source.tiles);
+        this.drawn = new java.awt.Rectangle(source.drawn);
+    }
+
+    // Draw shapes into the layer for good, bottom to top, into every tile they touch. Each tile is opened once
+    // for all the shapes over it, so baking many shapes at once, as after opening a document, costs little more
+    // than drawing them. The tiles are those of TileRenderer, which draws the layer rasters a tile at a time too,
+    // so a baked shape keeps the pixels it had in the view
+    void bake(List<Shape> shapes) {
+        java.awt.Rectangle canvas = new java.awt.Rectangle(0, 0, canvasWidth, canvasHeight);
+        HashMap<Long, ArrayList<Shape>> byTile = new HashMap<>();
+        for (Shape shape : shapes) {
+            java.awt.Rectangle bounds = shape.getBounds().intersection(canvas);
+            if (bounds.isEmpty()) {
+                continue;
+            }
+            drawn.add(bounds);
+            java.awt.Rectangle range = tileRange(bounds);
+            for (int row = range.y; row < range.y + range.height; row++) {
+                for (int column = range.x; column < range.x + range.width; column++) {
+                    byTile.computeIfAbsent(key(column, row), key -> new ArrayList<>()).add(shape);
+                }
+            }
+        }
+        for (Map.Entry<Long, ArrayList<Shape>> entry : byTile.entrySet()) {
+            long key = entry.getKey();
+            TileCache.Tile tile = tile(key);
+            if (tile == null) {
+                tile = cache.create();
+                tiles.put(key, tile);
+            } else if (tile.isShared()) {
+                // A snapshot holds the tile as it is, so the shapes go into a copy
+                tile = cache.copy(tile);
+                tiles.put(key, tile);
+            }
+            Graphics2D g2d = cache.open(tile).createGraphics();
+            g2d.translate(-(int) key * TILE_SIZE, -(int) (key >> 32) * TILE_SIZE);
+            g2d.scale(scale, scale);
+            g2d.clipRect(0, 0, canvasWidth, canvasHeight);
+            for (Shape shape : entry.getValue()) {
+                shape.draw(g2d);
+            }
+            g2d.dispose();
+        }
+    }
+
+    // Draw the tiles that intersect the clip onto graphics in canvas coordinates
+    void draw(Graphics2D g2d) {
+        java.awt.Rectangle area = new java.awt.Rectangle(0, 0, canvasWidth, canvasHeight);
+        java.awt.Rectangle clip = g2d.getClipBounds();
+        if (clip != null) {
+            area = area.intersection(clip);
+        }
+        if (area.isEmpty() || tiles.isEmpty() && stored.isEmpty()) {
+            return;
+        }
+        java.awt.Rectangle range = tileRange(area);
+        for (int row = range.y; row < range.y + range.height; row++) {
+            for (int column = range.x; column < range.x + range.width; column++) {
+                TileCache.Tile tile = snapshot ? tiles.get(key(column, row)) : tile(key(column, row));
+                if (tile == null) {
+                    continue;
+                }
+                BufferedImage image = snapshot ? tile.read() : cache.open(tile);
+                AffineTransform toCanvas = AffineTransform.getScaleInstance(1 / scale, 1 / scale);
+                toCanvas.translate(column * TILE_SIZE, row * TILE_SIZE);
+                g2d.drawImage(image, toCanvas, null);
+            }
+        }
+    }
+
+    // Columns (x, width) and rows (y, height) of the tiles covering an area in canvas coordinates
+    private java.awt.Rectangle tileRange(java.awt.Rectangle area) {
+        int firstColumn = (int) Math.floor(area.x * scale) / TILE_SIZE;
+        int firstRow = (int) Math.floor(area.y * scale) / TILE_SIZE;
+        int lastColumn = ((int) Math.ceil((area.x + area.width) * scale) - 1) / TILE_SIZE;
+        int lastRow = ((int) Math.ceil((area.y + area.height) * scale) - 1) / TILE_SIZE;
+        return new java.awt.Rectangle(firstColumn, firstRow, lastColumn - firstColumn + 1, lastRow - firstRow + 1);
+    }
+
+    private static long key(int column, int row) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    // The tile at a key, moving it into the cache first if it is still only stored in a document
+    private TileCache.Tile tile(long key) {
+        TileCache.Tile tile = tiles.get(key);
+        IntBuffer pixels = tile == null ? stored.remove(key) : null;
+        if (pixels != null) {
+            tile = cache.create();
+            pixels.get(0, ((DataBufferInt) cache.open(tile).getRaster().getDataBuffer()).getData());
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    // Add a tile read from a document, with TILE_SIZE x TILE_SIZE premultiplied ARGB pixels
+    void store(int column, int row, IntBuffer pixels) {
+        stored.put(key(column, row), pixels);
+    }
+
+    // Pass every tile with its column and row to action; safe on any thread for a snapshot
+    void forEachTile(TileConsumer action) {
+        for (Map.Entry<Long, TileCache.Tile> entry : tiles.entrySet()) {
+            long key = entry.getKey();
+            action.accept((int) key, (int) (key >> 32), entry.getValue().read());
+        }
+    }
+
+    // Number of tiles something has been drawn into
+    int tileCount() {
+        return tiles.size() + stored.size();
+    }
+
+    // Device scale of the tiles
+    double scale() {
+        return scale;
+    }
+
+    // Area the baked shapes cover, in canvas coordinates; empty (negative width) if there are none
+    java.awt.Rectangle bounds() {
+        return new java.awt.Rectangle(drawn);
+    }
+
+    // Unchanging copy of the layer as it is now, sharing the tiles until they are drawn into again
+    BakedLayer snapshot() {
+        for (Long key : stored.keySet().toArray(Long[]::new)) {
+            tile(key);
+        }
+        for (TileCache.Tile tile : tiles.values()) {
+            tile.share();
+        }
+        return new BakedLayer(this);
+    }
+
+    // Heap held by the tiles that are not spilled
+    long bytes() {
+        long bytes = 0;
+        for (TileCache.Tile tile : tiles.values()) {
+            if (tile.isResident()) {
+                bytes += TileCache.TILE_BYTES;
+            }
+        }
+        return bytes;
+    }
+}
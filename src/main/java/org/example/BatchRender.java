@@ -0,0 +1,253 @@
+package org.example;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.imageio.ImageIO;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Headless export of documents to PNG, for thumbnails and bulk exports
+ * without a window. Every document is read, rendered at the chosen scale
+ * the way Save renders the drawing, and written next to it or into an
+ * output directory, replacing the file only once it is complete. Under
+ * the output directory a document found in a directory keeps its path
+ * relative to that directory, so documents of the same name in different
+ * folders do not overwrite each other; if two documents would still end
+ * up in the same file, nothing is rendered. The
+ * documents are spread over a fixed pool of worker threads, each drawing
+ * one document at a time on its own thread, so the memory in use stays
+ * bounded by the number of workers however many documents there are.
+ * <p>
+ * At the end the throughput in documents per second and the peak heap
+ * are printed; documents that fail are reported and skipped.
+ * <pre>
+ * java -cp PaintBrushApp.jar org.example.BatchRender [--scale s] [--threads n] [--out dir] files or directories...
+ * </pre>
+ *
+ * @author DKRORY
+ */
+public class BatchRender {
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        double scale = 1.0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path out = null;
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--scale" -> scale = Double.parseDouble(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--out" -> out = Path.of(args[++i]);
+                default -> inputs.add(Path.of(args[i]));
+            }
+        }
+        if (inputs.isEmpty() || !(scale > 0) || threads < 1) {
+            System.err.println("Usage: BatchRender [--scale s] [--threads n] [--out dir] files or directories...");
+            System.exit(2);
+        }
+        if (out != null) {
+            Files.createDirectories(out);
+        }
+        Map<Path, Path> targets;
+        try {
+            targets = targets(inputs, out);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        HeapPeak heap = new HeapPeak();
+
+        long start = System.nanoTime();
+        int failed = render(targets, scale, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Rendered %d documents in %.2f s on %d threads: %.1f documents/s, peak heap %d MB%s%n",
+                targets.size() - failed, seconds, threads, (targets.size() - failed) / seconds,
+                heap.stop() >> 20, failed == 0 ? "" : ", " + failed + " failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // Render every document to its target on a pool of threads, returning how many failed
+    static int render(Map<Path, Path> targets, double scale, int threads) throws InterruptedException {
+        AtomicInteger workers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "BatchRender-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            ExecutorCompletionService<Path> completion = new ExecutorCompletionService<>(pool);
+            for (Map.Entry<Path, Path> target : targets.entrySet()) {
+                completion.submit(() -> {
+                    render(target.getKey(), target.getValue(), scale);
+                    return target.getKey();
+                });
+            }
+            int failed = 0;
+            for (int i = 0; i < targets.size(); i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println(e.getCause());
+                }
+            }
+            return failed;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Read a document, render it at scale and write it as PNG to target
+    static void render(Path document, Path target, double scale) throws IOException {
+        // Tile caches are not shared between threads, so every document gets its own
+        DocumentFile.Document read = DocumentFile.read(document, null, new TileCache());
+        BufferedImage image = read.snapshot().render(TileRenderer.sequential(), scale, drawn -> true);
+        Path directory = Files.createDirectories(target.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            if (!ImageIO.write(image, "png", temp.toFile())) {
+                throw new IOException("No PNG writer available");
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // The documents among the inputs, with those in directories and their subdirectories, each with the PNG file
+    // it is rendered to: next to it, or under out at its path relative to the directory it was found in. A
+    // document reached twice for the same file is rendered once; two documents for the same file are an error
+    static Map<Path, Path> targets(List<Path> inputs, Path out) throws IOException {
+        LinkedHashMap<Path, Path> targets = new LinkedHashMap<>();
+        HashMap<Path, Path> renderedTo = new HashMap<>();
+        for (Path input : inputs) {
+            List<Path> documents = List.of(input);
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.walk(input)) {
+                    documents = files.filter(file -> Files.isRegularFile(file) && DocumentFile.isDocument(file))
+                            .sorted()
+                            .toList();
+                }
+            }
+            for (Path document : documents) {
+                Path relative = Files.isDirectory(input) ? input.relativize(document) : document.getFileName();
+                Path target = target(document, relative, out);
+                Path other = renderedTo.putIfAbsent(target.toAbsolutePath().normalize(), document);
+                if (other == null) {
+                    targets.put(document, target);
+                } else if (!other.toAbsolutePath().normalize().equals(document.toAbsolutePath().normalize())) {
+                    throw new IllegalArgumentException(other + " and " + document + " would both be rendered to "
+                            + target);
+                }
+            }
+        }
+        return targets;
+    }
+
+    // PNG file a document is rendered to: next to it, or at its path relative to its input under the output
+    // directory if there is one
+    private static Path target(Path document, Path relative, Path out) {
+        String name = document.getFileName().toString();
+        if (DocumentFile.isDocument(document)) {
+            name = name.substring(0, name.length() - DocumentFile.EXTENSION.length() - 1);
+        }
+        if (out == null) {
+            return document.toAbsolutePath().resolveSibling(name + ".png");
+        }
+        Path parent = relative.getParent();
+        return (parent == null ? out : out.resolve(parent)).resolve(name + ".png");
+    }
+
+    // Highest heap use while it listens, as the heap's pools add up just before each garbage collection, when
+    // they are fullest, and when it starts and stops. The peaks of the pools each come at a different time, so
+    // their sum would overstate it.
+    private static final class HeapPeak implements NotificationListener {
+        private final HashSet<String> heapPools = new HashSet<>();
+        private final ArrayList<NotificationEmitter> collectors = new ArrayList<>();
+        private final AtomicLong peak = new AtomicLong();
+
+        HeapPeak() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPools.add(pool.getName());
+                }
+            }
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter emitter) {
+                    emitter.addNotificationListener(this, null, null);
+                    collectors.add(emitter);
+                }
+            }
+            sampleHeap();
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+                if (heapPools.contains(pool.getKey())) {
+                    used += pool.getValue().getUsed();
+                }
+            }
+            peak.accumulateAndGet(used, Math::max);
+        }
+
+        private void sampleHeap() {
+            peak.accumulateAndGet(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        // Stop listening and return the peak in bytes
+        long stop() {
+            sampleHeap();
+            for (NotificationEmitter collector : collectors) {
+                try {
+                    collector.removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // Never added, so nothing to remove
+                }
+            }
+            return peak.get();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Paint bucket search over the whole canvas, for an area that runs past
+ * the view. The drawing is rendered from a snapshot one tile at a time,
+ * only where the area reaches, and FloodFill searches each tile from the
+ * pixels on its edges that the area came in by, keeping the filled bits
+ * of the tile for when the area comes back into it; a tile all of one
+ * matching color is taken whole without a search, and one with nothing
+ * drawn in it without even rendering it. The area is as large as the
+ * canvas lets it be and has no seam, so the search is meant for the
+ * render thread rather than the EDT.
+ * <p>
+ * An instance runs one search; cancel() stops it from another thread.
+ *
+ * @author DKRORY
+ */
+final class CanvasFill {
+
+    // Side of a tile; a rendered one is 1 MB of ARGB, its filled bits 32 KB
+    static final int TILE_SIZE = 512;
+    // Rendered tiles kept for the area to come back into, least recently searched dropped first
+    private static final int RENDERED_TILES = 16;
+
+    private final SceneSnapshot snapshot;
+    private final int x;
+    private final int y;
+    private final int tolerance;
+    private final int columns;
+    private final int rows;
+    // The shapes of each layer whose bounds reach into each tile, in drawing order; null where there are none
+    private final List<List<List<Shape>>> bins = new ArrayList<>();
+    // Filled bits of each tile searched so far, null for the others and for tiles taken whole
+    private final long[][] filled;
+    private final boolean[] whole;
+    // Pixels, as x, y within the tile, the area reached on the edges of its neighbours, still to search from
+    private final int[][] seeds;
+    private final int[] seedCounts;
+    private final boolean[] queued;
+    private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+    private final LinkedHashMap<Integer, int[]> rendered = new LinkedHashMap<>(RENDERED_TILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+            return size() > RENDERED_TILES;
+        }
+    };
+    private final FloodFill floodFill = new FloodFill();
+    private int[] rects = new int[64];
+    private int rectCount = 0;
+    private int seed;
+    private volatile boolean cancelled = false;
+
+    // Search of the area around (x, y) of a snapshot of the whole canvas whose channels each differ by at most
+    // tolerance from the pixel there
+    CanvasFill(SceneSnapshot snapshot, int x, int y, int tolerance) {
+        this.snapshot = snapshot;
+        this.x = x;
+        this.y = y;
+        this.tolerance = tolerance;
+        columns = Math.ceilDiv(snapshot.getWidth(), TILE_SIZE);
+        rows = Math.ceilDiv(snapshot.getHeight(), TILE_SIZE);
+        int tiles = columns * rows;
+        filled = new long[tiles][];
+        whole = new boolean[tiles];
+        seeds = new int[tiles][];
+        seedCounts = new int[tiles];
+        queued = new boolean[tiles];
+    }
+
+    // Stop the search, which then returns null
+    void cancel() {
+        cancelled = true;
+    }
+
+    // Rectangles, packed as x, y, width, height in canvas coordinates, covering the area, or null once cancelled
+    int[] fill() {
+        if (x < 0 || y < 0 || x >= snapshot.getWidth() || y >= snapshot.getHeight()) {
+            return new int[0];
+        }
+        binShapes();
+        int first = (y / TILE_SIZE) * columns + x / TILE_SIZE;
+        java.awt.Rectangle bounds = tileBounds(first);
+        if (isBlank(first)) {
+            seed = snapshot.getBackground().getRGB();
+        } else {
+            int[] pixels = pixels(first);
+            if (pixels == null) {
+                return null;
+            }
+            seed = pixels[(y - bounds.y) * bounds.width + x - bounds.x];
+        }
+        addSeed(first, x - bounds.x, y - bounds.y);
+        while (!queue.isEmpty()) {
+            if (cancelled || !search(queue.poll())) {
+                return null;
+            }
+        }
+        return Arrays.copyOf(rects, rectCount);
+    }
+
+    // Put every shape in the bins of the tiles its bounds reach into
+    private void binShapes() {
+        java.awt.Rectangle canvas = new java.awt.Rectangle(0, 0, snapshot.getWidth(), snapshot.getHeight());
+        for (SceneSnapshot.LayerSnapshot layer : snapshot.getLayers()) {
+            List<List<Shape>> layerBins = new ArrayList<>(Collections.nCopies(columns * rows, null));
+            for (Shape shape : layer.shapes()) {
+                java.awt.Rectangle bounds = shape.getBounds().intersection(canvas);
+                if (bounds.isEmpty()) {
+                    continue;
+                }
+                for (int row = bounds.y / TILE_SIZE; row <= (bounds.y + bounds.height - 1) / TILE_SIZE; row++) {
+                    for (int column = bounds.x / TILE_SIZE; column <= (bounds.x + bounds.width - 1) / TILE_SIZE;
+                         column++) {
+                        int tile = row * columns + column;
+                        if (layerBins.get(tile) == null) {
+                            layerBins.set(tile, new ArrayList<>());
+                        }
+                        layerBins.get(tile).add(shape);
+                    }
+                }
+            }
+            bins.add(layerBins);
+        }
+    }
+
+    // Search a tile from its seeds, returning false once cancelled
+    private boolean search(int tile) {
+        queued[tile] = false;
+        int count = seedCounts[tile];
+        seedCounts[tile] = 0;
+        if (whole[tile]) {
+            return true;
+        }
+        // A blank tile is all background, so either all of it is in the area or none of it
+        boolean blank = isBlank(tile);
+        if (blank && !FloodFill.matches(snapshot.getBackground().getRGB(), seed, tolerance)) {
+            return true;
+        }
+        int[] pixels = blank ? null : pixels(tile);
+        if (!blank && pixels == null) {
+            return false;
+        }
+        java.awt.Rectangle bounds = tileBounds(tile);
+        int[] found;
+        if (blank || filled[tile] == null && isUniform(pixels) && FloodFill.matches(pixels[0], seed, tolerance)) {
+            // One color the area takes, so all of it is in the area
+            whole[tile] = true;
+            rendered.remove(tile);
+            found = new int[]{bounds.x, bounds.y, bounds.width, bounds.height};
+        } else {
+            if (filled[tile] == null) {
+                filled[tile] = new long[FloodFill.words(bounds.width, bounds.height)];
+            }
+            found = floodFill.fill(pixels, bounds.width, bounds.height, filled[tile], seeds[tile], count, seed,
+                    tolerance, bounds.x, bounds.y);
+        }
+        for (int i = 0; i < found.length; i += 4) {
+            addRect(found[i], found[i + 1], found[i + 2], found[i + 3]);
+            spread(tile, bounds, found[i], found[i + 1], found[i + 2], found[i + 3]);
+        }
+        return true;
+    }
+
+    // Seed the neighbours of a tile with the pixels next to where a rectangle found in it touches its edges
+    private void spread(int tile, java.awt.Rectangle bounds, int x, int y, int width, int height) {
+        int column = tile % columns;
+        int row = tile / columns;
+        if (x == bounds.x && column > 0) {
+            for (int i = 0; i < height; i++) {
+                addSeed(tile - 1, TILE_SIZE - 1, y - bounds.y + i);
+            }
+        }
+        if (x + width == bounds.x + bounds.width && column < columns - 1) {
+            for (int i = 0; i < height; i++) {
+                addSeed(tile + 1, 0, y - bounds.y + i);
+            }
+        }
+        if (y == bounds.y && row > 0) {
+            for (int i = 0; i < width; i++) {
+                addSeed(tile - columns, x - bounds.x + i, TILE_SIZE - 1);
+            }
+        }
+        if (y + height == bounds.y + bounds.height && row < rows - 1) {
+            for (int i = 0; i < width; i++) {
+                addSeed(tile + columns, x - bounds.x + i, 0);
+            }
+        }
+    }
+
+    // Add a pixel, as x, y within a tile, to search the tile from, queueing the tile if it is not yet
+    private void addSeed(int tile, int x, int y) {
+        if (whole[tile]) {
+            return;
+        }
+        int count = seedCounts[tile];
+        if (seeds[tile] == null) {
+            seeds[tile] = new int[64];
+        } else if (2 * count + 2 > seeds[tile].length) {
+            seeds[tile] = Arrays.copyOf(seeds[tile], seeds[tile].length * 2);
+        }
+        seeds[tile][2 * count] = x;
+        seeds[tile][2 * count + 1] = y;
+        seedCounts[tile] = count + 1;
+        if (!queued[tile]) {
+            queued[tile] = true;
+            queue.add(tile);
+        }
+    }
+
+    private void addRect(int x, int y, int width, int height) {
+        if (rectCount + 4 > rects.length) {
+            rects = Arrays.copyOf(rects, rects.length * 2);
+        }
+        rects[rectCount++] = x;
+        rects[rectCount++] = y;
+        rects[rectCount++] = width;
+        rects[rectCount++] = height;
+    }
+
+    // Pixels of a tile, in ARGB that is not premultiplied, rendered from the shapes binned into it unless they
+    // are still kept; null once cancelled
+    private int[] pixels(int tile) {
+        int[] pixels = rendered.get(tile);
+        if (pixels == null) {
+            List<SceneSnapshot.LayerSnapshot> layers = new ArrayList<>();
+            for (int i = 0; i < bins.size(); i++) {
+                SceneSnapshot.LayerSnapshot layer = snapshot.getLayers().get(i);
+                List<Shape> shapes = bins.get(i).get(tile);
+                layers.add(new SceneSnapshot.LayerSnapshot(shapes == null ? List.of() : shapes, layer.baked(),
+                        layer.opacity()));
+            }
+            SceneSnapshot part = new SceneSnapshot(layers, snapshot.getBackground(), snapshot.getWidth(),
+                    snapshot.getHeight());
+            BufferedImage image = part.render(TileRenderer.sequential(), 1.0, tileBounds(tile), drawn -> !cancelled);
+            if (image == null || cancelled) {
+                return null;
+            }
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            rendered.put(tile, pixels);
+        }
+        return pixels;
+    }
+
+    // Whether nothing is drawn in a tile: no layer has a shape reaching into it or baked pixels in it
+    private boolean isBlank(int tile) {
+        java.awt.Rectangle bounds = tileBounds(tile);
+        for (int i = 0; i < bins.size(); i++) {
+            BakedLayer baked = snapshot.getLayers().get(i).baked();
+            if (bins.get(i).get(tile) != null || baked != null && baked.bounds().intersects(bounds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether every pixel has the color of the first
+    private static boolean isUniform(int[] pixels) {
+        int first = pixels[0];
+        for (int pixel : pixels) {
+            if (pixel != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The part of the canvas a tile covers; tiles on the right and bottom edges may be smaller
+    private java.awt.Rectangle tileBounds(int tile) {
+        int left = (tile % columns) * TILE_SIZE;
+        int top = (tile / columns) * TILE_SIZE;
+        return new java.awt.Rectangle(left, top, Math.min(TILE_SIZE, snapshot.getWidth() - left),
+                Math.min(TILE_SIZE, snapshot.getHeight() - top));
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+
+/**
+ * Copies of the layer rasters taken every so many shapes, so a redraw
+ * after undo, redo or Clear All can start from the nearest copy of that
+ * layer and replay only the shapes added since, instead of the whole
+ * layer. The copies of all layers share one memory budget: when a new one
+ * would exceed it, every other copy is dropped and the spacing between
+ * copies doubles.
+ *
+ * @author DKRORY
+ */
+final class CheckpointStore {
+
+    static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+    // Shapes drawn between checkpoints until the budget forces them further apart
+    static final int BASE_INTERVAL = 32;
+
+    // The raster of one layer as it was at a history position, covering the view at origin
+    record Checkpoint(Layer layer, long position, long epoch, int shapeCount, Point origin, BufferedImage raster) {
+        long bytes() {
+            DataBuffer data = raster.getRaster().getDataBuffer();
+            return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+        }
+    }
+
+    // Oldest first, so positions increase along the list
+    private final ArrayList<Checkpoint> checkpoints = new ArrayList<>();
+    private long budget = DEFAULT_BUDGET;
+    private long bytes = 0;
+    private int interval = BASE_INTERVAL;
+
+    // Latest checkpoint of the layer its current state can be rebuilt from: same epoch, at or before the position,
+    // and of the view at origin
+    Checkpoint best(Layer layer, long epoch, long position, Point origin) {
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            if (checkpoint.layer() == layer && checkpoint.epoch() == epoch && checkpoint.position() <= position
+                    && (origin == null || checkpoint.origin().equals(origin))) {
+                return checkpoint;
+            }
+        }
+        return null;
+    }
+
+    // Whether enough shapes were drawn on the layer since its best checkpoint of any view to be worth a new one,
+    // so scrolling alone does not take checkpoints
+    boolean isDue(Layer layer, long epoch, long position, int shapeCount) {
+        if (budget <= 0) {
+            return false;
+        }
+        Checkpoint checkpoint = best(layer, epoch, position, null);
+        return shapeCount - (checkpoint == null ? 0 : checkpoint.shapeCount()) >= interval;
+    }
+
+    // Keep a copy of the layer's raster for the given state
+    void add(Layer layer, long epoch, long position, int shapeCount, Point origin, BufferedImage image) {
+        BufferedImage raster = new BufferedImage(image.getColorModel(), image.copyData(null),
+                image.isAlphaPremultiplied(), null);
+        Checkpoint checkpoint = new Checkpoint(layer, position, epoch, shapeCount, origin, raster);
+        // A checkpoint for an earlier position can come in after a later one, e.g. after undo
+        int index = checkpoints.size();
+        while (index > 0 && checkpoints.get(index - 1).position() > position) {
+            index--;
+        }
+        checkpoints.add(index, checkpoint);
+        bytes += checkpoint.bytes();
+        while (bytes > budget && !checkpoints.isEmpty()) {
+            thin();
+        }
+    }
+
+    // Drop every other checkpoint, oldest first, and space new ones twice as far apart
+    private void thin() {
+        if (checkpoints.size() == 1) {
+            bytes -= checkpoints.removeFirst().bytes();
+            return;
+        }
+        ArrayList<Checkpoint> kept = new ArrayList<>();
+        // Walk back from the newest so it survives: it is the most likely to be needed next
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            if ((checkpoints.size() - 1 - i) % 2 == 0) {
+                kept.addFirst(checkpoint);
+            } else {
+                bytes -= checkpoint.bytes();
+            }
+        }
+        checkpoints.clear();
+        checkpoints.addAll(kept);
+        interval *= 2;
+    }
+
+    // Forget checkpoints of undone states that a new command has made unreachable
+    void dropAfter(long position) {
+        while (!checkpoints.isEmpty() && checkpoints.getLast().position() > position) {
+            bytes -= checkpoints.removeLast().bytes();
+        }
+    }
+
+    // Forget every checkpoint, e.g. when the layers are resized or a shape's pixels change
+    void clear() {
+        checkpoints.clear();
+        bytes = 0;
+        interval = BASE_INTERVAL;
+    }
+
+    // Memory the checkpoints may use in bytes, 0 turns them off
+    void setBudget(long budget) {
+        this.budget = budget;
+        while (bytes > budget && !checkpoints.isEmpty()) {
+            thin();
+        }
+    }
+
+    int size() {
+        return checkpoints.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,42 @@
+package org.example;
+
+import java.awt.*;
+
+/**
+ * One undoable change to the drawing. Every command carries the epoch of
+ * the drawing after it: adding a shape or a layer or changing the
+ * background keeps the epoch, while clearing a layer starts a new one,
+ * because its shapes are replaced as a whole. Raster checkpoints are only
+ * reused within an epoch. Changing a layer's visibility, opacity or lock
+ * is not a command; like a selected tool, it does not change what is drawn.
+ *
+ * @author DKRORY
+ */
+sealed interface Command {
+
+    long epoch();
+
+    // A shape drawn on top of the others in a layer: a stroke, an eraser stroke, a line, rectangle or oval,
+    // or an image
+    record AddShape(Layer layer, Shape shape, long epoch) implements Command {
+    }
+
+    // Clear All on one layer, keeping the cleared contents with the raster of the shapes baked under them
+    // for undo until the command leaves the history. Later commands work on the replacement list, so redo
+    // must bring back those same contents, not new ones
+    record ClearAll(Layer layer, Layer.Contents cleared, Layer.Contents replacement, long epoch)
+            implements Command {
+    }
+
+    // A new panel background color
+    record ChangeBackground(Color from, Color to, long epoch) implements Command {
+    }
+
+    // A new layer inserted at an index in the stack, bottom first
+    record AddLayer(Layer layer, int index, long epoch) implements Command {
+    }
+
+    // A layer taken out of the stack from an index, keeping its shapes for undo
+    record RemoveLayer(Layer layer, int index, long epoch) implements Command {
+    }
+}
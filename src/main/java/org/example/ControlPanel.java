@@ -1,16 +1,19 @@
 package org.example;
 
-import javax.imageio.ImageIO;
 import javax.sound.sampled.*;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
-import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static org.example.PaintBrushFrame.drawingPanel;
@@ -21,8 +24,23 @@ import static org.example.PaintBrushFrame.drawingPanel;
  */
 public final class ControlPanel extends JPanel {
 
+    // Offered by the Save and Open dialogs next to the image formats
+    private static final FileNameExtensionFilter DOCUMENT_FILTER = new FileNameExtensionFilter(
+            "Paint Brush drawing (*." + DocumentFile.EXTENSION + ")", DocumentFile.EXTENSION);
+
     private final JCheckBox dottedCheckbox;
     private final JCheckBox filledCheckbox;
+    // Shapes held as objects and memory held by the drawing, see trackDrawing
+    private final JLabel statusLabel;
+    // Layer stack of the drawing with the active layer selected, and the settings of the active layer
+    private final JComboBox<String> layerBox;
+    private final JCheckBox visibleCheckbox;
+    private final JCheckBox lockedCheckbox;
+    private final JSlider opacitySlider;
+    // How far a color may be from the one clicked for the fill tool to cover it
+    private final JSlider toleranceSlider;
+    // Set while the layer controls are refreshed from the drawing, so their listeners do not write back
+    private boolean updatingLayers = false;
     private final Clip youSavedMe;
     private final Clip saveMe;
     private final Clip tapHere;
@@ -54,23 +72,111 @@ public final class ControlPanel extends JPanel {
         this.add(createIconButton("Line", "line.png", new LineButtonListener()));
         this.add(createIconButton("Rectangle", "rec.png", new RectangleButtonListener()));
         this.add(createIconButton("Oval", "oval.png", new OvalButtonListener()));
+        this.add(createTextButton("Fill", "Fill", e -> drawingPanel.setCurrentShape(ShapeType.FILL)));
+        // Starts at the drawing panel's default of 0, which only fills the exact color clicked
+        toleranceSlider = new JSlider(0, 255, 0);
+        toleranceSlider.setToolTipText("Fill Tolerance");
+        toleranceSlider.setPreferredSize(new Dimension(100, 40));
+        toleranceSlider.setBackground(Color.WHITE);
+        toleranceSlider.addChangeListener(e -> {
+            if (!toleranceSlider.getValueIsAdjusting()) {
+                drawingPanel.setFillTolerance(toleranceSlider.getValue());
+            }
+        });
+        this.add(toleranceSlider);
 
         this.add(dottedCheckbox);
         this.add(filledCheckbox);
 
         this.add(createIconButton("Undo", "ctrlZ.png", new UndoButtonListener()));
+        this.add(createIconButton("Redo", "ctrlY.png", new RedoButtonListener()));
         this.add(createIconButton("Eraser", "eraser.png", new EraserButtonListener()));
-        this.add(createIconButton("Clear All", "clearAll.png", new ClearAllButtonListener()));
+        this.add(createIconButton("Clear Layer", "clearAll.png", new ClearAllButtonListener()));
 
         this.add(createIconButton("Save", "save.png", new SaveButtonListener()));
         this.add(createIconButton("Open", "open.png", new OpenButtonListener()));
         this.add(createIconButton("Tap Here", "tapHere.png", new TapHereButtonListener()));
 
+        layerBox = new JComboBox<>();
+        layerBox.setToolTipText("Active Layer");
+        layerBox.addActionListener(e -> {
+            if (!updatingLayers && layerBox.getSelectedIndex() >= 0) {
+                // The list shows the top layer first
+                drawingPanel.setActiveLayer(drawingPanel.getLayerCount() - 1 - layerBox.getSelectedIndex());
+            }
+        });
+        visibleCheckbox = new JCheckBox("Visible");
+        visibleCheckbox.addItemListener(e -> {
+            if (!updatingLayers) {
+                drawingPanel.setActiveLayerVisible(visibleCheckbox.isSelected());
+            }
+        });
+        lockedCheckbox = new JCheckBox("Locked");
+        lockedCheckbox.addItemListener(e -> {
+            if (!updatingLayers) {
+                drawingPanel.setActiveLayerLocked(lockedCheckbox.isSelected());
+            }
+        });
+        opacitySlider = new JSlider(0, 100, 100);
+        opacitySlider.setToolTipText("Layer Opacity");
+        opacitySlider.setPreferredSize(new Dimension(100, 40));
+        opacitySlider.addChangeListener(e -> {
+            if (!updatingLayers) {
+                drawingPanel.setActiveLayerOpacity(opacitySlider.getValue() / 100.0f);
+            }
+        });
+        Font layerFont = new Font("Arial", Font.PLAIN, 14);
+        layerBox.setFont(layerFont);
+        visibleCheckbox.setFont(layerFont);
+        lockedCheckbox.setFont(layerFont);
+        visibleCheckbox.setBackground(Color.WHITE);
+        lockedCheckbox.setBackground(Color.WHITE);
+        opacitySlider.setBackground(Color.WHITE);
+
+        this.add(layerBox);
+        this.add(createTextButton("Add Layer", "+", e -> drawingPanel.addLayer()));
+        this.add(createTextButton("Remove Layer", "-", e -> drawingPanel.removeActiveLayer()));
+        this.add(visibleCheckbox);
+        this.add(lockedCheckbox);
+        this.add(opacitySlider);
+
+        statusLabel = new JLabel();
+        statusLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+        this.add(statusLabel);
+
         this.setBackground(Color.WHITE);
         this.setVisible(true);
 
     }
 
+    // Keep the status readout in step with a drawing panel's shape count and memory use
+    void trackDrawing(DrawingPanel panel) {
+        PropertyChangeListener listener = event -> statusLabel.setText(String.format("%d shapes, %.1f MB",
+                panel.getShapeCount(), panel.getEstimatedBytes() / (1024.0 * 1024.0)));
+        panel.addPropertyChangeListener("shapeCount", listener);
+        panel.addPropertyChangeListener("estimatedBytes", listener);
+        listener.propertyChange(null);
+        panel.addPropertyChangeListener("layers", event -> updateLayerControls(panel));
+        updateLayerControls(panel);
+    }
+
+    // Show the drawing's layers, top first, and the settings of the active one
+    private void updateLayerControls(DrawingPanel panel) {
+        updatingLayers = true;
+        try {
+            layerBox.removeAllItems();
+            for (int i = panel.getLayerCount() - 1; i >= 0; i--) {
+                layerBox.addItem(panel.getLayerName(i));
+            }
+            layerBox.setSelectedIndex(panel.getLayerCount() - 1 - panel.getActiveLayerIndex());
+            visibleCheckbox.setSelected(panel.isActiveLayerVisible());
+            lockedCheckbox.setSelected(panel.isActiveLayerLocked());
+            opacitySlider.setValue(Math.round(panel.getActiveLayerOpacity() * 100));
+        } finally {
+            updatingLayers = false;
+        }
+    }
+
     private void playSound(Clip clip) {
         // Handle the case when the sound couldn't be loaded
         if (clip != null) {
@@ -114,6 +220,20 @@ public final class ControlPanel extends JPanel {
         return button;
     }
 
+    // Small button labelled with text, for actions that have no icon
+    private JButton createTextButton(String toolTip, String text, ActionListener listener) {
+        JButton button = new JButton(text);
+        button.addActionListener(e -> {
+            playSound(mouseClick);
+            listener.actionPerformed(e);
+        });
+        button.setFont(new Font("Arial", Font.BOLD, 24));
+        button.setToolTipText(toolTip);
+        button.setBackground(Color.WHITE);
+        button.setFocusable(false);
+        return button;
+    }
+
     // ActionListener for Panel Background Color button
     private class PaletteButtonListener implements ActionListener {
 
@@ -125,7 +245,7 @@ public final class ControlPanel extends JPanel {
             // If the user did not cancel the dialog
             if (color != null) {
                 // Set the panel background color to the selected color
-                drawingPanel.setBackground(color);
+                drawingPanel.changeBackground(color);
             }
         }
     }
@@ -216,6 +336,18 @@ public final class ControlPanel extends JPanel {
         }
     }
 
+    // ActionListener for Redo button
+    private class RedoButtonListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            playSound(mouseClick);
+            if (drawingPanel != null) {
+                drawingPanel.redo();
+            }
+        }
+    }
+
     // ActionListener for Tap Here button
     private class TapHereButtonListener implements ActionListener {
         @Override
@@ -232,30 +364,94 @@ public final class ControlPanel extends JPanel {
 
             // Use JFileChooser to choose the file to save
             JFileChooser fileChooser = new JFileChooser();
+            fileChooser.addChoosableFileFilter(DOCUMENT_FILTER);
             int result = fileChooser.showSaveDialog(ControlPanel.this);
 
-            // If a file is selected, attempt to save the drawing
+            // If a file is selected, save the drawing in the background so the UI stays responsive
             if (result == JFileChooser.APPROVE_OPTION) {
                 File fileToSave = fileChooser.getSelectedFile();
+                if (fileChooser.getFileFilter() == DOCUMENT_FILTER && !DocumentFile.isDocument(fileToSave.toPath())) {
+                    fileToSave = new File(fileToSave.getPath() + "." + DocumentFile.EXTENSION);
+                }
+                if (DocumentFile.isDocument(fileToSave.toPath())) {
+                    saveDocument(fileToSave.toPath());
+                    return;
+                }
 
-                try {
-                    // Create a BufferedImage and save the drawing to the selected file
-                    BufferedImage image = new BufferedImage(drawingPanel.getWidth(), drawingPanel.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                    Graphics2D g2d = image.createGraphics();
-                    drawingPanel.paint(g2d);
-                    g2d.dispose();
+                long edtStart = System.nanoTime();
+                SaveWorker worker = new SaveWorker(drawingPanel.snapshot(), fileToSave.toPath()) {
+                    @Override
+                    protected void done() {
+                        saveFinished(this);
+                    }
+                };
+                ProgressMonitor monitor = new ProgressMonitor(ControlPanel.this, "Saving " + worker.getTarget().getFileName(), null, 0, 100);
+                worker.addPropertyChangeListener(event -> {
+                    if ("progress".equals(event.getPropertyName())) {
+                        monitor.setProgress((Integer) event.getNewValue());
+                    }
+                    if (monitor.isCanceled()) {
+                        worker.cancel(false);
+                    }
+                    if (worker.isDone()) {
+                        monitor.close();
+                    }
+                });
+                worker.execute();
+                Logger.getLogger(DrawingPanel.class.getName()).fine("Save of " + worker.getTarget().getFileName() + " blocked the EDT for "
+                        + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - edtStart) + " us");
+            }
+        }
+
+        // Write the drawing with its layers and shapes as a document in the background
+        private void saveDocument(Path target) {
+            long start = System.nanoTime();
+            DocumentFile.Document document = drawingPanel.document();
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws IOException {
+                    DocumentFile.write(document, target);
+                    return null;
+                }
 
-                    // Attempt to write the image to the file
-                    if (ImageIO.write(image, "png", fileToSave)) {
+                @Override
+                protected void done() {
+                    Logger logger = Logger.getLogger(DrawingPanel.class.getName());
+                    try {
+                        get();
+                        logger.info("Saved " + target.getFileName() + " in "
+                                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
                         JOptionPane.showMessageDialog(ControlPanel.this, "Drawing saved successfully!");
                         playSound(youSavedMe);
-                    } else {
-                        throw new IOException("Error saving image: ImageIO.write returned false");
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        logger.severe("Error saving drawing: " + cause.getMessage());
+                        JOptionPane.showMessageDialog(ControlPanel.this, "Error saving drawing: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                     }
-                } catch (IOException ex) {
-                    Logger.getLogger(DrawingPanel.class.getName()).severe("Error saving image: " + ex.getMessage());
-                    JOptionPane.showMessageDialog(ControlPanel.this, "Error saving image: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
+            }.execute();
+        }
+
+        // Report the outcome of a background save, called on the EDT
+        private void saveFinished(SaveWorker worker) {
+            Logger logger = Logger.getLogger(DrawingPanel.class.getName());
+            if (worker.isCancelled()) {
+                logger.info("Save of " + worker.getTarget().getFileName() + " cancelled after " + worker.elapsedMillis() + " ms");
+                return;
+            }
+            try {
+                worker.get();
+                logger.info("Saved " + worker.getTarget().getFileName() + " in " + worker.elapsedMillis() + " ms");
+                JOptionPane.showMessageDialog(ControlPanel.this, "Drawing saved successfully!");
+                playSound(youSavedMe);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                logger.severe("Error saving image: " + cause.getMessage());
+                JOptionPane.showMessageDialog(ControlPanel.this, "Error saving image: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -295,25 +491,75 @@ public final class ControlPanel extends JPanel {
             playSound(mouseClick);
             // Use JFileChooser to choose the file to open
             JFileChooser fileChooser = new JFileChooser();
+            fileChooser.addChoosableFileFilter(DOCUMENT_FILTER);
             int result = fileChooser.showOpenDialog(ControlPanel.this);
 
             // If a file is selected, attempt to open and load the drawing
             if (result == JFileChooser.APPROVE_OPTION) {
                 File fileToOpen = fileChooser.getSelectedFile();
+                if (DocumentFile.isDocument(fileToOpen.toPath())) {
+                    openDocument(fileToOpen.toPath());
+                    return;
+                }
+                // The image is added to the active layer, which must take new shapes
+                if (!drawingPanel.isActiveLayerEditable()) {
+                    JOptionPane.showMessageDialog(ControlPanel.this, "The active layer is hidden or locked.", "Open", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
 
-                try {
-                    // Read the image from the selected file and load it into the drawing panel
-                    BufferedImage img = ImageIO.read(fileToOpen);
-                    if (img != null) {
-                        drawingPanel.loadImage(img);
-                        JOptionPane.showMessageDialog(ControlPanel.this, "Image loaded successfully!");
-                    } else {
-                        throw new IOException("Error loading image: ImageIO.read returned null");
+                // Decode in the background; a preview shows up first and the full image replaces it
+                OpenWorker worker = new OpenWorker(drawingPanel, fileToOpen) {
+                    @Override
+                    protected void done() {
+                        openFinished(this);
+                    }
+                };
+                worker.execute();
+            }
+        }
+
+        // Read a document in the background and replace the drawing with it; image pixels are read when first drawn
+        private void openDocument(Path file) {
+            long start = System.nanoTime();
+            GraphicsConfiguration gc = drawingPanel.getGraphicsConfiguration();
+            TileCache cache = drawingPanel.getTileCache();
+            new SwingWorker<DocumentFile.Document, Void>() {
+                @Override
+                protected DocumentFile.Document doInBackground() throws IOException {
+                    return DocumentFile.read(file, gc, cache);
+                }
+
+                @Override
+                protected void done() {
+                    Logger logger = Logger.getLogger(DrawingPanel.class.getName());
+                    try {
+                        drawingPanel.openDocument(get());
+                        logger.info("Opened " + file.getFileName() + " in "
+                                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        logger.severe("Error opening drawing: " + cause.getMessage());
+                        JOptionPane.showMessageDialog(ControlPanel.this, "Error opening drawing: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                     }
-                } catch (IOException ex) {
-                    Logger.getLogger(DrawingPanel.class.getName()).severe("Error loading image: " + ex.getMessage());
-                    JOptionPane.showMessageDialog(ControlPanel.this, "Error loading image: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
+            }.execute();
+        }
+
+        // Show the fully decoded image or report why it could not be loaded, called on the EDT
+        private void openFinished(OpenWorker worker) {
+            Logger logger = Logger.getLogger(DrawingPanel.class.getName());
+            try {
+                worker.showImage(worker.get());
+                logger.info("Loaded " + worker.getFile().getName() + " in " + worker.elapsedMillis() + " ms");
+                JOptionPane.showMessageDialog(ControlPanel.this, "Image loaded successfully!");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                logger.severe("Error loading image: " + cause.getMessage());
+                JOptionPane.showMessageDialog(ControlPanel.this, "Error loading image: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -0,0 +1,790 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The app's own document format, which keeps every layer with its shapes
+ * as vectors, so a saved drawing opens again as shapes and not as one flat
+ * picture. A file holds, in this order:
+ * <ul>
+ *   <li>a fixed header: magic, format version, canvas size, background, active layer and section offsets</li>
+ *   <li>the image table, with the pixel format, size and file offset of every embedded image</li>
+ *   <li>the layers, each with its settings, the tiles of its baked raster and a fixed-size record per shape</li>
+ *   <li>the stroke points, each point the difference from the one before as two zigzag varints, and the
+ *   rectangles of fills, each as the difference of its corner from the one before and its size</li>
+ *   <li>the image pixels, tile by tile, 8-byte aligned</li>
+ * </ul>
+ * Shapes refer to images by their index in the table, so an image is
+ * stored once however many shapes show it; so are the tiles of baked
+ * rasters. Files are written and read through memory mappings. Opening
+ * decodes the shapes but leaves the pixels in the mapped file until each
+ * tile is first drawn, so a document with large images opens in about
+ * the time its shapes take.
+ *
+ * @author DKRORY
+ */
+final class DocumentFile {
+
+    static final String EXTENSION = "pbd";
+    // Bumped whenever the layout changes; files of a newer version are refused
+    static final int VERSION = 2;
+
+    // "PBDF"
+    private static final int MAGIC = 0x50424446;
+    private static final int HEADER_SIZE = 48;
+    private static final int IMAGE_RECORD_SIZE = 17;
+    private static final int SHAPE_RECORD_SIZE = 24;
+    private static final int TILE_RECORD_SIZE = 12;
+    // Pixels are mapped in windows of up to this many bytes; a larger image gets a mapping of its own
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    // Kinds of shape records
+    private static final byte LINE = 0;
+    private static final byte RECTANGLE = 1;
+    private static final byte OVAL = 2;
+    private static final byte FREEHAND = 3;
+    private static final byte ERASE = 4;
+    private static final byte IMAGE = 5;
+    private static final byte FILL = 6;
+    // Flags of shape records
+    private static final int DOTTED = 1;
+    private static final int FILLED = 2;
+    // Flags of layers
+    private static final int VISIBLE = 1;
+    private static final int LOCKED = 2;
+    // Pixel formats of images: premultiplied alpha, as the tiles are drawn from, or opaque
+    private static final byte ARGB_PRE = 0;
+    private static final byte RGB = 1;
+
+    // Everything a document holds; the shapes and baked rasters do not change, so it can be written off the EDT
+    record Document(int canvasWidth, int canvasHeight, Color background, int activeLayer, List<LayerData> layers) {
+
+        // Immutable copy of the visible layers, covering the canvas from its origin to the last pixel drawn; the
+        // baked tiles still in the file are read on the calling thread, into the cache the document was read with
+        SceneSnapshot snapshot() {
+            ArrayList<SceneSnapshot.LayerSnapshot> visible = new ArrayList<>();
+            java.awt.Rectangle drawn = new java.awt.Rectangle(0, 0, 1, 1);
+            for (LayerData layer : layers) {
+                if (!layer.visible()) {
+                    continue;
+                }
+                BakedLayer baked = layer.baked() == null ? null : layer.baked().snapshot();
+                if (baked != null) {
+                    drawn.add(baked.bounds());
+                }
+                for (Shape shape : layer.shapes()) {
+                    drawn.add(shape.getBounds());
+                }
+                visible.add(new SceneSnapshot.LayerSnapshot(layer.shapes(), baked, layer.opacity()));
+            }
+            return new SceneSnapshot(visible, background, Math.min(drawn.x + drawn.width, canvasWidth),
+                    Math.min(drawn.y + drawn.height, canvasHeight));
+        }
+    }
+
+    // One layer, bottom first; baked is null when no shape has been baked into a raster
+    record LayerData(String name, boolean visible, boolean locked, float opacity, List<Shape> shapes,
+                     BakedLayer baked) {
+    }
+
+    private DocumentFile() {
+    }
+
+    // Whether a file has the document extension
+    static boolean isDocument(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith("." + EXTENSION);
+    }
+
+    // Write a document to a file next to the target, moved into place once it is complete, so a failed save
+    // never leaves a truncated file behind. Every byte is on disk before the move and the move is once this
+    // returns, so a crash right after leaves either the old file or the whole new one, never one whose pixels
+    // were still in memory
+    static void write(Document document, Path target) throws IOException {
+        Encoder encoder = new Encoder(document);
+        Path directory = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                encoder.write(channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(directory);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Force the entries of a directory to disk, so a file just moved into it stays there after a crash
+    static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory as a file; its file systems commit a rename without being asked
+        }
+    }
+
+    // Read a document, with its image tiles in the render format of gc (null when headless); baked rasters
+    // are set up to move their tiles into cache on the EDT, when they are first used
+    static Document read(Path file, GraphicsConfiguration gc, TileCache cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            String name = file.getFileName().toString();
+            ByteBuffer header = size < HEADER_SIZE ? null : channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            long pixelsOffset = pixelsOffset(name, size, header);
+            try {
+                ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, pixelsOffset);
+                return new Decoder(head, new Pixels(channel, FileChannel.MapMode.READ_ONLY, size), gc, cache).read();
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException(name + " is damaged", e);
+            }
+        }
+    }
+
+    // Read a document from its bytes in memory, from position 0 up to the limit, as read(Path) does a file of
+    // that name; the document keeps using the buffer, so it must not change afterwards
+    static Document read(ByteBuffer bytes, String name, GraphicsConfiguration gc, TileCache cache)
+            throws IOException {
+        ByteBuffer document = bytes.slice(0, bytes.limit());
+        long pixelsOffset = pixelsOffset(name, document.capacity(), document.capacity() < HEADER_SIZE ? null
+                : document.slice(0, HEADER_SIZE));
+        try {
+            ByteBuffer head = document.slice(0, (int) pixelsOffset);
+            return new Decoder(head, new Pixels(document), gc, cache).read();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(name + " is damaged", e);
+        }
+    }
+
+    // Where the pixel section of a document of size bytes starts, checking its header first; the header is null
+    // when the document is too short to have one
+    private static long pixelsOffset(String name, long size, ByteBuffer header) throws IOException {
+        if (header == null || header.getInt(0) != MAGIC) {
+            throw new IOException(name + " is not a Paint Brush document");
+        }
+        int version = header.getShort(4) & 0xffff;
+        if (version > VERSION) {
+            throw new IOException(name + " was saved by a newer version of the app (format " + version + ")");
+        }
+        long pixelsOffset = header.getLong(40);
+        if (pixelsOffset < HEADER_SIZE || pixelsOffset > Math.min(size, Integer.MAX_VALUE)) {
+            throw new IOException(name + " is damaged");
+        }
+        return pixelsOffset;
+    }
+
+    // Zigzag varint: small values of either sign take one byte
+    private static void putVarint(ByteBuffer buffer, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7f) != 0) {
+            buffer.put((byte) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    private static int varintSize(int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        return zigzag == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(zigzag)) / 7;
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int zigzag = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            zigzag |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    // Bytes of the points of a stroke
+    private static long pointsSize(StrokeShape stroke) {
+        long size = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < stroke.pointCount(); i++) {
+            size += varintSize(stroke.x(i) - x) + varintSize(stroke.y(i) - y);
+            x = stroke.x(i);
+            y = stroke.y(i);
+        }
+        return size;
+    }
+
+    // Bytes of the rectangles of a fill
+    private static long rectsSize(Fill fill) {
+        long size = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < 4 * fill.rectCount(); i += 4) {
+            size += varintSize(fill.rect(i) - x) + varintSize(fill.rect(i + 1) - y)
+                    + varintSize(fill.rect(i + 2)) + varintSize(fill.rect(i + 3));
+            x = fill.rect(i);
+            y = fill.rect(i + 1);
+        }
+        return size;
+    }
+
+    // Offset in ints of a tile in an image stored tile by tile, each tile row by row
+    private static int tileOffset(int width, int height, int tileSize, int column, int row) {
+        int tileHeight = Math.min(tileSize, height - row * tileSize);
+        return row * tileSize * width + column * tileSize * tileHeight;
+    }
+
+    // Size of the tiles an image is stored in: the whole image if it fits in one, like TiledRaster.wrap
+    private static int tileSize(int width, int height) {
+        return width <= TiledRaster.TILE_SIZE && height <= TiledRaster.TILE_SIZE
+                ? Math.max(1, Math.max(width, height)) : TiledRaster.TILE_SIZE;
+    }
+
+    // A shape on its own with the points of a stroke or the rectangles of a fill right after its record, as
+    // the autosave journal appends it; image shapes cannot be written this way
+    static void putShape(ByteBuffer out, Shape shape) {
+        if (shape instanceof ImageShape) {
+            throw new IllegalArgumentException("Image shapes are only saved with their document");
+        }
+        putRecord(out, shape, 0, 0);
+        if (shape instanceof StrokeShape stroke) {
+            putPoints(out, stroke);
+        } else if (shape instanceof Fill fill) {
+            putRects(out, fill);
+        }
+    }
+
+    // Most bytes putShape takes for a shape
+    static long maxShapeSize(Shape shape) {
+        return SHAPE_RECORD_SIZE + switch (shape) {
+            case StrokeShape stroke -> 10L * stroke.pointCount();
+            case Fill fill -> 20L * fill.rectCount();
+            default -> 0;
+        };
+    }
+
+    // Shape written by putShape
+    static Shape getShape(ByteBuffer in) throws IOException {
+        return getRecord(in, in, -1, null, null);
+    }
+
+    // Fixed-size record of a shape: kind, flags, color and four ints of geometry; a stroke has its point
+    // count and where its points start, a fill the same for its rectangles, an image shape its position and
+    // index in the image table
+    private static void putRecord(ByteBuffer out, Shape shape, long pointsAt, int image) {
+        byte kind = switch (shape) {
+            case Line line -> LINE;
+            case Rectangle rectangle -> RECTANGLE;
+            case Oval oval -> OVAL;
+            case Freehand freehand -> FREEHAND;
+            case Erase erase -> ERASE;
+            case ImageShape imageShape -> IMAGE;
+            case Fill fill -> FILL;
+            default -> throw new IllegalArgumentException("Cannot save " + shape.getClass().getSimpleName());
+        };
+        out.put(kind);
+        out.put((byte) ((shape.isDotted ? DOTTED : 0) | (shape.isFilled ? FILLED : 0)));
+        out.putShort((short) 0);
+        out.putInt(shape.color == null ? 0 : shape.color.getRGB());
+        switch (shape) {
+            case StrokeShape stroke -> out.putInt(stroke.pointCount()).putInt(0).putLong(pointsAt);
+            case Fill fill -> out.putInt(fill.rectCount()).putInt(0).putLong(pointsAt);
+            case ImageShape imageShape -> {
+                java.awt.Rectangle bounds = imageShape.getBounds();
+                out.putInt(bounds.x).putInt(bounds.y).putInt(image).putInt(0);
+            }
+            default -> out.putInt(shape.start.x).putInt(shape.start.y).putInt(shape.end.x).putInt(shape.end.y);
+        }
+    }
+
+    // Points of a stroke, each as the difference from the one before
+    private static void putPoints(ByteBuffer out, StrokeShape stroke) {
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < stroke.pointCount(); i++) {
+            putVarint(out, stroke.x(i) - x);
+            putVarint(out, stroke.y(i) - y);
+            x = stroke.x(i);
+            y = stroke.y(i);
+        }
+    }
+
+    // Rectangles of a fill, each as the difference of its corner from the one before and its size
+    private static void putRects(ByteBuffer out, Fill fill) {
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < 4 * fill.rectCount(); i += 4) {
+            putVarint(out, fill.rect(i) - x);
+            putVarint(out, fill.rect(i + 1) - y);
+            putVarint(out, fill.rect(i + 2));
+            putVarint(out, fill.rect(i + 3));
+            x = fill.rect(i);
+            y = fill.rect(i + 1);
+        }
+    }
+
+    // Shape of a record; its points are read from points at pointsOffset plus the offset in the record, or
+    // right after the record when pointsOffset is negative. Images come from decoder, colors are shared
+    // through colors when it is not null
+    private static Shape getRecord(ByteBuffer record, ByteBuffer points, int pointsOffset, Decoder decoder,
+                                   HashMap<Integer, Color> colors) throws IOException {
+        byte kind = record.get();
+        int flags = record.get();
+        record.getShort();
+        int argb = record.getInt();
+        Color color = colors == null ? new Color(argb, true) : colors.computeIfAbsent(argb, c -> new Color(c, true));
+        boolean dotted = (flags & DOTTED) != 0;
+        boolean filled = (flags & FILLED) != 0;
+        return switch (kind) {
+            case LINE -> new Line(getPoint(record), getPoint(record), color, dotted);
+            case RECTANGLE -> new Rectangle(getPoint(record), getPoint(record), color, dotted, filled);
+            case OVAL -> new Oval(getPoint(record), getPoint(record), color, dotted, filled);
+            case FREEHAND, ERASE -> {
+                // Every point takes at least two bytes
+                int count = seekPoints(record, points, pointsOffset, 2);
+                int[] xs = new int[count];
+                int[] ys = new int[count];
+                int x = 0;
+                int y = 0;
+                for (int i = 0; i < count; i++) {
+                    x += getVarint(points);
+                    y += getVarint(points);
+                    xs[i] = x;
+                    ys[i] = y;
+                }
+                yield kind == FREEHAND ? new Freehand(xs, ys, color, dotted) : new Erase(xs, ys);
+            }
+            case FILL -> {
+                // Every rectangle takes at least four bytes
+                int count = seekPoints(record, points, pointsOffset, 4);
+                int[] rects = new int[4 * count];
+                int x = 0;
+                int y = 0;
+                for (int i = 0; i < rects.length; i += 4) {
+                    x += getVarint(points);
+                    y += getVarint(points);
+                    rects[i] = x;
+                    rects[i + 1] = y;
+                    rects[i + 2] = getVarint(points);
+                    rects[i + 3] = getVarint(points);
+                    if (rects[i + 2] <= 0 || rects[i + 3] <= 0) {
+                        throw new IllegalArgumentException("Bad fill");
+                    }
+                }
+                yield new Fill(rects, color);
+            }
+            case IMAGE -> {
+                if (decoder == null) {
+                    throw new IllegalArgumentException("Image shape outside a document");
+                }
+                Point position = getPoint(record);
+                ImagePyramid pyramid = decoder.pyramid(record.getInt());
+                record.getInt();
+                yield new ImageShape(pyramid, position);
+            }
+            default -> throw new IllegalArgumentException("Unknown shape kind " + kind);
+        };
+    }
+
+    // Read the count and offset of the points of a stroke or the rectangles of a fill from the rest of its
+    // record and move points to where they start, checking that each of them could take bytesEach bytes
+    private static int seekPoints(ByteBuffer record, ByteBuffer points, int pointsOffset, int bytesEach) {
+        int count = record.getInt();
+        record.getInt();
+        long offset = record.getLong();
+        if (pointsOffset >= 0) {
+            if (offset < 0 || offset > points.limit() - pointsOffset) {
+                throw new IllegalArgumentException("Bad shape");
+            }
+            points.position(pointsOffset + (int) offset);
+        }
+        if (count < 0 || (long) bytesEach * count > points.remaining()) {
+            throw new IllegalArgumentException("Bad shape");
+        }
+        return count;
+    }
+
+    private static Point getPoint(ByteBuffer in) {
+        return new Point(in.getInt(), in.getInt());
+    }
+
+    // Maps the pixel section in windows, in file order, and hands out each image's pixels as ints
+    private static final class Pixels {
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long end;
+        private ByteBuffer window;
+        private long windowStart;
+
+        Pixels(FileChannel channel, FileChannel.MapMode mode, long end) {
+            this.channel = channel;
+            this.mode = mode;
+            this.end = end;
+        }
+
+        // Pixels of a document held in memory, all of it in one window that is never moved
+        Pixels(ByteBuffer document) {
+            this(null, FileChannel.MapMode.READ_ONLY, document.capacity());
+            window = document;
+            windowStart = 0;
+        }
+
+        // The ints of the image at an offset in the file, mapping a new window unless the current one holds them
+        IntBuffer map(long offset, long bytes) throws IOException {
+            if (offset < 0 || bytes < 0 || offset + bytes > end) {
+                throw new IOException("Image pixels past the end of the file");
+            }
+            if (window == null || offset < windowStart || offset + bytes > windowStart + window.capacity()) {
+                long size = Math.max(bytes, Math.min(WINDOW_SIZE, end - offset));
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Image too large for the document format");
+                }
+                force();
+                window = channel.map(mode, offset, size);
+                windowStart = offset;
+            }
+            return window.slice((int) (offset - windowStart), (int) bytes).asIntBuffer();
+        }
+
+        // Write the pixels put into the current window back to the file
+        void force() {
+            if (window != null && mode == FileChannel.MapMode.READ_WRITE) {
+                ((MappedByteBuffer) window).force();
+            }
+        }
+    }
+
+    // Lays a document out and writes it
+    private static final class Encoder {
+        // An embedded image: an image shape, or a tile of a baked raster when shape is null
+        private record Image(byte format, int width, int height, long offset, ImageShape shape) {
+            long bytes() {
+                return (long) width * height * 4;
+            }
+        }
+
+        private final Document document;
+        private final ArrayList<Image> images = new ArrayList<>();
+        // Index in images by pyramid, or by shape while only the preview is loaded
+        private final IdentityHashMap<Object, Integer> imageIndex = new IdentityHashMap<>();
+        // Index in images of the first tile of each layer's baked raster
+        private final int[] firstTile;
+        // Where the tile records of each layer's baked raster start
+        private final int[] tileRecords;
+        private final long pointsOffset;
+        private final long pixelsOffset;
+        private final long size;
+
+        Encoder(Document document) throws IOException {
+            this.document = document;
+            List<LayerData> layers = document.layers();
+            firstTile = new int[layers.size()];
+            tileRecords = new int[layers.size()];
+            // Images are numbered in the order their pixels follow each other: per layer, the baked tiles
+            // first and then the images its shapes show for the first time
+            ArrayList<Image> pending = new ArrayList<>();
+            long head = HEADER_SIZE;
+            long points = 0;
+            for (int i = 0; i < layers.size(); i++) {
+                LayerData layer = layers.get(i);
+                firstTile[i] = pending.size();
+                int tileCount = layer.baked() == null ? 0 : layer.baked().tileCount();
+                for (int t = 0; t < tileCount; t++) {
+                    pending.add(new Image(ARGB_PRE, BakedLayer.TILE_SIZE, BakedLayer.TILE_SIZE, 0, null));
+                }
+                head += 2 + layer.name().getBytes(StandardCharsets.UTF_8).length + 1 + 4 + 4 + 8 + 16 + 4
+                        + (long) tileCount * TILE_RECORD_SIZE + (long) layer.shapes().size() * SHAPE_RECORD_SIZE;
+                for (Shape shape : layer.shapes()) {
+                    if (shape instanceof StrokeShape stroke) {
+                        points += pointsSize(stroke);
+                    } else if (shape instanceof Fill fill) {
+                        points += rectsSize(fill);
+                    } else if (shape instanceof ImageShape image) {
+                        Object key = image.getPyramid() != null ? image.getPyramid() : image;
+                        if (!imageIndex.containsKey(key)) {
+                            imageIndex.put(key, pending.size());
+                            java.awt.Rectangle bounds = image.getBounds();
+                            byte format = image.isOpaque() ? RGB : ARGB_PRE;
+                            pending.add(new Image(format, bounds.width, bounds.height, 0, image));
+                        }
+                    }
+                }
+            }
+            head += (long) pending.size() * IMAGE_RECORD_SIZE;
+            pointsOffset = head;
+            pixelsOffset = (pointsOffset + points + 7) & ~7L;
+            if (pixelsOffset > Integer.MAX_VALUE) {
+                throw new IOException("Too many shapes for the document format");
+            }
+            long offset = pixelsOffset;
+            for (Image image : pending) {
+                images.add(new Image(image.format(), image.width(), image.height(), offset, image.shape()));
+                offset += image.bytes();
+            }
+            size = offset;
+        }
+
+        void write(FileChannel channel) throws IOException {
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_WRITE, 0, pixelsOffset);
+            head.putInt(MAGIC)
+                    .putShort((short) VERSION)
+                    .putShort((short) 0)
+                    .putInt(document.canvasWidth())
+                    .putInt(document.canvasHeight())
+                    .putInt(document.background().getRGB())
+                    .putInt(document.activeLayer())
+                    .putInt(document.layers().size())
+                    .putInt(images.size())
+                    .putLong(pointsOffset)
+                    .putLong(pixelsOffset);
+            for (Image image : images) {
+                head.put(image.format()).putInt(image.width()).putInt(image.height()).putLong(image.offset());
+            }
+            ByteBuffer points = head.duplicate().position((int) pointsOffset);
+            List<LayerData> layers = document.layers();
+            for (int i = 0; i < layers.size(); i++) {
+                writeLayer(head, points, i);
+            }
+            Pixels pixels = new Pixels(channel, FileChannel.MapMode.READ_WRITE, size);
+            for (int i = 0; i < layers.size(); i++) {
+                writePixels(head, pixels, i);
+            }
+            pixels.force();
+            head.force();
+        }
+
+        // Settings, baked tile records (filled in with the pixels) and shape records of a layer, and its points
+        private void writeLayer(ByteBuffer head, ByteBuffer points, int index) {
+            LayerData layer = document.layers().get(index);
+            byte[] name = layer.name().getBytes(StandardCharsets.UTF_8);
+            head.putShort((short) name.length).put(name);
+            head.put((byte) ((layer.visible() ? VISIBLE : 0) | (layer.locked() ? LOCKED : 0)));
+            head.putFloat(layer.opacity());
+            head.putInt(layer.shapes().size());
+            BakedLayer baked = layer.baked();
+            java.awt.Rectangle drawn = baked == null ? new java.awt.Rectangle(0, 0, -1, -1) : baked.bounds();
+            head.putDouble(baked == null ? 0 : baked.scale());
+            head.putInt(drawn.x).putInt(drawn.y).putInt(drawn.width).putInt(drawn.height);
+            int tileCount = baked == null ? 0 : baked.tileCount();
+            head.putInt(tileCount);
+            tileRecords[index] = head.position();
+            head.position(head.position() + tileCount * TILE_RECORD_SIZE);
+            for (Shape shape : layer.shapes()) {
+                writeShape(head, points, shape);
+            }
+        }
+
+        // Record of a shape, with the points of a stroke or the rectangles of a fill in the points section
+        private void writeShape(ByteBuffer head, ByteBuffer points, Shape shape) {
+            int image = 0;
+            if (shape instanceof ImageShape imageShape) {
+                image = imageIndex.get(imageShape.getPyramid() != null ? imageShape.getPyramid() : imageShape);
+            }
+            putRecord(head, shape, points.position() - pointsOffset, image);
+            if (shape instanceof StrokeShape stroke) {
+                putPoints(points, stroke);
+            } else if (shape instanceof Fill fill) {
+                putRects(points, fill);
+            }
+        }
+
+        // Pixels of a layer's baked tiles, with their tile records, and of the images first shown on the layer
+        private void writePixels(ByteBuffer head, Pixels pixels, int index) throws IOException {
+            LayerData layer = document.layers().get(index);
+            if (layer.baked() != null) {
+                int[] next = {firstTile[index]};
+                ArrayList<IOException> failed = new ArrayList<>(1);
+                layer.baked().forEachTile((column, row, tile) -> {
+                    int image = next[0]++;
+                    head.putInt(tileRecords[index] + (image - firstTile[index]) * TILE_RECORD_SIZE, column)
+                            .putInt(tileRecords[index] + (image - firstTile[index]) * TILE_RECORD_SIZE + 4, row)
+                            .putInt(tileRecords[index] + (image - firstTile[index]) * TILE_RECORD_SIZE + 8, image);
+                    try {
+                        pixels.map(images.get(image).offset(), images.get(image).bytes())
+                                .put(((DataBufferInt) tile.getRaster().getDataBuffer()).getData());
+                    } catch (IOException e) {
+                        failed.add(e);
+                    }
+                });
+                if (!failed.isEmpty()) {
+                    throw failed.getFirst();
+                }
+            }
+            int end = index + 1 < firstTile.length ? firstTile[index + 1] : images.size();
+            for (int i = firstTile[index]; i < end; i++) {
+                Image image = images.get(i);
+                if (image.shape() != null) {
+                    writeImage(pixels.map(image.offset(), image.bytes()), image);
+                }
+            }
+        }
+
+        // Draw an image shape tile by tile and store each tile's pixels
+        private static void writeImage(IntBuffer target, Image image) {
+            int width = image.width();
+            int height = image.height();
+            int tileSize = tileSize(width, height);
+            java.awt.Rectangle bounds = image.shape().getBounds();
+            for (int row = 0; row * tileSize < height; row++) {
+                for (int column = 0; column * tileSize < width; column++) {
+                    int tileWidth = Math.min(tileSize, width - column * tileSize);
+                    int tileHeight = Math.min(tileSize, height - row * tileSize);
+                    BufferedImage tile = new BufferedImage(tileWidth, tileHeight,
+                            image.format() == RGB ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+                    Graphics2D g2d = tile.createGraphics();
+                    g2d.setComposite(AlphaComposite.Src);
+                    g2d.translate(-bounds.x - column * tileSize, -bounds.y - row * tileSize);
+                    image.shape().draw(g2d);
+                    g2d.dispose();
+                    target.put(tileOffset(width, height, tileSize, column, row),
+                            ((DataBufferInt) tile.getRaster().getDataBuffer()).getData());
+                }
+            }
+        }
+    }
+
+    // Reads a document back from its mapped head and pixels
+    private static final class Decoder {
+        private record Image(byte format, int width, int height, long offset) {
+            long bytes() {
+                return (long) width * height * 4;
+            }
+        }
+
+        private final ByteBuffer head;
+        private final Pixels pixels;
+        private final GraphicsConfiguration gc;
+        private final TileCache cache;
+        private Image[] images;
+        private ImagePyramid[] pyramids;
+        // Shapes of the same color share one Color
+        private final HashMap<Integer, Color> colors = new HashMap<>();
+
+        Decoder(ByteBuffer head, Pixels pixels, GraphicsConfiguration gc, TileCache cache) {
+            this.head = head;
+            this.pixels = pixels;
+            this.gc = gc;
+            this.cache = cache;
+        }
+
+        Document read() throws IOException {
+            head.position(8);
+            int canvasWidth = head.getInt();
+            int canvasHeight = head.getInt();
+            Color background = new Color(head.getInt(), true);
+            int activeLayer = head.getInt();
+            int layerCount = head.getInt();
+            int imageCount = head.getInt();
+            long pointsOffset = head.getLong();
+            head.getLong();
+            if (canvasWidth <= 0 || canvasHeight <= 0 || layerCount < 0 || imageCount < 0
+                    || (long) imageCount * IMAGE_RECORD_SIZE > head.remaining() || layerCount > head.remaining()
+                    || pointsOffset > head.limit()) {
+                throw new IllegalArgumentException("Bad header");
+            }
+            images = new Image[imageCount];
+            pyramids = new ImagePyramid[imageCount];
+            for (int i = 0; i < imageCount; i++) {
+                images[i] = new Image(head.get(), head.getInt(), head.getInt(), head.getLong());
+                if (images[i].width() <= 0 || images[i].height() <= 0) {
+                    throw new IllegalArgumentException("Bad image size");
+                }
+            }
+            ByteBuffer points = head.duplicate();
+            ArrayList<LayerData> layers = new ArrayList<>(layerCount);
+            for (int i = 0; i < layerCount; i++) {
+                layers.add(readLayer(points, (int) pointsOffset, canvasWidth, canvasHeight));
+            }
+            return new Document(canvasWidth, canvasHeight, background, activeLayer, layers);
+        }
+
+        private LayerData readLayer(ByteBuffer points, int pointsOffset, int canvasWidth, int canvasHeight)
+                throws IOException {
+            byte[] name = new byte[head.getShort() & 0xffff];
+            head.get(name);
+            int flags = head.get();
+            float opacity = head.getFloat();
+            int shapeCount = head.getInt();
+            double scale = head.getDouble();
+            java.awt.Rectangle drawn = new java.awt.Rectangle(head.getInt(), head.getInt(), head.getInt(),
+                    head.getInt());
+            int tileCount = head.getInt();
+            if (shapeCount < 0 || tileCount < 0 || (long) shapeCount * SHAPE_RECORD_SIZE > head.remaining()) {
+                throw new IllegalArgumentException("Bad layer");
+            }
+            BakedLayer baked = scale > 0 ? new BakedLayer(cache, scale, canvasWidth, canvasHeight, drawn) : null;
+            for (int t = 0; t < tileCount; t++) {
+                int column = head.getInt();
+                int row = head.getInt();
+                Image image = image(head.getInt());
+                if (baked == null || image.format() != ARGB_PRE || image.width() != BakedLayer.TILE_SIZE
+                        || image.height() != BakedLayer.TILE_SIZE) {
+                    throw new IllegalArgumentException("Bad baked tile");
+                }
+                baked.store(column, row, pixels.map(image.offset(), image.bytes()));
+            }
+            ArrayList<Shape> shapes = new ArrayList<>(shapeCount);
+            for (int s = 0; s < shapeCount; s++) {
+                shapes.add(readShape(points, pointsOffset));
+            }
+            return new LayerData(new String(name, StandardCharsets.UTF_8), (flags & VISIBLE) != 0,
+                    (flags & LOCKED) != 0, opacity, shapes, baked);
+        }
+
+        private Shape readShape(ByteBuffer points, int pointsOffset) throws IOException {
+            return getRecord(head, points, pointsOffset, this, colors);
+        }
+
+        private Image image(int index) {
+            if (index < 0 || index >= images.length) {
+                throw new IllegalArgumentException("Bad image index " + index);
+            }
+            return images[index];
+        }
+
+        // Pyramid of an image, shared by every shape showing it, whose tiles are read from the file when drawn
+        private ImagePyramid pyramid(int index) throws IOException {
+            Image image = image(index);
+            if (pyramids[index] == null) {
+                IntBuffer source = pixels.map(image.offset(), image.bytes());
+                int width = image.width();
+                int height = image.height();
+                int tileSize = tileSize(width, height);
+                int type = image.format() == RGB ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE;
+                GraphicsConfiguration config = gc;
+                pyramids[index] = new ImagePyramid(new TiledRaster(width, height, tileSize, (column, row) -> {
+                    int tileWidth = Math.min(tileSize, width - column * tileSize);
+                    int tileHeight = Math.min(tileSize, height - row * tileSize);
+                    BufferedImage tile = new BufferedImage(tileWidth, tileHeight, type);
+                    source.get(tileOffset(width, height, tileSize, column, row),
+                            ((DataBufferInt) tile.getRaster().getDataBuffer()).getData());
+                    // Without a configuration the stored formats are the render formats already
+                    return config == null ? tile : ImagePyramid.convert(tile, 0, 0, tileWidth, tileHeight, config);
+                }), gc);
+            }
+            return pyramids[index];
+        }
+    }
+}
@@ -4,26 +4,103 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author DKRORY
  */
 class DrawingPanel extends JPanel {
 
+    private static final Logger LOGGER = Logger.getLogger(DrawingPanel.class.getName());
+
+    static final int DEFAULT_CANVAS_SIZE = 20000;
+    // Canvas pixels scrolled per notch of the mouse wheel
+    private static final int WHEEL_STEP = 64;
+
     // Various properties for the drawing panel
-    private final ArrayList<Shape> shapes = new ArrayList<>();
-    private final ArrayList<Point> freehandPoints = new ArrayList<>();
-    private final ArrayList<Point> erasedPoints = new ArrayList<>();
+    private final StrokeBuffer freehandPoints = new StrokeBuffer();
+    private final StrokeBuffer erasedPoints = new StrokeBuffer();
     private Color currentColor = Color.BLACK;
     private Color lastColor = Color.BLACK;
     private ShapeType currentShape = ShapeType.FREEHAND;
     private boolean isDrawing = false;
+    private boolean isErasing = false;
     private Point startPoint;
     private Point endPoint;
     private boolean isDotted = false;
     private boolean isFilled = false;
+    // Pixel tolerance for simplifying freehand and eraser strokes when they are committed; off (0) unless set, so
+    // every sample is kept as drawn
+    private double strokeTolerance = 0;
+    // How far each channel of a pixel may be from the color clicked for the fill tool to cover it, 0 to 255
+    private int fillTolerance = 0;
+    private final FloodFill floodFill = new FloodFill();
+    // Search over the whole canvas for the last fill that ran past the view, null once it was committed
+    private CanvasFill pendingFill;
+
+    // The canvas is larger than the panel, which shows the part of it starting at the view origin; shapes are
+    // kept in canvas coordinates
+    private int canvasWidth = DEFAULT_CANVAS_SIZE;
+    private int canvasHeight = DEFAULT_CANVAS_SIZE;
+    private int viewX = 0;
+    private int viewY = 0;
+    // Where a pan with the middle mouse button started, in panel coordinates, and the view origin then
+    private Point panStart;
+    private final Point panOrigin = new Point();
+
+    // The document: layers bottom to top, each caching its committed shapes in a raster of its own, the
+    // history and the checkpoints; the panel shows it and turns input into changes to it
+    private final Scene scene = new Scene();
+    private final History history = scene.history();
+    private final CheckpointStore checkpoints = scene.checkpoints();
+    private final List<Layer> layers = scene.layers();
+    // Thread drawing full rebuilds of the layer rasters, null to draw them while painting
+    private RenderThread renderThread;
+    // Autosave journal every change is appended to, null when there is none
+    private Journal journal;
+    // Trace the input is recorded to, null when it is not recorded
+    private InputTrace.Recorder traceRecorder;
+    // Device scale of the layer rasters, and the transform mapping them back onto panel coordinates
+    private double layerScale = 1.0;
+    private AffineTransform layerToPanel;
+    // Screen scale of the last graphics configuration painted to, cached to keep paints allocation-free
+    private GraphicsConfiguration scaleConfiguration;
+    private double deviceScale = 1.0;
+    // Opaque copy of the background with the visible layers composed over it, so a repaint copies pixels
+    // instead of blending every layer
+    private BufferedImage composedLayer;
+    private Color composedBackground;
+    // Part of the composed layer behind a changed layer or the background (empty while width is negative)
+    private final java.awt.Rectangle composedStale = new java.awt.Rectangle(0, 0, -1, -1);
+    // The background with the visible layers below the active one, so an edit composes only the active layer
+    // and those above it again, however many layers lie underneath
+    private BufferedImage belowLayer;
+    private final java.awt.Rectangle belowStale = new java.awt.Rectangle(0, 0, -1, -1);
+
+    // Transparent overlay holding the freehand stroke in progress, so each drag event rasterizes only its
+    // new segment instead of the whole stroke again; an eraser stroke clears the active layer directly
+    private BufferedImage liveLayer;
+    private Graphics2D liveGraphics;
+    // Part of the panel covered by the stroke so far (empty while width is negative)
+    private final java.awt.Rectangle liveBounds = new java.awt.Rectangle(0, 0, -1, -1);
+    // Number of live stroke points whose segments are already in the live layer
+    private int liveRasterizedCount = 0;
+
+    // Drag events only record their samples; the pacer flushes their drawing once per display frame
+    private final FramePacer framePacer = new FramePacer(this::flushInput, FramePacer.refreshRate(null));
+    // Line, rectangle or oval being dragged out; it is drawn over the composed layers and only joins
+    // the active layer on release
+    private Shape previewShape;
+    // End point shared with the preview shape, moved in place so a drag does not allocate a new shape
+    private final Point previewEnd = new Point();
+    // Set when the preview has to follow the latest drag position on the next frame
+    private boolean previewPending = false;
 
     // Constructor for the DrawingPanel
     public DrawingPanel() {
@@ -34,42 +111,93 @@ class DrawingPanel extends JPanel {
         this.addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                startPoint = e.getPoint();
+                trace(InputTrace.Kind.PRESS, e);
+                // The middle button pans the view instead of drawing
+                if (SwingUtilities.isMiddleMouseButton(e) && startPoint == null) {
+                    panStart = e.getPoint();
+                    panOrigin.setLocation(viewX, viewY);
+                    return;
+                }
+                // Nothing is drawn on a hidden or locked layer; the drag that follows is ignored as well
+                if (!scene.active().isEditable()) {
+                    UIManager.getLookAndFeel().provideErrorFeedback(DrawingPanel.this);
+                    return;
+                }
+                // The fill is done on the press; the drag and release that follow are ignored
+                if (currentShape == ShapeType.FILL) {
+                    fill(toCanvas(e.getPoint()));
+                    return;
+                }
+                startPoint = toCanvas(e.getPoint());
                 lastColor = currentColor;
 
                 switch (currentShape) {
                     case FREEHAND -> {
                         isDrawing = true;
                         freehandPoints.clear();
-                        freehandPoints.add(startPoint);
+                        freehandPoints.add(startPoint.x, startPoint.y);
+                        liveRasterizedCount = 1;
+                        startLiveStroke();
                     }
                     case ERASE -> {
+                        isErasing = true;
                         erasedPoints.clear();
-                        erasedPoints.add(startPoint);
+                        erasedPoints.add(startPoint.x, startPoint.y);
+                        liveRasterizedCount = 1;
+                        startLiveStroke();
+                    }
+                    default -> {
+                        previewEnd.setLocation(startPoint);
+                        previewShape = createShape(startPoint, previewEnd, currentColor, isDotted, isFilled);
+                        repaintCanvas(previewShape.getBounds());
                     }
-                    default -> shapes.add(createShape(startPoint, startPoint, currentColor, isDotted, isFilled));
                 }
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                endPoint = e.getPoint();
+                trace(InputTrace.Kind.RELEASE, e);
+                if (panStart != null && SwingUtilities.isMiddleMouseButton(e)) {
+                    panStart = null;
+                    return;
+                }
+                if (startPoint == null) {
+                    return;
+                }
+                // Draw whatever the last frame has not shown yet before the stroke is committed
+                framePacer.stop();
+                LOGGER.log(Level.FINE, "Drag input: {0}", framePacer);
+                endPoint = toCanvas(e.getPoint());
 
                 switch (currentShape) {
                     case FREEHAND -> {
                         isDrawing = false;
-                        shapes.add(new Freehand(freehandPoints, currentColor, isDotted));
+                        freehandPoints.simplify(strokeTolerance);
+                        addShape(new Freehand(freehandPoints, currentColor, isDotted));
                         freehandPoints.clear();  // Clear the points after adding the Freehand shape
                     }
                     case ERASE -> {
-                        shapes.add(new Erase(erasedPoints));
+                        isErasing = false;
+                        scene.active().endLiveEdit(liveBounds);
+                        erasedPoints.simplify(strokeTolerance);
+                        addShape(new Erase(erasedPoints));
                         erasedPoints.clear();
                         currentColor = lastColor;
                     }
-                    default -> shapes.add(createShape(startPoint, endPoint, currentColor, isDotted, isFilled));
+                    default -> addShape(createShape(startPoint, endPoint, currentColor, isDotted, isFilled));
                 }
-                repaint();
+                java.awt.Rectangle dirty = scene.active().uncommittedBounds();
+                if (previewShape != null) {
+                    dirty.add(previewShape.getBounds());
+                    previewShape = null;
+                }
+                commitShapes(scene.active());
+                // The active layer now holds the stroke, so the overlay can be wiped
+                dirty.add(liveBounds);
+                clearLiveLayer();
+                repaintCanvas(dirty);
                 startPoint = null;
+                drawingChanged();
             }
         });
 
@@ -77,23 +205,31 @@ class DrawingPanel extends JPanel {
         this.addMouseMotionListener(new MouseAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                endPoint = e.getPoint();
+                trace(InputTrace.Kind.DRAG, e);
+                if (panStart != null) {
+                    setViewOrigin(panOrigin.x - (e.getX() - panStart.x), panOrigin.y - (e.getY() - panStart.y));
+                    return;
+                }
+                if (startPoint == null) {
+                    return;
+                }
+                endPoint = toCanvas(e.getPoint());
                 switch (currentShape) {
                     case FREEHAND -> {
                         if (isDrawing) {
-                            freehandPoints.add(endPoint);
-                            repaint();
+                            // Every sample is kept for the stroke geometry, even if it is drawn with a later frame
+                            freehandPoints.add(endPoint.x, endPoint.y);
+                            framePacer.inputReceived();
                         }
                     }
                     case ERASE -> {
-                        erasedPoints.add(endPoint);
-                        repaint();
+                        erasedPoints.add(endPoint.x, endPoint.y);
+                        framePacer.inputReceived();
                     }
                     default -> {
-                        // For other shapes --> add and remove the shape while dragging
-                        shapes.removeLast();
-                        shapes.add(createShape(startPoint, endPoint, currentColor, isDotted, isFilled));
-                        repaint();
+                        // Only the latest position matters for the preview
+                        previewPending = true;
+                        framePacer.inputReceived();
                     }
 
 
@@ -101,8 +237,129 @@ class DrawingPanel extends JPanel {
 
             }
         });
+
+        // The wheel scrolls the view down and up, or right and left with Shift held
+        this.addMouseWheelListener((MouseWheelEvent e) -> {
+            if (startPoint != null || panStart != null) {
+                return;
+            }
+            int step = (int) Math.round(e.getPreciseWheelRotation() * WHEEL_STEP);
+            if (e.isShiftDown()) {
+                setViewOrigin(viewX + step, viewY);
+            } else {
+                setViewOrigin(viewX, viewY + step);
+            }
+        });
+    }
+
+    // Map a point on the panel onto the canvas
+    private Point toCanvas(Point point) {
+        point.translate(viewX, viewY);
+        return point;
+    }
+
+    // Repaint the part of the panel showing an area of the canvas
+    private void repaintCanvas(java.awt.Rectangle area) {
+        repaint(area.x - viewX, area.y - viewY, area.width, area.height);
+    }
+
+    // Part of the canvas the panel shows
+    private java.awt.Rectangle viewBounds() {
+        return new java.awt.Rectangle(viewX, viewY, getWidth(), getHeight());
+    }
+
+    // Scroll the view to show the canvas from a point on, kept inside the canvas
+    public void setViewOrigin(int x, int y) {
+        x = Math.max(0, Math.min(x, canvasWidth - getWidth()));
+        y = Math.max(0, Math.min(y, canvasHeight - getHeight()));
+        if (x == viewX && y == viewY) {
+            return;
+        }
+        trace(InputTrace.Kind.VIEW, x + " " + y);
+        Point old = getViewOrigin();
+        viewX = x;
+        viewY = y;
+        // The layers and the caches composed from them keep the pixels still in view and only draw what
+        // scrolls into it
+        for (Layer layer : layers) {
+            layer.scrollTo(x, y);
+        }
+        scrollCache(composedLayer, composedStale, old);
+        scrollCache(belowLayer, belowStale, old);
+        repaint();
+        firePropertyChange("viewOrigin", old, getViewOrigin());
     }
 
+    // Follow a scroll from the old view origin with a cache of the view and its stale area
+    private void scrollCache(BufferedImage cache, java.awt.Rectangle stale, Point old) {
+        java.awt.Rectangle exposed = cache == null ? null
+                : Layer.scrollImage(cache, layerScale, old.x - viewX, old.y - viewY, viewX, viewY);
+        if (exposed == null) {
+            stale.setBounds(viewBounds());
+        } else {
+            stale.add(exposed);
+        }
+    }
+
+    public Point getViewOrigin() {
+        return new Point(viewX, viewY);
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    // Set the size of the canvas; shapes baked after this are cut off at its edges
+    public void setCanvasSize(int width, int height) {
+        canvasWidth = width;
+        canvasHeight = height;
+        setViewOrigin(viewX, viewY);
+        firePropertyChange("viewOrigin", null, getViewOrigin());
+    }
+
+    // Draw the input received since the last frame and repaint the area it changed
+    private void flushInput() {
+        if (isDrawing || isErasing) {
+            StrokeBuffer points = isErasing ? erasedPoints : freehandPoints;
+            if (points.size() > liveRasterizedCount) {
+                // Only the segments added since the last frame change on screen
+                repaintCanvas(drawLiveSegments(liveRasterizedCount));
+                liveRasterizedCount = points.size();
+            }
+        }
+        if (previewPending && previewShape != null) {
+            previewPending = false;
+            java.awt.Rectangle dirty = previewShape.getBounds();
+            previewEnd.setLocation(endPoint);
+            // Repaint where the old outline was and where the new one is
+            dirty.add(previewShape.getBounds());
+            repaintCanvas(dirty);
+        }
+    }
+
+    // Set how many times per second drag input is drawn, 0 draws every event as it arrives
+    public void setFrameRate(int frameRate) {
+        framePacer.setFrameRate(frameRate);
+    }
+
+    // Counters of drag events received, coalesced into a later frame and frames painted
+    FramePacer getFramePacer() {
+        return framePacer;
+    }
+
+    // Pace drag input to the refresh rate of the screen the panel is shown on
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        // A rate of 0 was asked for explicitly, so keep drawing every event
+        if (framePacer.getFrameRate() > 0) {
+            framePacer.setFrameRate(FramePacer.refreshRate(getGraphicsConfiguration()));
+        }
+    }
 
     // Method to create a shape based on current properties
     private Shape createShape(Point start, Point end, Color color, boolean dotted, boolean filled) {
@@ -119,84 +376,808 @@ class DrawingPanel extends JPanel {
 
     // Set the current drawing color
     public void setCurrentColor(Color color) {
+        trace(InputTrace.Kind.COLOR, color);
         currentColor = color;
     }
 
+    public Color getCurrentColor() {
+        return currentColor;
+    }
+
     public ShapeType getCurrentShape() {
         return currentShape;
     }
 
     // Set the current drawing shape
     public void setCurrentShape(ShapeType shape) {
+        trace(InputTrace.Kind.TOOL, shape);
         currentShape = shape;
     }
 
+    // Set the tolerance used to simplify freehand and eraser strokes, 0 disables simplification
+    public void setStrokeTolerance(double tolerance) {
+        strokeTolerance = tolerance;
+    }
+
+    // Set how far each channel of a pixel may be from the color clicked, 0 to 255, for the fill tool to cover it
+    public void setFillTolerance(int tolerance) {
+        trace(InputTrace.Kind.FILL_TOLERANCE, tolerance);
+        fillTolerance = Math.max(0, Math.min(255, tolerance));
+    }
+
+    public int getFillTolerance() {
+        return fillTolerance;
+    }
+
     // Set the dotted property
     public void setDotted(boolean isDotted) {
+        trace(InputTrace.Kind.DOTTED, isDotted);
         this.isDotted = isDotted;
         repaint();
     }
 
+    public boolean isDotted() {
+        return isDotted;
+    }
+
     // Set the filled property
     public void setFilled(boolean isFilled) {
+        trace(InputTrace.Kind.FILLED, isFilled);
         this.isFilled = isFilled;
         repaint();
     }
 
-    // Clear all shapes from the drawing panel
+    public boolean isFilled() {
+        return isFilled;
+    }
+
+    // Clear all shapes from the active layer; the cleared shapes stay with the command for undo
     public void clearAll() {
-        shapes.clear();
+        trace(InputTrace.Kind.CLEAR, null);
+        Layer layer = scene.active();
+        if (!layer.isEditable()) {
+            UIManager.getLookAndFeel().provideErrorFeedback(this);
+            return;
+        }
+        if (layer.isEmpty()) {
+            return;
+        }
+        Layer.Contents cleared = layer.clear();
+        Command command = new Command.ClearAll(layer, cleared, layer.contents(), history.newEpoch());
+        record(command);
         repaint();
+        journal(command);
+        drawingChanged();
     }
 
-    // Undo the last drawn shape
+    // Change the background color as an undoable step
+    public void changeBackground(Color color) {
+        trace(InputTrace.Kind.BACKGROUND, color);
+        if (color.equals(getBackground())) {
+            return;
+        }
+        Command command = new Command.ChangeBackground(getBackground(), color, history.epoch());
+        record(command);
+        setBackground(color);
+        journal(command);
+        drawingChanged();
+    }
+
+    // Undo the last change to the drawing
     public void undo() {
-        if (!shapes.isEmpty()) {
-            shapes.removeLast();
+        trace(InputTrace.Kind.UNDO, null);
+        Command command = history.undo();
+        if (command == null) {
+            return;
+        }
+        switch (command) {
+            case Command.AddShape add -> repaintCanvas(add.layer().removeLast().getBounds());
+            case Command.ClearAll clear -> {
+                // Put the cleared list, its index and baked shapes back as they were, without rebuilding any
+                clear.layer().setContents(clear.cleared());
+                repaint();
+            }
+            case Command.ChangeBackground change -> setBackground(change.from());
+            case Command.AddLayer add -> removeLayer(add.layer());
+            case Command.RemoveLayer remove -> insertLayer(remove.layer(), remove.index());
+        }
+        if (journal != null) {
+            journal.undone(command, layers);
+        }
+        drawingChanged();
+    }
+
+    // Redo the last undone change
+    public void redo() {
+        trace(InputTrace.Kind.REDO, null);
+        Command command = history.redo();
+        if (command == null) {
+            return;
+        }
+        switch (command) {
+            case Command.AddShape add -> {
+                add.layer().add(add.shape());
+                commitShapes(add.layer());
+                repaintCanvas(add.shape().getBounds());
+            }
+            case Command.ClearAll clear -> {
+                // Undoing the commands after the clear has emptied the replacement list again, and nothing
+                // in it can have been baked while the clear itself could still be undone
+                clear.layer().setContents(clear.replacement());
+                repaint();
+            }
+            case Command.ChangeBackground change -> setBackground(change.to());
+            case Command.AddLayer add -> insertLayer(add.layer(), add.index());
+            case Command.RemoveLayer remove -> removeLayer(remove.layer());
+        }
+        if (journal != null) {
+            journal.redone(command, layers);
+        }
+        drawingChanged();
+    }
+
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    // Maximum number of changes that can be undone, the undo horizon; shapes behind it are baked into a raster
+    public void setHistoryLimit(int limit) {
+        history.setLimit(limit);
+        drawingChanged();
+    }
+
+    // Shapes a layer keeps as objects before shapes read from a document, which no command can take back, are
+    // baked as well; they are baked a few per change until the layer is within it again
+    public void setShapeBudget(int budget) {
+        scene.setShapeBudget(budget);
+        drawingChanged();
+    }
+
+    // Number of shapes still held as objects, the ones that can be undone and any waiting behind a loading image
+    public int getShapeCount() {
+        return scene.shapeCount();
+    }
+
+    // Rough heap held by the drawing: shapes, baked rasters, checkpoints and what the history keeps for undo and redo
+    public long getEstimatedBytes() {
+        return scene.estimatedBytes();
+    }
+
+    // Memory in bytes that undo checkpoints may use, 0 turns them off
+    public void setCheckpointBudget(long bytes) {
+        checkpoints.setBudget(bytes);
+    }
+
+    // Memory in bytes that tiles of baked shapes may use on the heap; tiles beyond it are spilled to a file
+    public void setTileCacheBudget(long bytes) {
+        scene.tiles().setBudget(bytes);
+    }
+
+    // Draw full rebuilds of the layer rasters on a render thread, which hands them back on the EDT, so input
+    // is handled while they are drawn; null draws them while painting
+    void setRenderThread(RenderThread renderThread) {
+        this.renderThread = renderThread;
+        for (Layer layer : layers) {
+            attach(layer);
+        }
+    }
+
+    // Append every further change of the drawing to an autosave journal, null for none
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    // Record every further input of the panel to a trace, null to stop recording
+    void setTraceRecorder(InputTrace.Recorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    public int getLayerCount() {
+        return layers.size();
+    }
+
+    // Name of the layer at an index, 0 being the bottom one
+    public String getLayerName(int index) {
+        return layers.get(index).getName();
+    }
+
+    public int getActiveLayerIndex() {
+        return scene.activeIndex();
+    }
+
+    // Choose the layer new shapes are drawn on and Clear All empties
+    public void setActiveLayer(int index) {
+        trace(InputTrace.Kind.LAYER_SELECT, index);
+        scene.setActive(index);
+        belowStale.setBounds(viewBounds());
+        if (journal != null) {
+            journal.activeLayerChanged(index);
+        }
+        firePropertyChange("layers", null, layers.size());
+    }
+
+    // Add an empty layer above the active one and make it active, as an undoable step
+    public void addLayer() {
+        trace(InputTrace.Kind.LAYER_ADD, null);
+        Layer layer = newLayer();
+        int index = scene.activeIndex() + 1;
+        Command command = new Command.AddLayer(layer, index, history.epoch());
+        record(command);
+        insertLayer(layer, index);
+        journal(command);
+        drawingChanged();
+    }
+
+    // Remove the active layer with its shapes as an undoable step; the last layer and locked ones stay
+    public void removeActiveLayer() {
+        trace(InputTrace.Kind.LAYER_REMOVE, null);
+        Layer layer = scene.active();
+        if (layers.size() == 1 || layer.isLocked()) {
+            UIManager.getLookAndFeel().provideErrorFeedback(this);
+            return;
+        }
+        Command command = new Command.RemoveLayer(layer, scene.activeIndex(), history.epoch());
+        record(command);
+        removeLayer(layer);
+        journal(command);
+        drawingChanged();
+    }
+
+    public boolean isActiveLayerVisible() {
+        return scene.active().isVisible();
+    }
+
+    // Show or hide the active layer; like its opacity and lock this is a view setting, not an undoable step
+    public void setActiveLayerVisible(boolean visible) {
+        trace(InputTrace.Kind.LAYER_VISIBLE, visible);
+        scene.active().setVisible(visible);
+        layerSettingsChanged();
+        layerAppearanceChanged();
+    }
+
+    public float getActiveLayerOpacity() {
+        return scene.active().getOpacity();
+    }
+
+    // Opacity the active layer is composed with, from 0 to 1
+    public void setActiveLayerOpacity(float opacity) {
+        trace(InputTrace.Kind.LAYER_OPACITY, opacity);
+        scene.active().setOpacity(opacity);
+        layerSettingsChanged();
+        layerAppearanceChanged();
+    }
+
+    public boolean isActiveLayerLocked() {
+        return scene.active().isLocked();
+    }
+
+    // Lock the active layer against drawing, erasing, clearing and removal
+    public void setActiveLayerLocked(boolean locked) {
+        trace(InputTrace.Kind.LAYER_LOCKED, locked);
+        scene.active().setLocked(locked);
+        layerSettingsChanged();
+        firePropertyChange("layers", null, layers.size());
+    }
+
+    // Whether shapes can be added to the active layer, which must be visible and unlocked
+    public boolean isActiveLayerEditable() {
+        return scene.active().isEditable();
+    }
+
+    // New empty layer named after its number
+    private Layer newLayer() {
+        Layer layer = scene.newLayer();
+        attach(layer);
+        return layer;
+    }
+
+    // Set a layer up to show the current view and rebuild on the render thread
+    private void attach(Layer layer) {
+        layer.scrollTo(viewX, viewY);
+        layer.setRenderThread(renderThread, () -> layerRebuilt(layer));
+    }
+
+    // Put a layer into the stack and make it active
+    private void insertLayer(Layer layer, int index) {
+        scene.insert(layer, index);
+        // Its raster may have missed a change, e.g. an image decoded or a pan while the layer was out of the stack
+        attach(layer);
+        layer.invalidate();
+        layerAppearanceChanged();
+    }
+
+    // Take a layer out of the stack, making the one below it active if it was
+    private void removeLayer(Layer layer) {
+        scene.remove(layer);
+        layerAppearanceChanged();
+    }
+
+    // Compose the layers again after the stack or the way a layer is shown changed
+    private void layerAppearanceChanged() {
+        composedStale.setBounds(viewBounds());
+        belowStale.setBounds(viewBounds());
+        repaint();
+        firePropertyChange("layers", null, layers.size());
+    }
+
+    // Add a new shape to the active layer as an undoable step
+    private void addShape(Shape shape) {
+        scene.active().add(shape);
+        Command command = new Command.AddShape(scene.active(), shape, history.epoch());
+        record(command);
+        journal(command);
+    }
+
+    // Record an applied command
+    private void record(Command command) {
+        scene.record(command);
+    }
+
+    // Append a command to the autosave journal once the drawing shows its change
+    private void journal(Command command) {
+        if (journal != null) {
+            journal.recorded(command, layers);
+        }
+    }
+
+    // Append the view settings of the active layer to the autosave journal
+    private void layerSettingsChanged() {
+        if (journal != null) {
+            Layer layer = scene.active();
+            journal.layerSettingsChanged(layer.isVisible(), layer.isLocked(), layer.getOpacity());
+        }
+    }
+
+    // Record an input to the trace; a mouse event is recorded with its position and button
+    private void trace(InputTrace.Kind kind, Object argument) {
+        if (traceRecorder == null) {
+            return;
+        }
+        if (argument instanceof MouseEvent e) {
+            traceRecorder.mouse(kind, e);
+        } else {
+            traceRecorder.record(kind, argument);
+        }
+    }
+
+    // Bake what fell behind the undo horizon and tell listeners about the new shape count and footprint
+    private void drawingChanged() {
+        bakeExpiredShapes();
+        // No old value, so listeners hear about every change even when the numbers stay the same
+        firePropertyChange("shapeCount", null, getShapeCount());
+        firePropertyChange("estimatedBytes", null, getEstimatedBytes());
+    }
+
+    // Move the bottom shapes of each layer that no command can take back any more into its baked layer
+    private void bakeExpiredShapes() {
+        scene.bakeExpired(layerScale, canvasWidth, canvasHeight);
+    }
+
+    // Forget the layer rasters and their checkpoints, so the next paint draws every shape again; the benchmarks
+    // use it to time a full replay
+    void redrawAll() {
+        checkpoints.clear();
+        for (Layer layer : layers) {
+            layer.invalidate();
+        }
+    }
+
+    // Rasterize the shapes added to a layer since its last commit and compose the area they changed again
+    private void commitShapes(Layer layer) {
+        layerChanged(layers.indexOf(layer), layer.commit());
+    }
+
+    // Compose the view again once the render thread has rebuilt a layer that is still in the stack
+    private void layerRebuilt(Layer layer) {
+        int index = layers.indexOf(layer);
+        if (index >= 0) {
+            layerChanged(index, viewBounds());
             repaint();
         }
     }
 
+    // Compose a region again where the layer at an index changed
+    private void layerChanged(int index, java.awt.Rectangle region) {
+        composedStale.add(region);
+        if (index < scene.activeIndex()) {
+            belowStale.add(region);
+        }
+    }
+
+    // Make sure the composed layer matches the panel size and every visible layer holds its committed shapes
+    private void ensureLayers(Graphics2D target) {
+        ensureLayers(deviceScale(target));
+    }
+
+    // Make sure the composed layer and the visible layers are drawn at a device scale for the panel size
+    private void ensureLayers(double scale) {
+        int layerWidth = (int) Math.ceil(getWidth() * scale);
+        int layerHeight = (int) Math.ceil(getHeight() * scale);
+        if (layerWidth <= 0 || layerHeight <= 0) {
+            return;
+        }
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        // Resizing the panel (or moving it to a screen with another scale) needs new backing images
+        if (composedLayer == null || composedLayer.getWidth() != layerWidth
+                || composedLayer.getHeight() != layerHeight || layerScale != scale) {
+            composedLayer = gc != null
+                    ? gc.createCompatibleImage(layerWidth, layerHeight, Transparency.OPAQUE)
+                    : new BufferedImage(layerWidth, layerHeight, BufferedImage.TYPE_INT_RGB);
+            layerScale = scale;
+            layerToPanel = AffineTransform.getScaleInstance(1 / scale, 1 / scale);
+            belowLayer = null;
+            composedStale.setBounds(viewBounds());
+            // Checkpoints of the old size cannot be copied into the new rasters
+            checkpoints.clear();
+        }
+        // A hidden layer keeps its stale parts until it is shown again
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()) {
+                layerChanged(i, layer.update(layerWidth, layerHeight, scale, gc));
+            }
+        }
+    }
+
+    // Fill the area around a point of the view that has about the color there with the current color, as one
+    // shape on the active layer. The area is found in the pixels the panel shows, so it stops at edges drawn on
+    // any visible layer. Where it reaches an edge of the view inside the canvas, it is searched again over the
+    // whole canvas instead, and committed when that search is done
+    private void fill(Point point) {
+        if (composedLayer == null || !viewBounds().contains(point)) {
+            return;
+        }
+        // The pixels clicked on must hold every shape committed so far, even if they were not painted yet
+        ensureLayers(layerScale);
+        ensureComposedLayer();
+        int[] rects = floodFill.fill(composedLayer, layerScale, getWidth(), getHeight(), point.x - viewX,
+                point.y - viewY, fillTolerance, viewX, viewY);
+        if (reachesInnerEdge(rects, viewBounds(), new java.awt.Rectangle(0, 0, canvasWidth, canvasHeight))) {
+            fillCanvas(point.x, point.y, fillTolerance, currentColor);
+        } else if (rects.length > 0) {
+            drawShape(new Fill(rects, currentColor));
+        }
+    }
+
+    // Search the area around a point over the whole canvas, on the render thread if there is one, since it may
+    // render and search the canvas tile by tile, and commit it as a fill of a color on the EDT once found. A fill
+    // clicked meanwhile replaces it; if the drawing changed meanwhile, it is searched again in the new drawing.
+    private void fillCanvas(int x, int y, int tolerance, Color color) {
+        if (pendingFill != null) {
+            pendingFill.cancel();
+        }
+        SceneSnapshot drawing = scene.snapshot(getBackground(), canvasWidth, canvasHeight);
+        CanvasFill search = new CanvasFill(drawing, x, y, tolerance);
+        pendingFill = search;
+        Consumer<int[]> found = rects -> {
+            if (pendingFill != search || rects == null) {
+                return;
+            }
+            pendingFill = null;
+            if (!drawing.isSameDrawing(scene.snapshot(getBackground(), canvasWidth, canvasHeight))) {
+                fillCanvas(x, y, tolerance, color);
+            } else if (rects.length > 0) {
+                drawShape(new Fill(rects, color));
+            }
+        };
+        if (renderThread == null) {
+            found.accept(search.fill());
+        } else {
+            renderThread.submit(CanvasFill.class, search::fill, found);
+        }
+    }
+
+    // Whether any of the rectangles, packed as x, y, width, height, touches an edge of a region that is not an
+    // edge of the canvas
+    private static boolean reachesInnerEdge(int[] rects, java.awt.Rectangle region, java.awt.Rectangle canvas) {
+        for (int i = 0; i < rects.length; i += 4) {
+            if (rects[i] == region.x && region.x > canvas.x
+                    || rects[i + 1] == region.y && region.y > canvas.y
+                    || rects[i] + rects[i + 2] == region.x + region.width
+                    && region.x + region.width < canvas.x + canvas.width
+                    || rects[i + 1] + rects[i + 3] == region.y + region.height
+                    && region.y + region.height < canvas.y + canvas.height) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Draw the live stroke's segments from the given point index on into the live layer, or clear them from the
+    // active layer for an eraser stroke, returning their bounds
+    private java.awt.Rectangle drawLiveSegments(int from) {
+        StrokeBuffer points = isErasing ? erasedPoints : freehandPoints;
+        float width = isErasing ? Shape.ERASER_WIDTH : Shape.FREEHAND_WIDTH;
+        // Erasing clears pixels of the active layer itself, so the layers under it show through at once
+        Graphics2D g2d = isErasing ? createLiveEraseGraphics() : liveGraphics;
+        java.awt.Rectangle dirty = new java.awt.Rectangle(0, 0, -1, -1);
+        for (int i = Math.max(from, 1); i < points.size(); i++) {
+            int x1 = points.x(i - 1);
+            int y1 = points.y(i - 1);
+            int x2 = points.x(i);
+            int y2 = points.y(i);
+            // Without a live layer yet, the next paint creates one and draws the whole stroke
+            if (g2d != null) {
+                g2d.drawLine(x1, y1, x2, y2);
+            }
+            dirty.add(Shape.strokeBounds(x1, y1, x2, y2, width));
+        }
+        if (isErasing && g2d != null) {
+            g2d.dispose();
+            composedStale.add(dirty);
+        }
+        liveBounds.add(dirty);
+        return dirty;
+    }
+
+    // Graphics clearing pixels of the active layer the way the committed eraser stroke will, or null while
+    // the layer has no raster to clear
+    private Graphics2D createLiveEraseGraphics() {
+        Graphics2D g2d = scene.active().createLiveGraphics();
+        if (g2d != null) {
+            Shape.applyStyle(g2d, getBackground(), Shape.ERASER);
+            g2d.setComposite(AlphaComposite.Clear);
+        }
+        return g2d;
+    }
+
+    // Make sure the live layer matches the composed layer and holds the whole freehand stroke in progress
+    private void ensureLiveLayer() {
+        if (composedLayer == null) {
+            return;
+        }
+        int layerWidth = composedLayer.getWidth();
+        int layerHeight = composedLayer.getHeight();
+        if (liveLayer == null || liveLayer.getWidth() != layerWidth || liveLayer.getHeight() != layerHeight) {
+            if (liveGraphics != null) {
+                liveGraphics.dispose();
+            }
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            liveLayer = gc != null
+                    ? gc.createCompatibleImage(layerWidth, layerHeight, Transparency.TRANSLUCENT)
+                    : new BufferedImage(layerWidth, layerHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+            liveGraphics = liveLayer.createGraphics();
+            liveBounds.setBounds(0, 0, -1, -1);
+            startLiveStroke();
+            drawLiveSegments(1);
+        }
+    }
+
+    // Set up the live layer's graphics for a new freehand stroke, drawing in canvas coordinates at the current view
+    private void startLiveStroke() {
+        if (liveGraphics == null || isErasing) {
+            return;
+        }
+        liveGraphics.setTransform(AffineTransform.getScaleInstance(layerScale, layerScale));
+        liveGraphics.translate(-viewX, -viewY);
+        Shape.applyStyle(liveGraphics, currentColor, isDotted ? Shape.DOTTED_FREEHAND : Shape.SOLID_FREEHAND);
+    }
+
+    // Wipe the stroke pixels from the live layer so it is transparent again
+    private void clearLiveLayer() {
+        if (liveGraphics != null && !liveBounds.isEmpty()) {
+            Composite composite = liveGraphics.getComposite();
+            liveGraphics.setComposite(AlphaComposite.Clear);
+            liveGraphics.fillRect(liveBounds.x, liveBounds.y, liveBounds.width, liveBounds.height);
+            liveGraphics.setComposite(composite);
+        }
+        liveBounds.setBounds(0, 0, -1, -1);
+    }
+
+    // Draw a device-resolution layer onto the panel
+    private void blitLayer(Graphics2D g2d, BufferedImage layer) {
+        if (layerScale == 1.0) {
+            g2d.drawImage(layer, 0, 0, null);
+        } else {
+            // Undo the device scale so a HiDPI layer lands pixel for pixel
+            g2d.drawImage(layer, layerToPanel, null);
+        }
+    }
+
+    // Scale from panel to device pixels for the graphics being painted to, 2.0 on a typical HiDPI screen
+    private double deviceScale(Graphics2D g2d) {
+        GraphicsConfiguration gc = g2d.getDeviceConfiguration();
+        if (gc != scaleConfiguration) {
+            scaleConfiguration = gc;
+            deviceScale = gc.getDefaultTransform().getScaleX();
+        }
+        return deviceScale;
+    }
+
+    // Bring the composed layer up to date with the background and the visible layers
+    private void ensureComposedLayer() {
+        // A new background only needs the layers composed again, no shape is drawn for it
+        if (!getBackground().equals(composedBackground)) {
+            composedBackground = getBackground();
+            composedStale.setBounds(viewBounds());
+            belowStale.setBounds(viewBounds());
+        }
+        if (composedStale.isEmpty()) {
+            return;
+        }
+        int active = scene.activeIndex();
+        Graphics2D g2d = composedLayer.createGraphics();
+        g2d.scale(layerScale, layerScale);
+        g2d.translate(-viewX, -viewY);
+        g2d.clipRect(composedStale.x, composedStale.y, composedStale.width, composedStale.height);
+        if (active > 0) {
+            // Same pixels as composing the layers below one by one, since they are composed in the same order
+            ensureBelowLayer(active);
+            // Only the view differs from canvas coordinates, so the copy is pixel for pixel
+            g2d.translate(viewX, viewY);
+            g2d.drawImage(belowLayer, layerToPanel, null);
+            g2d.translate(-viewX, -viewY);
+        } else {
+            g2d.setColor(composedBackground);
+            g2d.fillRect(composedStale.x, composedStale.y, composedStale.width, composedStale.height);
+        }
+        for (int i = active; i < layers.size(); i++) {
+            layers.get(i).draw(g2d);
+        }
+        g2d.dispose();
+        composedStale.setBounds(0, 0, -1, -1);
+    }
+
+    // Bring the background and the layers below the active one up to date in their own opaque image
+    private void ensureBelowLayer(int active) {
+        if (belowLayer == null) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            int layerWidth = composedLayer.getWidth();
+            int layerHeight = composedLayer.getHeight();
+            belowLayer = gc != null
+                    ? gc.createCompatibleImage(layerWidth, layerHeight, Transparency.OPAQUE)
+                    : new BufferedImage(layerWidth, layerHeight, BufferedImage.TYPE_INT_RGB);
+            belowStale.setBounds(viewBounds());
+        }
+        if (belowStale.isEmpty()) {
+            return;
+        }
+        Graphics2D g2d = belowLayer.createGraphics();
+        g2d.scale(layerScale, layerScale);
+        g2d.translate(-viewX, -viewY);
+        g2d.clipRect(belowStale.x, belowStale.y, belowStale.width, belowStale.height);
+        g2d.setColor(composedBackground);
+        g2d.fillRect(belowStale.x, belowStale.y, belowStale.width, belowStale.height);
+        for (int i = 0; i < active; i++) {
+            layers.get(i).draw(g2d);
+        }
+        g2d.dispose();
+        belowStale.setBounds(0, 0, -1, -1);
+    }
+
+    // Draw the visible layers above the active one, which cover the stroke or outline being drawn on it
+    private void drawLayersAbove(Graphics2D g2d) {
+        for (int i = scene.activeIndex() + 1; i < layers.size(); i++) {
+            layers.get(i).draw(g2d);
+        }
+    }
+
     // Override paintComponent to draw shapes on the panel
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        for (Shape shape : shapes) {
-            shape.draw(g);
-        }
-        if (isDrawing && currentShape == ShapeType.FREEHAND) {
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setColor(currentColor);
-            if (isDotted) {
-                float[] dashPattern = {3, 3};
-                g2d.setStroke(new BasicStroke(5, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 2.0f, dashPattern, 0.0f));
-            } else {
-                g2d.setStroke(new BasicStroke(5.0f));
+        Graphics2D g2d = (Graphics2D) g;
+        framePacer.framePainted();
+        ensureLayers(g2d);
+        if (composedLayer == null) {
+            super.paintComponent(g);
+        } else {
+            // The background is only painted under the layers here, so changing it redraws no shape
+            ensureComposedLayer();
+            blitLayer(g2d, composedLayer);
+        }
+        // The freehand stroke in progress is already rasterized in the live layer, which covers the view
+        if (isDrawing) {
+            ensureLiveLayer();
+            if (liveLayer != null) {
+                blitLayer(g2d, liveLayer);
             }
-            for (int i = 1; i < freehandPoints.size(); i++) {
-                Point p1 = freehandPoints.get(i - 1);
-                Point p2 = freehandPoints.get(i);
-                g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+        }
+        if (isDrawing || previewShape != null) {
+            g2d.translate(-viewX, -viewY);
+            // The line, rectangle or oval being dragged out goes on top, so its cost depends only on its own size
+            if (previewShape != null) {
+                previewShape.draw(g2d);
             }
+            drawLayersAbove(g2d);
+            g2d.translate(viewX, viewY);
         }
-        if (currentShape == ShapeType.ERASE) {
-            Graphics2D g2d = (Graphics2D) g;
+    }
 
-            //g2d.setStroke(new BasicStroke());
-            g2d.setStroke(new BasicStroke(20.0f));
-            for (int i = 1; i < erasedPoints.size(); i++) {
-                Point p1 = erasedPoints.get(i - 1);
-                Point p2 = erasedPoints.get(i);
-                g2d.setColor(g2d.getBackground());
-                g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
-            }
+    // Immutable copy of the visible layers that can be rendered off the EDT, e.g. to save it
+    SceneSnapshot snapshot() {
+        // The saved image starts at the canvas origin and covers whatever was drawn, at least the panel's size
+        java.awt.Rectangle drawn = new java.awt.Rectangle(0, 0, getWidth(), getHeight());
+        drawn.add(scene.contentBounds());
+        return scene.snapshot(getBackground(), Math.min(drawn.x + drawn.width, canvasWidth),
+                Math.min(drawn.y + drawn.height, canvasHeight));
+    }
+
+    // The drawing with every layer and shape, to be written as a document off the EDT
+    DocumentFile.Document document() {
+        return scene.document(getBackground(), canvasWidth, canvasHeight);
+    }
+
+    // Tile cache that the baked rasters of an opened document are to go into
+    TileCache getTileCache() {
+        return scene.tiles();
+    }
+
+    // Replace the drawing with a document read from a file, shown from the canvas origin; the history
+    // starts over with it
+    void openDocument(DocumentFile.Document document) {
+        scene.open(document);
+        canvasWidth = document.canvasWidth();
+        canvasHeight = document.canvasHeight();
+        viewX = 0;
+        viewY = 0;
+        for (Layer layer : layers) {
+            attach(layer);
+        }
+        setBackground(document.background());
+        layerAppearanceChanged();
+        firePropertyChange("viewOrigin", null, getViewOrigin());
+        if (journal != null) {
+            // The opened drawing cannot be replayed from the journal, so it starts again from a snapshot
+            journal.compact();
         }
+        drawingChanged();
+    }
+
+    // Take the top shape off a layer outside the history, the way the journal replays the undo of a shape
+    // it holds only in its snapshot
+    void removeTopShape(int index) {
+        Layer layer = layers.get(index);
+        if (layer.shapes().isEmpty()) {
+            throw new IllegalArgumentException("No shape to remove on layer " + index);
+        }
+        // Checkpoints taken with the shape would bring it back
+        checkpoints.clear();
+        repaintCanvas(layer.removeLast().getBounds());
+        drawingChanged();
     }
 
     // Load an image onto the drawing panel
     public void loadImage(BufferedImage img) {
+        addImage(new ImageShape(ImagePyramid.of(img, getGraphicsConfiguration()), new Point(0, 0)));
+    }
 
-        shapes.add(new ImageShape(img, new Point(0, 0)));
-        repaint();
+    // Add an image shape on top of the active layer and show it
+    ImageShape addImage(ImageShape shape) {
+        drawShape(shape);
+        return shape;
+    }
+
+    // Add a finished shape on top of the active layer as an undoable step and show it, as if it had just been
+    // drawn; the journal replays shapes through it
+    void drawShape(Shape shape) {
+        addShape(shape);
+        commitShapes(scene.active());
+        repaintCanvas(shape.getBounds());
+        drawingChanged();
+    }
+
+    // Swap the full-resolution pyramid into an image that was added from its preview
+    void imageDecoded(ImageShape shape, ImagePyramid pyramid) {
+        shape.setPyramid(pyramid);
+        // Checkpoints taken since the preview was added hold its pixels
+        checkpoints.clear();
+        java.awt.Rectangle bounds = shape.getBounds();
+        // The layer holding the image still has the stretched preview there
+        for (Layer layer : layers) {
+            if (layer.contains(shape)) {
+                layer.invalidate(bounds);
+            }
+        }
+        repaintCanvas(bounds);
+        if (journal != null) {
+            // The journal has the image as the preview it was added with
+            journal.compact();
+        }
+        // Shapes held back from baking while the image was loading can go now
+        drawingChanged();
     }
 }
@@ -0,0 +1,259 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Paint bucket search: the area of connected pixels around a point whose
+ * color is within a tolerance of the color there. It works on the ints
+ * of a pixel buffer a row at a time, after Heckbert's seed fill: every
+ * span filled is pushed on an explicit stack, and popping it fills the
+ * runs of the next row that touch it, each grown left and right as far
+ * as the color matches. Only where a run reaches past the span it came
+ * from is the row before scanned again, so most pixels are looked at
+ * once, and neither a large area nor a winding one costs stack depth or
+ * a call per pixel. A bit per pixel marks what is filled already.
+ * <p>
+ * The spans found are merged into rectangles where the same span repeats
+ * on consecutive rows, so filling an empty view gives a single rectangle.
+ * An area larger than one buffer, such as one tile of the canvas, can be
+ * searched from several seeds with filled bits the caller keeps, so each
+ * search only adds what the ones before did not reach.
+ * Colors are compared as ARGB that is not premultiplied, so a translucent
+ * pixel is as close to the seed as its color is, whatever its alpha.
+ * The buffers are kept between fills; an instance is used on one thread.
+ *
+ * @author DKRORY
+ */
+final class FloodFill {
+
+    // Spans are packed into a long as start, end and row of 21 bits each
+    private static final int COORDINATE_BITS = 21;
+    private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+    static final int MAX_SIZE = 1 << COORDINATE_BITS;
+
+    // Copy of the image sampled, at one pixel per canvas pixel, not premultiplied
+    private BufferedImage sample;
+    // One bit per pixel of the buffer searched, set once it belongs to a span
+    private long[] filled;
+    // Filled bits of single-seed searches, kept between them
+    private long[] buffer = new long[0];
+    // Filled spans whose next row is still to be explored, as row, left, right and direction
+    private int[] stack = new int[256];
+    private int stackSize;
+    private long[] spans = new long[256];
+    private int spanCount;
+
+    // Rectangles, packed as x, y, width, height, covering the area around (x, y) in an image of the view that is
+    // width x height canvas pixels drawn at scale; they are moved by (dx, dy), e.g. to the view origin
+    int[] fill(BufferedImage image, double scale, int width, int height, int x, int y, int tolerance, int dx,
+               int dy) {
+        if (sample == null || sample.getWidth() != width || sample.getHeight() != height) {
+            sample = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        // A plain copy at scale 1; otherwise each canvas pixel takes the device pixel nearest to it
+        Graphics2D g2d = sample.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(image, AffineTransform.getScaleInstance(1 / scale, 1 / scale), null);
+        g2d.dispose();
+        int[] pixels = ((DataBufferInt) sample.getRaster().getDataBuffer()).getData();
+        return fill(pixels, width, height, x, y, tolerance, dx, dy);
+    }
+
+    // Rectangles, packed as x, y, width, height, covering the area around (x, y) in ARGB pixels, not
+    // premultiplied, of width x height stored row by row, whose channels each differ by at most tolerance from
+    // the pixel at (x, y); they are moved by (dx, dy)
+    int[] fill(int[] pixels, int width, int height, int x, int y, int tolerance, int dx, int dy) {
+        if (width >= MAX_SIZE || height >= MAX_SIZE) {
+            throw new IllegalArgumentException("Cannot fill an area of " + width + " x " + height);
+        }
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return new int[0];
+        }
+        int words = words(width, height);
+        if (buffer.length < words) {
+            buffer = new long[words];
+        } else {
+            Arrays.fill(buffer, 0, words, 0L);
+        }
+        return fill(pixels, width, height, buffer, new int[]{x, y}, 1, pixels[y * width + x], tolerance, dx, dy);
+    }
+
+    // Rectangles, packed as x, y, width, height, covering the pixels newly filled around seeds, packed as x, y,
+    // in ARGB pixels, not premultiplied, of width x height stored row by row, whose channels each differ by at
+    // most tolerance from the seed color. filled has words(width, height) longs with a bit per pixel, set for
+    // those already filled and for those filled now; seeds on filled or other colored pixels add nothing. The
+    // rectangles are moved by (dx, dy)
+    int[] fill(int[] pixels, int width, int height, long[] filled, int[] seeds, int seedCount, int seed,
+               int tolerance, int dx, int dy) {
+        if (width >= MAX_SIZE || height >= MAX_SIZE) {
+            throw new IllegalArgumentException("Cannot fill an area of " + width + " x " + height);
+        }
+        this.filled = filled;
+        spanCount = 0;
+        stackSize = 0;
+        for (int i = 0; i < seedCount; i++) {
+            int x = seeds[2 * i];
+            int y = seeds[2 * i + 1];
+            // Each seed pixel as if it were filled on the row below, which explores its own row first, and on
+            // its own row, which then explores the one below
+            if (x >= 0 && y >= 0 && x < width && y < height && fillable(pixels, y * width + x, seed, tolerance)) {
+                push(y, x, x, 1, height);
+                push(y + 1, x, x, -1, height);
+            }
+        }
+        while (stackSize > 0) {
+            // Pixels left to right of the row before are filled; fill the runs that touch them in this row
+            int direction = stack[--stackSize];
+            int right = stack[--stackSize];
+            int left = stack[--stackSize];
+            int row = stack[--stackSize] + direction;
+            int offset = row * width;
+            int start = left;
+            int end;
+            if (fillable(pixels, offset + left, seed, tolerance)) {
+                // The run at the left end may reach past it, and so into the row before on that side
+                while (start > 0 && fillable(pixels, offset + start - 1, seed, tolerance)) {
+                    start--;
+                }
+                if (start < left) {
+                    push(row, start, left - 1, -direction, height);
+                }
+                end = left + 1;
+            } else {
+                end = skip(pixels, offset, left + 1, right, seed, tolerance);
+                start = end;
+            }
+            while (start <= right) {
+                end = extend(pixels, offset, end, width, seed, tolerance);
+                markFilled(offset + start, offset + end);
+                addSpan(start, end, row);
+                push(row, start, end - 1, direction, height);
+                // Past the right end the run touches pixels of the row before that were not explored from it
+                if (end > right + 1) {
+                    push(row, right + 1, end - 1, -direction, height);
+                }
+                start = skip(pixels, offset, end + 1, right, seed, tolerance);
+                end = start;
+            }
+        }
+        this.filled = null;
+        return rects(dx, dy);
+    }
+
+    // Longs of the filled bits of an area of width x height
+    static int words(int width, int height) {
+        return (int) (((long) width * height + 63) >>> 6);
+    }
+
+    // End of the run of fillable pixels of a row from x on, x if it is not fillable
+    private int extend(int[] pixels, int offset, int x, int width, int seed, int tolerance) {
+        while (x < width) {
+            int index = offset + x;
+            // Where none of the next 64 pixels is filled yet, only their colors need checking
+            if ((index & 63) == 0 && x + 64 <= width && filled[index >>> 6] == 0) {
+                int end = index + 64;
+                while (index < end && matches(pixels[index], seed, tolerance)) {
+                    index++;
+                }
+                x = index - offset;
+                if (index < end) {
+                    return x;
+                }
+            } else if (fillable(pixels, index, seed, tolerance)) {
+                x++;
+            } else {
+                return x;
+            }
+        }
+        return x;
+    }
+
+    // First fillable pixel of a row from x on, or right + 1 if there is none up to right
+    private int skip(int[] pixels, int offset, int x, int right, int seed, int tolerance) {
+        while (x <= right && !fillable(pixels, offset + x, seed, tolerance)) {
+            x++;
+        }
+        return x;
+    }
+
+    // Whether the pixel at an index is not filled yet and close enough to the seed color
+    private boolean fillable(int[] pixels, int index, int seed, int tolerance) {
+        return (filled[index >>> 6] & (1L << index)) == 0 && matches(pixels[index], seed, tolerance);
+    }
+
+    // Whether every channel of a pixel differs by at most tolerance from the seed color
+    static boolean matches(int pixel, int seed, int tolerance) {
+        if (pixel == seed) {
+            return true;
+        }
+        return tolerance > 0
+                && Math.abs((pixel >>> 24) - (seed >>> 24)) <= tolerance
+                && Math.abs((pixel >> 16 & 0xff) - (seed >> 16 & 0xff)) <= tolerance
+                && Math.abs((pixel >> 8 & 0xff) - (seed >> 8 & 0xff)) <= tolerance
+                && Math.abs((pixel & 0xff) - (seed & 0xff)) <= tolerance;
+    }
+
+    // Set the filled bits from one index up to another, a word at a time where it can
+    private void markFilled(int from, int to) {
+        int i = from;
+        while (i < to) {
+            if ((i & 63) == 0 && to - i >= 64) {
+                filled[i >>> 6] = -1L;
+                i += 64;
+            } else {
+                filled[i >>> 6] |= 1L << i;
+                i++;
+            }
+        }
+    }
+
+    // Push the span from left to right of a filled row, to explore the row in direction from it, if there is one
+    private void push(int row, int left, int right, int direction, int height) {
+        int next = row + direction;
+        if (next < 0 || next >= height) {
+            return;
+        }
+        if (stackSize + 4 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = row;
+        stack[stackSize++] = left;
+        stack[stackSize++] = right;
+        stack[stackSize++] = direction;
+    }
+
+    private void addSpan(int left, int right, int y) {
+        if (spanCount == spans.length) {
+            spans = Arrays.copyOf(spans, spanCount * 2);
+        }
+        spans[spanCount++] = (long) left << (2 * COORDINATE_BITS) | (long) right << COORDINATE_BITS | y;
+    }
+
+    // Merge the spans into rectangles: sorted by start, end and row, a span on the row below an equal one
+    // extends its rectangle
+    private int[] rects(int dx, int dy) {
+        Arrays.sort(spans, 0, spanCount);
+        int[] rects = new int[4 * spanCount];
+        int count = 0;
+        for (int i = 0; i < spanCount; i++) {
+            long span = spans[i];
+            int left = (int) (span >>> (2 * COORDINATE_BITS));
+            int right = (int) (span >>> COORDINATE_BITS & COORDINATE_MASK);
+            int y = (int) (span & COORDINATE_MASK);
+            if (count > 0 && rects[count - 4] == left + dx && rects[count - 2] == right - left
+                    && rects[count - 3] + rects[count - 1] == y + dy) {
+                rects[count - 1]++;
+            } else {
+                rects[count++] = left + dx;
+                rects[count++] = y + dy;
+                rects[count++] = right - left;
+                rects[count++] = 1;
+            }
+        }
+        return Arrays.copyOf(rects, count);
+    }
+}
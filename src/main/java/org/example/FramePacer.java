@@ -0,0 +1,132 @@
+package org.example;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Paces the panel's input handling to the display refresh rate. Mouse
+ * events only record their samples; the work they cause (rasterizing new
+ * segments, moving a rubber band, requesting a repaint) is flushed at most
+ * once per frame, so a 1000 Hz mouse does not flood the EDT with repaints
+ * a 60 Hz screen can never show.
+ *
+ * @author DKRORY
+ */
+class FramePacer {
+
+    private static final int DEFAULT_FRAME_RATE = 60;
+
+    private final Runnable flush;
+    private final Timer timer;
+    private int frameRate;
+    private boolean pending = false;
+    private int eventsThisFrame = 0;
+
+    // Counters over the lifetime of the pacer
+    private long eventsReceived = 0;
+    private long eventsCoalesced = 0;
+    private long framesFlushed = 0;
+    private long framesPainted = 0;
+
+    // Create a pacer that runs flush once per frame while input keeps arriving
+    FramePacer(Runnable flush, int frameRate) {
+        this.flush = flush;
+        this.timer = new Timer(0, e -> tick());
+        this.timer.setCoalesce(true);
+        setFrameRate(frameRate);
+    }
+
+    // Frames per second to flush at; 0 or less flushes on every event
+    void setFrameRate(int frameRate) {
+        this.frameRate = frameRate;
+        if (frameRate > 0) {
+            timer.setDelay(Math.max(1, 1000 / frameRate));
+        } else {
+            stop();
+        }
+    }
+
+    int getFrameRate() {
+        return frameRate;
+    }
+
+    // Record one input event; its work is flushed now or with the next frame
+    void inputReceived() {
+        eventsReceived++;
+        eventsThisFrame++;
+        if (frameRate <= 0) {
+            flush();
+        } else if (!timer.isRunning()) {
+            // The first event after a pause is shown right away, the ones after it wait for the next frame
+            flush();
+            timer.start();
+        } else {
+            pending = true;
+        }
+    }
+
+    // Flush the work of the events received since the last frame, if any
+    void flush() {
+        pending = false;
+        if (eventsThisFrame > 0) {
+            framesFlushed++;
+            eventsCoalesced += eventsThisFrame - 1;
+            eventsThisFrame = 0;
+            flush.run();
+        }
+    }
+
+    // Flush what is left and stop ticking, e.g. when the mouse is released
+    void stop() {
+        flush();
+        timer.stop();
+    }
+
+    private void tick() {
+        if (pending) {
+            flush();
+        } else {
+            // Nothing arrived during the last frame, so stop waking up until input resumes
+            timer.stop();
+        }
+    }
+
+    long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    // Events whose work was folded into a frame flushed for a later event
+    long getEventsCoalesced() {
+        return eventsCoalesced;
+    }
+
+    // Record one paint of the panel; a flush only requests a repaint, which Swing may merge with others
+    void framePainted() {
+        framesPainted++;
+    }
+
+    // Frames whose input work was flushed, each with a repaint requested
+    long getFramesFlushed() {
+        return framesFlushed;
+    }
+
+    // Paints of the panel, the frames actually shown
+    long getFramesPainted() {
+        return framesPainted;
+    }
+
+    @Override
+    public String toString() {
+        return eventsReceived + " events received, " + eventsCoalesced + " coalesced, " + framesFlushed
+                + " frames flushed, " + framesPainted + " painted at " + frameRate + " Hz";
+    }
+
+    // Refresh rate of the screen a configuration belongs to, falling back to 60 Hz when it is unknown
+    static int refreshRate(GraphicsConfiguration gc) {
+        if (gc == null || GraphicsEnvironment.isHeadless()) {
+            return DEFAULT_FRAME_RATE;
+        }
+        int rate = gc.getDevice().getDisplayMode().getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_FRAME_RATE : rate;
+    }
+}
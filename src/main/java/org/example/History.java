@@ -0,0 +1,197 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Linear undo/redo history. Commands before the cursor are applied, the
+ * ones after it can be redone until a new command is recorded. Positions
+ * count every command ever recorded, so they stay stable when the oldest
+ * commands are dropped to keep the history within its limit.
+ *
+ * @author DKRORY
+ */
+final class History {
+
+    static final int DEFAULT_LIMIT = 1000;
+
+    // A recorded command with what is needed to keep the counts below when it is undone, redone or dropped
+    private static final class Entry {
+        final Command command;
+        // Floor of the command's layer before it was applied, for a Clear All
+        int floorBefore;
+        // Heap counted for the command in bytes
+        long bytes;
+
+        Entry(Command command) {
+            this.command = command;
+        }
+    }
+
+    // Shapes added to a layer by applied commands, and where the undoable ones start among them: after the last
+    // applied Clear All of the layer, and after the ones whose commands were dropped from the front
+    private static final class Counts {
+        int adds;
+        int floor;
+        int dropped;
+    }
+
+    private final ArrayList<Entry> commands = new ArrayList<>();
+    // Commands [0, cursor) are applied
+    private int cursor = 0;
+    // Position of commands[0]
+    private long firstPosition = 0;
+    // Epoch of the drawing before commands[0]
+    private long baseEpoch = 0;
+    private long nextEpoch = 1;
+    private int limit = DEFAULT_LIMIT;
+    // Kept up to date on every step, so asking for them does not walk the history
+    private final HashMap<Layer, Counts> counts = new HashMap<>();
+    private long bytes = 0;
+
+    // Position of the current state, the number of commands applied since the history started
+    long position() {
+        return firstPosition + cursor;
+    }
+
+    // Epoch of the current state
+    long epoch() {
+        return cursor == 0 ? baseEpoch : commands.get(cursor - 1).command.epoch();
+    }
+
+    // A fresh epoch for a command that changes the drawing as a whole
+    long newEpoch() {
+        return nextEpoch++;
+    }
+
+    // Record a command that has just been applied, dropping the redo branch and the oldest commands over the limit
+    void record(Command command) {
+        List<Entry> redoable = commands.subList(cursor, commands.size());
+        for (Entry entry : redoable) {
+            bytes -= entry.bytes;
+        }
+        redoable.clear();
+        Entry entry = new Entry(command);
+        commands.add(entry);
+        cursor++;
+        applied(entry);
+        trim();
+    }
+
+    // Drop applied commands from the front until the history fits its limit
+    private void trim() {
+        while (commands.size() > limit && cursor > 0) {
+            Entry entry = commands.removeFirst();
+            bytes -= entry.bytes;
+            if (entry.command instanceof Command.AddShape add) {
+                counts(add.layer()).dropped++;
+            }
+            baseEpoch = entry.command.epoch();
+            firstPosition++;
+            cursor--;
+        }
+    }
+
+    // Step back over the last applied command and return it, or null if there is nothing to undo
+    Command undo() {
+        if (cursor == 0) {
+            return null;
+        }
+        Entry entry = commands.get(--cursor);
+        switch (entry.command) {
+            case Command.AddShape add -> counts(add.layer()).adds--;
+            case Command.ClearAll clear -> counts(clear.layer()).floor = entry.floorBefore;
+            default -> {
+            }
+        }
+        weigh(entry, false);
+        return entry.command;
+    }
+
+    // Step forward over the next undone command and return it, or null if there is nothing to redo
+    Command redo() {
+        if (cursor == commands.size()) {
+            return null;
+        }
+        Entry entry = commands.get(cursor++);
+        applied(entry);
+        return entry.command;
+    }
+
+    // Update the counts for a command that has been applied or reapplied
+    private void applied(Entry entry) {
+        switch (entry.command) {
+            case Command.AddShape add -> counts(add.layer()).adds++;
+            case Command.ClearAll clear -> {
+                Counts layer = counts(clear.layer());
+                entry.floorBefore = layer.floor;
+                layer.floor = layer.adds;
+            }
+            default -> {
+            }
+        }
+        weigh(entry, true);
+    }
+
+    // Count what a command holds now that it is applied or undone: the shapes and rasters kept for undoing a
+    // Clear All or removing a layer, and the shapes and layers kept for redo
+    private void weigh(Entry entry, boolean applied) {
+        bytes -= entry.bytes;
+        entry.bytes = switch (entry.command) {
+            case Command.ClearAll clear when applied -> {
+                long cleared = clear.cleared().baked() == null ? 0 : clear.cleared().baked().bytes();
+                for (Shape shape : clear.cleared().shapes()) {
+                    cleared += shape.estimatedBytes();
+                }
+                yield cleared;
+            }
+            case Command.AddShape add when !applied -> add.shape().estimatedBytes();
+            case Command.RemoveLayer remove when applied -> remove.layer().estimatedBytes();
+            case Command.AddLayer add when !applied -> add.layer().estimatedBytes();
+            default -> 0;
+        };
+        bytes += entry.bytes;
+    }
+
+    private Counts counts(Layer layer) {
+        return counts.computeIfAbsent(layer, key -> new Counts());
+    }
+
+    // Number of shapes the applied commands have added to a layer since its last applied Clear All; the
+    // shapes below them in the layer can no longer be undone
+    int undoableShapeCount(Layer layer) {
+        Counts layerCounts = counts.get(layer);
+        return layerCounts == null ? 0 : layerCounts.adds - Math.max(layerCounts.floor, layerCounts.dropped);
+    }
+
+    // Rough heap held by commands on top of the current drawing, as counted when each was last applied or undone
+    long estimatedBytes() {
+        return bytes;
+    }
+
+    // Forget every command, e.g. when another document is opened; positions and epochs keep counting up, so
+    // none of the old ones is mistaken for a state of the new drawing
+    void clear() {
+        firstPosition += commands.size();
+        commands.clear();
+        counts.clear();
+        bytes = 0;
+        cursor = 0;
+        baseEpoch = newEpoch();
+    }
+
+    boolean canUndo() {
+        return cursor > 0;
+    }
+
+    boolean canRedo() {
+        return cursor < commands.size();
+    }
+
+    // Maximum number of commands kept; older ones can no longer be undone and release what they hold
+    void setLimit(int limit) {
+        this.limit = Math.max(1, limit);
+        trim();
+    }
+}
@@ -0,0 +1,146 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * Multi-resolution copy of a loaded image. Level 0 is the full image in a
+ * format the screen can blit directly (compatible with the panel's
+ * GraphicsConfiguration, premultiplied when it has alpha); every further
+ * level halves the size and is built the first time a zoomed-out view
+ * needs it. Drawing picks the smallest level that still has at least one
+ * source pixel per device pixel, so the cost of a paint follows the
+ * pixels on screen rather than the size of the original.
+ *
+ * @author DKRORY
+ */
+final class ImagePyramid {
+
+    // Levels stop halving once the longest side fits in this many pixels
+    private static final int MIN_LEVEL_SIZE = 64;
+
+    private final GraphicsConfiguration gc;
+    private final TiledRaster[] levels;
+
+    // Pyramid over a base raster whose tiles are already in render format, see createTile
+    ImagePyramid(TiledRaster base, GraphicsConfiguration gc) {
+        this.gc = gc;
+        int count = 1;
+        for (int size = Math.max(base.getWidth(), base.getHeight()); size > MIN_LEVEL_SIZE; size /= 2) {
+            count++;
+        }
+        this.levels = new TiledRaster[count];
+        this.levels[0] = base;
+    }
+
+    // Pyramid over an image of any type, converted to render format and cut into tiles if it is large
+    static ImagePyramid of(BufferedImage image, GraphicsConfiguration gc) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int tileSize = TiledRaster.TILE_SIZE;
+        if (width <= tileSize && height <= tileSize) {
+            return new ImagePyramid(TiledRaster.wrap(convert(image, 0, 0, width, height, gc)), gc);
+        }
+        TiledRaster base = new TiledRaster(width, height, tileSize);
+        for (int row = 0; row * tileSize < height; row++) {
+            for (int column = 0; column * tileSize < width; column++) {
+                int x = column * tileSize;
+                int y = row * tileSize;
+                base.setTile(column, row, convert(image, x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y), gc));
+            }
+        }
+        return new ImagePyramid(base, gc);
+    }
+
+    // Blank tile in the render format: compatible with the configuration, or INT_RGB / INT_ARGB_PRE without one
+    static BufferedImage createTile(int width, int height, boolean opaque, GraphicsConfiguration gc) {
+        if (gc != null) {
+            return gc.createCompatibleImage(width, height, opaque ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+        }
+        return new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    // Copy part of an image into a new tile in render format
+    static BufferedImage convert(BufferedImage source, int x, int y, int width, int height, GraphicsConfiguration gc) {
+        BufferedImage tile = createTile(width, height, source.getTransparency() == Transparency.OPAQUE, gc);
+        Graphics2D g2d = tile.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(source, -x, -y, null);
+        g2d.dispose();
+        return tile;
+    }
+
+    int getWidth() {
+        return levels[0].getWidth();
+    }
+
+    int getHeight() {
+        return levels[0].getHeight();
+    }
+
+    // Whether the image has no alpha channel
+    boolean isOpaque() {
+        return levels[0].isOpaque();
+    }
+
+    int levelCount() {
+        return levels.length;
+    }
+
+    // Draw the image at (x, y) at its full size, from the level that matches the graphics' scale
+    void draw(Graphics2D g2d, int x, int y) {
+        int level = levelFor(g2d.getTransform());
+        if (level == 0) {
+            levels[0].draw(g2d, x, y);
+        } else {
+            level(level).draw(g2d, x, y, getWidth(), getHeight());
+        }
+    }
+
+    // Smallest level with at least one pixel per device pixel under the transform
+    private int levelFor(AffineTransform transform) {
+        double scale = Math.hypot(transform.getScaleX(), transform.getShearY());
+        int level = 0;
+        while (level + 1 < levels.length && scale * (1 << (level + 1)) <= 1.0) {
+            level++;
+        }
+        return level;
+    }
+
+    // A level of the pyramid, building it (and the ones above it) on first use
+    synchronized TiledRaster level(int index) {
+        if (levels[index] == null) {
+            levels[index] = halve(level(index - 1));
+        }
+        return levels[index];
+    }
+
+    // Half-size copy of a level; bilinear sampling at exactly 1/2 averages each 2x2 block.
+    // An odd last row or column is dropped, so every output pixel has a full block under it
+    private TiledRaster halve(TiledRaster source) {
+        int width = Math.max(1, source.getWidth() / 2);
+        int height = Math.max(1, source.getHeight() / 2);
+        int tileSize = Math.min(source.getTileSize(), Math.max(width, height));
+        TiledRaster half = new TiledRaster(width, height, tileSize);
+        for (int row = 0; row * tileSize < height; row++) {
+            for (int column = 0; column * tileSize < width; column++) {
+                int tileX = column * tileSize;
+                int tileY = row * tileSize;
+                BufferedImage tile = createTile(Math.min(tileSize, width - tileX), Math.min(tileSize, height - tileY),
+                        source.isOpaque(), gc);
+                Graphics2D g2d = tile.createGraphics();
+                g2d.setComposite(AlphaComposite.Src);
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.translate(-tileX, -tileY);
+                g2d.scale(0.5, 0.5);
+                // Tile edges fall on even source pixels, so no 2x2 block straddles two source tiles
+                g2d.clipRect(tileX * 2, tileY * 2, tile.getWidth() * 2, tile.getHeight() * 2);
+                source.draw(g2d, 0, 0);
+                g2d.dispose();
+                half.setTile(column, row, tile);
+            }
+        }
+        return half;
+    }
+}
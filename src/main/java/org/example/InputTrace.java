@@ -0,0 +1,250 @@
+package org.example;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Trace of the input a drawing panel received, so a drawing session can
+ * be replayed later, e.g. to reproduce a slow stroke. A trace is a text
+ * file with one event per line: the nanoseconds since recording started,
+ * the kind of event and its arguments, such as "1500000 DRAG 210 344 1".
+ * Mouse events are in panel coordinates, as the listeners received them.
+ * <p>
+ * Besides the mouse, a trace holds what changes what the mouse does: the
+ * tool, colour, dotted and filled settings, the fill tolerance, the
+ * background, undo, redo, Clear All, the view origin, the panel size and
+ * the layer controls. The drawing the session started from is saved next
+ * to the trace as a document. Images loaded and documents opened during the session are
+ * not in the trace.
+ *
+ * @author DKRORY
+ */
+final class InputTrace {
+
+    private static final Logger LOGGER = Logger.getLogger(InputTrace.class.getName());
+
+    private static final String HEADER = "# paintbrush trace 1";
+
+    // Kinds of events, with the arguments they are written with
+    enum Kind {
+        PRESS,          // x y button
+        DRAG,           // x y button
+        RELEASE,        // x y button
+        SIZE,           // width height
+        VIEW,           // x y
+        TOOL,           // shape type
+        COLOR,          // argb in hex
+        DOTTED,         // true or false
+        FILLED,         // true or false
+        FILL_TOLERANCE, // 0 to 255
+        BACKGROUND,     // argb in hex
+        UNDO,
+        REDO,
+        CLEAR,
+        LAYER_ADD,
+        LAYER_REMOVE,
+        LAYER_SELECT,   // index
+        LAYER_VISIBLE,  // true or false
+        LAYER_OPACITY,  // opacity from 0 to 1
+        LAYER_LOCKED    // true or false
+    }
+
+    // One event of a trace, nanos after recording started
+    record Event(long nanos, Kind kind, String[] args) {
+    }
+
+    private InputTrace() {
+    }
+
+    // Document the drawing of a trace started from
+    static Path startDocument(Path trace) {
+        return trace.resolveSibling(trace.getFileName() + "." + DocumentFile.EXTENSION);
+    }
+
+    // Read the events of a trace in the order they were recorded
+    static List<Event> read(Path trace) throws IOException {
+        List<Event> events = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(trace, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.trim().split(" ");
+            try {
+                String[] args = new String[fields.length - 2];
+                System.arraycopy(fields, 2, args, 0, args.length);
+                events.add(new Event(Long.parseLong(fields[0]), Kind.valueOf(fields[1]), args));
+            } catch (RuntimeException e) {
+                throw new IOException(trace + ":" + lineNumber + ": not a trace event: " + line, e);
+            }
+        }
+        return events;
+    }
+
+    // Give panel the drawing the session of a trace started from, if it was saved
+    static void prepare(Path trace, DrawingPanel panel) throws IOException {
+        Path start = startDocument(trace);
+        if (Files.exists(start)) {
+            panel.openDocument(DocumentFile.read(start, panel.getGraphicsConfiguration(), panel.getTileCache()));
+        }
+    }
+
+    // Feed an event to panel through the same listeners and setters the user's input goes through
+    static void apply(Event event, DrawingPanel panel) {
+        String[] args = event.args();
+        switch (event.kind()) {
+            case PRESS, DRAG, RELEASE -> dispatch(panel, mouseEvent(panel, event.kind(), Integer.parseInt(args[0]),
+                    Integer.parseInt(args[1]), Integer.parseInt(args[2])));
+            case SIZE -> panel.setSize(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+            case VIEW -> panel.setViewOrigin(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+            case TOOL -> panel.setCurrentShape(ShapeType.valueOf(args[0]));
+            case COLOR -> panel.setCurrentColor(color(args[0]));
+            case DOTTED -> panel.setDotted(Boolean.parseBoolean(args[0]));
+            case FILLED -> panel.setFilled(Boolean.parseBoolean(args[0]));
+            case FILL_TOLERANCE -> panel.setFillTolerance(Integer.parseInt(args[0]));
+            case BACKGROUND -> panel.changeBackground(color(args[0]));
+            case UNDO -> panel.undo();
+            case REDO -> panel.redo();
+            case CLEAR -> panel.clearAll();
+            case LAYER_ADD -> panel.addLayer();
+            case LAYER_REMOVE -> panel.removeActiveLayer();
+            case LAYER_SELECT -> panel.setActiveLayer(Integer.parseInt(args[0]));
+            case LAYER_VISIBLE -> panel.setActiveLayerVisible(Boolean.parseBoolean(args[0]));
+            case LAYER_OPACITY -> panel.setActiveLayerOpacity(Float.parseFloat(args[0]));
+            case LAYER_LOCKED -> panel.setActiveLayerLocked(Boolean.parseBoolean(args[0]));
+        }
+    }
+
+    // Mouse event of a kind with the button it was recorded with held down
+    private static MouseEvent mouseEvent(Component source, Kind kind, int x, int y, int button) {
+        int id = switch (kind) {
+            case PRESS -> MouseEvent.MOUSE_PRESSED;
+            case DRAG -> MouseEvent.MOUSE_DRAGGED;
+            default -> MouseEvent.MOUSE_RELEASED;
+        };
+        int modifiers = switch (button) {
+            case MouseEvent.BUTTON2 -> InputEvent.BUTTON2_DOWN_MASK;
+            case MouseEvent.BUTTON3 -> InputEvent.BUTTON3_DOWN_MASK;
+            default -> InputEvent.BUTTON1_DOWN_MASK;
+        };
+        return new MouseEvent(source, id, System.currentTimeMillis(), modifiers, x, y, 1, false, button);
+    }
+
+    // Hand a mouse event straight to the panel's listeners, the way the EDT would
+    private static void dispatch(DrawingPanel panel, MouseEvent e) {
+        switch (e.getID()) {
+            case MouseEvent.MOUSE_PRESSED -> {
+                for (MouseListener listener : panel.getMouseListeners()) {
+                    listener.mousePressed(e);
+                }
+            }
+            case MouseEvent.MOUSE_RELEASED -> {
+                for (MouseListener listener : panel.getMouseListeners()) {
+                    listener.mouseReleased(e);
+                }
+            }
+            default -> {
+                for (MouseMotionListener listener : panel.getMouseMotionListeners()) {
+                    listener.mouseDragged(e);
+                }
+            }
+        }
+    }
+
+    private static Color color(String argb) {
+        return new Color(Integer.parseUnsignedInt(argb, 16), true);
+    }
+
+    /**
+     * Writes the input of a drawing panel to a trace as it arrives. The
+     * panel calls it from its listeners and setters on the EDT; lines are
+     * buffered and reach the file when the buffer fills up or the
+     * recorder is closed.
+     *
+     * @author DKRORY
+     */
+    static final class Recorder implements AutoCloseable {
+
+        private final BufferedWriter out;
+        private final long start = System.nanoTime();
+        private final StringBuilder line = new StringBuilder();
+        private boolean closed = false;
+
+        // Start a trace of panel in a file, saving the drawing it starts from next to it; the caller hands
+        // the recorder to the panel with setTraceRecorder
+        Recorder(Path trace, DrawingPanel panel) throws IOException {
+            DocumentFile.write(panel.document(), startDocument(trace));
+            out = Files.newBufferedWriter(trace, StandardCharsets.UTF_8);
+            out.write(HEADER);
+            out.newLine();
+            record(Kind.SIZE, panel.getWidth() + " " + panel.getHeight());
+            Point view = panel.getViewOrigin();
+            record(Kind.VIEW, view.x + " " + view.y);
+            record(Kind.TOOL, panel.getCurrentShape());
+            record(Kind.COLOR, panel.getCurrentColor());
+            record(Kind.DOTTED, panel.isDotted());
+            record(Kind.FILLED, panel.isFilled());
+            record(Kind.FILL_TOLERANCE, panel.getFillTolerance());
+            panel.addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    record(Kind.SIZE, panel.getWidth() + " " + panel.getHeight());
+                }
+            });
+        }
+
+        // Record a mouse press, drag or release as the panel's listeners received it
+        void mouse(Kind kind, MouseEvent e) {
+            int button = SwingUtilities.isMiddleMouseButton(e) ? MouseEvent.BUTTON2
+                    : SwingUtilities.isRightMouseButton(e) ? MouseEvent.BUTTON3 : MouseEvent.BUTTON1;
+            record(kind, e.getX() + " " + e.getY() + " " + button);
+        }
+
+        // Record an event with its argument, or none if it is null
+        synchronized void record(Kind kind, Object argument) {
+            if (closed) {
+                return;
+            }
+            line.setLength(0);
+            line.append(System.nanoTime() - start).append(' ').append(kind.name());
+            if (argument instanceof Color color) {
+                line.append(' ').append(Integer.toHexString(color.getRGB()));
+            } else if (argument != null) {
+                line.append(' ').append(argument);
+            }
+            try {
+                out.append(line);
+                out.newLine();
+            } catch (IOException e) {
+                // The drawing goes on without the trace
+                LOGGER.log(Level.WARNING, "Input trace stopped", e);
+                closed = true;
+            }
+        }
+
+        // Write what is buffered and stop recording; events arriving later are dropped
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+}
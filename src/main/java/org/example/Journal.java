@@ -0,0 +1,640 @@
+package org.example;
+
+import java.awt.*;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Autosave of the drawing as a write-ahead log, so a crash loses next to
+ * nothing. Every change is appended on the EDT to a segment
+ * file mapped into memory as a small checksummed record: a shape with its
+ * points, Clear All, undo, redo, a layer added, removed or changed, a new
+ * background. Appending is a few memory writes; the mapped pages reach the
+ * file even if the app dies, and a background thread forces them to disk
+ * once a second, so the EDT never waits for the disk.
+ * <p>
+ * Every few megabytes of records a new segment is started and a snapshot
+ * of the drawing, saved as a document, is written in the background; the
+ * files before it are deleted once it is complete, their mappings released
+ * first. Until then the new segment simply continues the old one. The next
+ * segment file is mapped ahead on the background thread, so starting one
+ * costs the EDT no file operations. An undo or redo of a change the
+ * snapshot already holds is journaled as the change it makes, as if the
+ * user had made it. Some changes cannot be replayed from a record (an image
+ * added, a document opened, the undo of a Clear All or of a layer removed
+ * before the snapshot); they start a new segment that only counts from its
+ * snapshot, so the last moment of work is lost if the app dies while that
+ * snapshot is written. Recovery opens the newest snapshot and replays its
+ * segment and the ones continuing it, up to the first damaged record.
+ *
+ * @author DKRORY
+ */
+final class Journal {
+
+    private static final Logger LOGGER = Logger.getLogger(Journal.class.getName());
+
+    // Size a segment file is mapped with at first, and doubled to when it fills up
+    private static final int SEGMENT_SIZE = 1 << 20;
+    // Records a segment takes before the next one starts from a snapshot
+    static final int COMPACT_SIZE = 4 << 20;
+    // "PBWL", format version and flags at the start of every segment
+    private static final int MAGIC = 0x5042574c;
+    private static final int VERSION = 2;
+    private static final int SEGMENT_HEADER = 8;
+    // Segment flags: it goes on from where the previous generation ended, or from an empty drawing
+    private static final int CONTINUES = 1;
+    private static final int FROM_EMPTY = 2;
+    // Payload length and CRC-32C before every record
+    private static final int RECORD_HEADER = 8;
+    private static final long FORCE_INTERVAL_MILLIS = 1000;
+    private static final Pattern FILE_NAME = Pattern.compile("(snapshot|journal)-(\\d+)\\.(pbd|wal)");
+
+    // Kinds of records
+    private static final byte ADD_SHAPE = 1;
+    private static final byte CLEAR_ALL = 2;
+    private static final byte BACKGROUND = 3;
+    private static final byte ADD_LAYER = 4;
+    private static final byte REMOVE_LAYER = 5;
+    private static final byte UNDO = 6;
+    private static final byte REDO = 7;
+    private static final byte ACTIVE_LAYER = 8;
+    private static final byte LAYER_SETTINGS = 9;
+    private static final byte REMOVE_SHAPE = 10;
+
+    // Unsafe.invokeCleaner with its instance, which unmaps a buffer at once instead of when it is collected;
+    // null where the JDK does not have it
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Journal files stay mapped until they are collected", e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    // A snapshot waiting to be written, the drawing as the segment of the same generation starts from it
+    private record Snapshot(long generation, DocumentFile.Document document) {
+    }
+
+    // A segment file of a generation mapped ahead, still all zeros
+    private record Spare(long generation, MappedByteBuffer buffer) {
+    }
+
+    private final Path directory;
+    // Held while the journal is open, so a second window does not journal into the same files
+    private final FileChannel lock;
+    private final DrawingPanel panel;
+    // Forces segments and writes snapshots, one at a time and in order
+    private final ScheduledExecutorService writer;
+    private final CRC32C crc = new CRC32C();
+    private final AtomicReference<Snapshot> pendingSnapshot = new AtomicReference<>();
+    // The segment after this one, mapped by the writer thread; null until it is
+    private final AtomicReference<Spare> spare = new AtomicReference<>();
+
+    private long generation;
+    // Segment records are appended to; null once the journal has failed
+    private volatile MappedByteBuffer segment;
+    private Path segmentFile;
+    // Whether records were appended since the segment was last forced
+    private volatile boolean dirty = false;
+    // Commands on top of the history that replay puts on top of the replayed one as well, so an undo record
+    // takes them back
+    private int undoable = 0;
+    // Commands undone by undo records that a redo record can bring back on replay
+    private int redoable = 0;
+    // Where the record being appended starts
+    private int recordStart;
+
+    private Journal(Path directory, FileChannel lock, DrawingPanel panel, long generation, int flags)
+            throws IOException {
+        this.directory = directory;
+        this.lock = lock;
+        this.panel = panel;
+        this.generation = generation - 1;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startSegment(flags);
+        writer.scheduleWithFixedDelay(this::force, FORCE_INTERVAL_MILLIS, FORCE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Where the app keeps its journal
+    static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".paintbrush", "autosave");
+    }
+
+    // Recover the drawing journaled in directory into panel, then journal every further change of it there;
+    // the caller hands the journal to the panel with setJournal
+    static Journal open(Path directory, DrawingPanel panel) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lock = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            if (lock.tryLock() == null) {
+                throw new OverlappingFileLockException();
+            }
+        } catch (OverlappingFileLockException e) {
+            lock.close();
+            throw new IOException("Autosave in " + directory + " is in use by another window");
+        }
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    (matcher.group(1).equals("snapshot") ? snapshots : segments)
+                            .put(Long.parseLong(matcher.group(2)), file);
+                }
+            }
+        }
+        // Start from the newest snapshot, or from the newest segment that started from an empty drawing if
+        // no snapshot is as new
+        long start = -1;
+        for (var segment : segments.descendingMap().entrySet()) {
+            if ((flags(segment.getValue()) & FROM_EMPTY) != 0) {
+                start = segment.getKey();
+                break;
+            }
+        }
+        for (Long generation : snapshots.descendingKeySet()) {
+            if (generation <= start) {
+                break;
+            }
+            try {
+                panel.openDocument(DocumentFile.read(snapshots.get(generation), panel.getGraphicsConfiguration(),
+                        panel.getTileCache()));
+                start = generation;
+                break;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Skipping autosave snapshot " + snapshots.get(generation), e);
+            }
+        }
+        int replayed = 0;
+        for (long generation = start; start >= 0 && segments.containsKey(generation); generation++) {
+            if (generation > start && (flags(segments.get(generation)) & CONTINUES) == 0) {
+                break;
+            }
+            replayed += replay(segments.get(generation), panel);
+        }
+        if (start >= 0) {
+            LOGGER.info("Recovered the drawing from " + directory + ", " + replayed + " changes replayed");
+        }
+        long last = Math.max(snapshots.isEmpty() ? 0 : snapshots.lastKey(),
+                segments.isEmpty() ? 0 : segments.lastKey());
+        Journal journal = new Journal(directory, lock, panel, last + 1, start < 0 ? FROM_EMPTY : 0);
+        // The recovered drawing becomes the first snapshot, so the files it came from can go
+        journal.pendingSnapshot.set(new Snapshot(journal.generation, panel.document()));
+        journal.writer.execute(journal::writeSnapshot);
+        return journal;
+    }
+
+    // Append a command the panel has just recorded and applied, with its layers bottom to top
+    void recorded(Command command, List<Layer> layers) {
+        if (appendChange(command, layers)) {
+            undoable++;
+            redoable = 0;
+        } else {
+            compact();
+        }
+    }
+
+    // Append an undo of a command, with the layers after it
+    void undone(Command command, List<Layer> layers) {
+        if (undoable > 0) {
+            undoable--;
+            redoable++;
+            append(UNDO, 0);
+        } else if (appendUndoChange(command, layers)) {
+            // The command is in the snapshot, so replay makes the change instead, which leaves nothing to redo
+            redoable = 0;
+        } else {
+            compact();
+        }
+    }
+
+    // Append a redo of a command, with the layers after it
+    void redone(Command command, List<Layer> layers) {
+        if (redoable > 0) {
+            redoable--;
+            undoable++;
+            append(REDO, 0);
+        } else if (appendChange(command, layers)) {
+            // The command was undone before the snapshot was taken, which does not keep it, so replay makes it
+            // again as a new one
+            undoable++;
+        } else {
+            compact();
+        }
+    }
+
+    // Append the change a command makes as the record replay makes it with; false if it has none
+    private boolean appendChange(Command command, List<Layer> layers) {
+        switch (command) {
+            case Command.AddShape add when add.shape() instanceof ImageShape -> {
+                return false;
+            }
+            case Command.AddShape add -> {
+                MappedByteBuffer out = begin(1 + 4 + DocumentFile.maxShapeSize(add.shape()));
+                if (out != null) {
+                    out.put(ADD_SHAPE).putInt(layers.indexOf(add.layer()));
+                    DocumentFile.putShape(out, add.shape());
+                    end(out);
+                }
+            }
+            // Replay clears and removes layers through the panel, which refuses locked ones
+            case Command.ClearAll clear when !clear.layer().isEditable() -> {
+                return false;
+            }
+            case Command.ClearAll clear -> append(CLEAR_ALL, layers.indexOf(clear.layer()));
+            case Command.ChangeBackground change -> append(BACKGROUND, change.to().getRGB());
+            case Command.AddLayer add -> append(ADD_LAYER, add.index());
+            case Command.RemoveLayer remove when remove.layer().isLocked() -> {
+                return false;
+            }
+            case Command.RemoveLayer remove -> append(REMOVE_LAYER, remove.index());
+        }
+        return true;
+    }
+
+    // Append the change undoing a command makes as the record replay makes it with; false if it has none,
+    // as for a Clear All or a layer removal, whose shapes the segment does not hold
+    private boolean appendUndoChange(Command command, List<Layer> layers) {
+        switch (command) {
+            case Command.AddShape add -> append(REMOVE_SHAPE, layers.indexOf(add.layer()));
+            case Command.ChangeBackground change -> append(BACKGROUND, change.from().getRGB());
+            case Command.AddLayer add when !add.layer().isLocked() -> append(REMOVE_LAYER, add.index());
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void activeLayerChanged(int index) {
+        append(ACTIVE_LAYER, index);
+    }
+
+    // Append the view settings of the active layer
+    void layerSettingsChanged(boolean visible, boolean locked, float opacity) {
+        MappedByteBuffer out = begin(1 + 1 + 4);
+        if (out != null) {
+            out.put(LAYER_SETTINGS).put((byte) ((visible ? 1 : 0) | (locked ? 2 : 0))).putFloat(opacity);
+            end(out);
+        }
+    }
+
+    // Start a new segment from a snapshot of the drawing as it is now, after a change the segment does not
+    // hold; the snapshot is written in the background, and older segments and snapshots are deleted once
+    // it is complete
+    void compact() {
+        compact(0);
+    }
+
+    // Start a new segment with flags from a snapshot of the drawing as it is now
+    private void compact(int flags) {
+        MappedByteBuffer finished = segment;
+        if (finished == null) {
+            return;
+        }
+        try {
+            startSegment(flags);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        // A snapshot still waiting is replaced by this newer one; the segments in between are kept until then,
+        // and compactions queued behind each other write only the newest
+        pendingSnapshot.set(new Snapshot(generation, panel.document()));
+        writer.execute(() -> {
+            finished.force();
+            unmap(finished);
+            writeSnapshot();
+        });
+    }
+
+    // Force what was appended and stop the background thread, waiting for a snapshot being written, then
+    // let another window use the journal; nothing is appended any more
+    void close() throws InterruptedException, IOException {
+        MappedByteBuffer last = segment;
+        segment = null;
+        writer.execute(() -> {
+            if (last != null) {
+                last.force();
+                unmap(last);
+            }
+            dropSpare();
+        });
+        writer.shutdown();
+        writer.awaitTermination(1, TimeUnit.MINUTES);
+        lock.close();
+    }
+
+    // Start the segment of the next generation, from the drawing as it is now, and write its header; the
+    // segment is the spare the writer thread mapped unless it is not ready yet
+    private void startSegment(int flags) throws IOException {
+        generation++;
+        segmentFile = directory.resolve("journal-" + generation + ".wal");
+        Spare ready = spare.getAndSet(null);
+        MappedByteBuffer out;
+        if (ready != null && ready.generation() == generation) {
+            out = ready.buffer();
+        } else {
+            if (ready != null) {
+                writer.execute(() -> unmap(ready.buffer()));
+            }
+            // The writer thread may be creating the file just now
+            out = map(segmentFile);
+        }
+        out.putInt(MAGIC).putShort((short) VERSION).putShort((short) flags);
+        segment = out;
+        dirty = true;
+        undoable = 0;
+        redoable = 0;
+        long next = generation + 1;
+        writer.execute(() -> prepareSpare(next));
+    }
+
+    // Map the segment file of a generation, creating it if it is not there yet
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    // Map the segment file of the next generation ahead, on the writer thread
+    private void prepareSpare(long next) {
+        try {
+            Spare old = spare.getAndSet(new Spare(next, map(directory.resolve("journal-" + next + ".wal"))));
+            if (old != null) {
+                unmap(old.buffer());
+            }
+        } catch (IOException e) {
+            // The EDT maps the segment itself when it starts it
+            LOGGER.log(Level.FINE, "Could not map the next journal segment ahead", e);
+        }
+    }
+
+    // Unmap and delete a spare segment file that was never started, on the writer thread
+    private void dropSpare() {
+        Spare unused = spare.getAndSet(null);
+        if (unused != null && unused.generation() > generation) {
+            unmap(unused.buffer());
+            try {
+                Files.deleteIfExists(directory.resolve("journal-" + unused.generation() + ".wal"));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not delete the spare journal segment", e);
+            }
+        } else if (unused != null) {
+            // A second mapping of a segment that was started without it
+            unmap(unused.buffer());
+        }
+    }
+
+    // Release the mapping of a buffer nothing uses any more, so its file can be deleted even where the system
+    // refuses to delete a mapped file; without Unsafe it is released when it is collected
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.log(Level.FINE, "Could not unmap a journal segment", e);
+            }
+        }
+    }
+
+    // Map the segment again with room for at least size more bytes
+    private MappedByteBuffer grow(MappedByteBuffer out, long size) throws IOException {
+        long capacity = Math.max(2L * out.capacity(), out.position() + size);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Journal record too large");
+        }
+        MappedByteBuffer grown;
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            grown = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        grown.position(out.position());
+        segment = grown;
+        writer.execute(() -> {
+            out.force();
+            unmap(out);
+        });
+        return grown;
+    }
+
+    // Append a record of a kind with one int
+    private void append(byte kind, int value) {
+        MappedByteBuffer out = begin(1 + 4);
+        if (out != null) {
+            out.put(kind).putInt(value);
+            end(out);
+        }
+    }
+
+    // The segment positioned for a record of at most size bytes, or null if the journal has failed
+    private MappedByteBuffer begin(long size) {
+        MappedByteBuffer out = segment;
+        if (out == null) {
+            return null;
+        }
+        // Zeros after the last record mark the end of the segment
+        if (RECORD_HEADER + size + 4 > out.remaining()) {
+            try {
+                out = grow(out, RECORD_HEADER + size + 4);
+            } catch (IOException e) {
+                fail(e);
+                return null;
+            }
+        }
+        recordStart = out.position();
+        out.position(recordStart + RECORD_HEADER);
+        return out;
+    }
+
+    // Seal the record written since begin: its length and checksum go in last, so a record cut short by a
+    // crash ends the segment
+    private void end(MappedByteBuffer out) {
+        int length = out.position() - recordStart - RECORD_HEADER;
+        crc.reset();
+        crc.update(out.slice(recordStart + RECORD_HEADER, length));
+        out.putInt(recordStart + 4, (int) crc.getValue());
+        out.putInt(recordStart, length);
+        dirty = true;
+        if (out.position() > COMPACT_SIZE) {
+            // The new segment goes on from this one until its snapshot is written
+            compact(CONTINUES);
+        }
+    }
+
+    // Force the segment to disk if anything was appended since the last time
+    private void force() {
+        MappedByteBuffer out = segment;
+        if (dirty && out != null) {
+            dirty = false;
+            out.force();
+        }
+    }
+
+    // Write the latest pending snapshot and delete what it makes obsolete, on the writer thread
+    private void writeSnapshot() {
+        Snapshot snapshot = pendingSnapshot.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            DocumentFile.write(snapshot.document(), directory.resolve("snapshot-" + snapshot.generation() + ".pbd"));
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                    if (matcher.matches() && Long.parseLong(matcher.group(2)) < snapshot.generation()) {
+                        try {
+                            Files.deleteIfExists(file);
+                        } catch (IOException e) {
+                            // Still open, e.g. mapped by another process on Windows; the next snapshot deletes it
+                            LOGGER.log(Level.FINE, "Could not delete " + file, e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The segments since the last snapshot stay, so nothing is lost; the next compaction tries again
+            LOGGER.log(Level.WARNING, "Autosave snapshot failed", e);
+        }
+    }
+
+    // Stop journaling after a segment could not be created or grown
+    private void fail(IOException e) {
+        LOGGER.log(Level.WARNING, "Autosave is off", e);
+        segment = null;
+    }
+
+    // Flags of a segment, or 0 if its header is not that of a segment
+    private static int flags(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < SEGMENT_HEADER || header.getInt() != MAGIC || header.getShort() > VERSION) {
+                return 0;
+            }
+            return header.getShort();
+        }
+    }
+
+    // Apply the records of a segment to panel, up to the first damaged one; returns how many were applied
+    private static int replay(Path file, DrawingPanel panel) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return replay(in, file, panel);
+        } finally {
+            // The file is deleted once the recovered drawing is written as a snapshot
+            unmap(in);
+        }
+    }
+
+    // Apply the records of a mapped segment to panel, up to the first damaged one
+    private static int replay(MappedByteBuffer in, Path file, DrawingPanel panel) {
+        CRC32C crc = new CRC32C();
+        int count = 0;
+        in.position(SEGMENT_HEADER);
+        while (in.remaining() >= RECORD_HEADER) {
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > in.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(in.slice(in.position(), length));
+            if ((int) crc.getValue() != checksum) {
+                LOGGER.warning("Damaged record in " + file.getFileName() + " at " + (in.position() - RECORD_HEADER));
+                break;
+            }
+            int next = in.position() + length;
+            try {
+                apply(in, panel);
+            } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException
+                     | IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Unreadable record in " + file.getFileName(), e);
+                break;
+            }
+            in.position(next);
+            count++;
+        }
+        return count;
+    }
+
+    // Redo one journaled change through the panel, as the user made it
+    private static void apply(MappedByteBuffer in, DrawingPanel panel) throws IOException {
+        byte kind = in.get();
+        switch (kind) {
+            case ADD_SHAPE -> {
+                panel.setActiveLayer(in.getInt());
+                panel.drawShape(DocumentFile.getShape(in));
+            }
+            case CLEAR_ALL -> {
+                panel.setActiveLayer(in.getInt());
+                panel.clearAll();
+            }
+            case BACKGROUND -> panel.changeBackground(new Color(in.getInt(), true));
+            case ADD_LAYER -> {
+                // A layer is added above the active one
+                panel.setActiveLayer(in.getInt() - 1);
+                panel.addLayer();
+            }
+            case REMOVE_LAYER -> {
+                panel.setActiveLayer(in.getInt());
+                panel.removeActiveLayer();
+            }
+            case UNDO -> panel.undo();
+            case REDO -> panel.redo();
+            case ACTIVE_LAYER -> panel.setActiveLayer(in.getInt());
+            case REMOVE_SHAPE -> panel.removeTopShape(in.getInt());
+            case LAYER_SETTINGS -> {
+                int flags = in.get();
+                panel.setActiveLayerVisible((flags & 1) != 0);
+                panel.setActiveLayerLocked((flags & 2) != 0);
+                panel.setActiveLayerOpacity(in.getFloat());
+            }
+            default -> throw new IllegalArgumentException("Unknown record kind " + kind);
+        }
+    }
+}
@@ -0,0 +1,693 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One layer of the drawing: its shapes in drawing order with their spatial
+ * index and baked raster, the visibility, opacity and lock the user sets
+ * on it, and a transparent raster cache of its committed shapes in the
+ * part of the canvas the panel shows. Every layer caches its own raster,
+ * so an edit only re-rasterizes the layer it touches and the panel
+ * composes the cached rasters of the visible layers. Shapes and regions
+ * are in canvas coordinates; the raster starts at the view origin. With a
+ * render thread, a full rebuild of many shapes is drawn there from a
+ * snapshot of the layer into a new raster, while the old one is still
+ * shown, and swapped in when it is done.
+ *
+ * @author DKRORY
+ */
+final class Layer {
+
+    // The shapes of a layer as a unit, swapped out whole by Clear All and back by undo
+    record Contents(ArrayList<Shape> shapes, ShapeIndex index, BakedLayer baked) {
+        static Contents empty() {
+            return new Contents(new ArrayList<>(), new ShapeIndex(), null);
+        }
+    }
+
+    // Draws large redraws in tiles on the common fork/join pool
+    private static final TileRenderer RENDERER = TileRenderer.common();
+    // Full rebuilds replaying fewer shapes are quick enough to draw on the EDT
+    private static final int ASYNC_SHAPES = 256;
+    // Shapes read from a document baked per change once the layer is over its shape budget
+    private static final int BUDGET_BAKE_STEP = 16;
+
+    // Full rebuild drawn on the render thread for a raster of this size and scale at the layer's origin
+    private record Rebuild(int width, int height, double scale) {
+    }
+
+    private String name;
+    private boolean visible = true;
+    private float opacity = 1.0f;
+    private boolean locked = false;
+
+    private Contents contents = Contents.empty();
+    // Shapes that can no longer be undone, drawn into one raster and released from the list
+    private BakedLayer baked;
+    // Estimated heap of the shapes in the list, kept up to date as they come and go
+    private long shapeBytes = 0;
+    // List of shapes read from a document and how many of its bottom shapes came from there; they are only
+    // baked past the shape budget. Kept by list, so the count holds again when Clear All is undone
+    private ArrayList<Shape> loadedShapes;
+    private int loadedCount = 0;
+
+    // Checkpoints are shared by all layers and keyed by the history, which covers every layer
+    private final CheckpointStore checkpoints;
+    private final History history;
+    // Tiles of the baked rasters of all layers, kept within one memory budget
+    private final TileCache tiles;
+
+    private BufferedImage raster;
+    private double scale = 1.0;
+    // Canvas coordinates of the raster's top left corner
+    private int originX = 0;
+    private int originY = 0;
+    private AffineTransform toCanvas = new AffineTransform();
+    // Where the pixels of the raster go on the canvas; differs from toCanvas while an invalid raster is
+    // still shown after a scroll or resize, until it is rebuilt
+    private AffineTransform rasterToCanvas = new AffineTransform();
+    private boolean rasterValid = false;
+    // Number of shapes (from the start of the list) already rasterized into the raster
+    private int committedCount = 0;
+    // Part of the raster that must be redrawn before it is composed again (empty while width is negative)
+    private final java.awt.Rectangle staleRegion = new java.awt.Rectangle(0, 0, -1, -1);
+    // Set while an eraser stroke clears the raster directly, before its shape is committed
+    private boolean liveEdit = false;
+    // Unchanging copy of the contents, taken on demand and kept until they change
+    private SceneSnapshot.LayerSnapshot snapshot;
+
+    // Thread drawing full rebuilds, null to draw them on the caller's thread, and what to call on the EDT
+    // once a rebuilt raster has been swapped in
+    private RenderThread renderThread;
+    private Runnable onRebuilt;
+    // Rebuild in progress on the render thread; cleared when anything makes its result wrong
+    private Rebuild pending;
+
+    Layer(String name, CheckpointStore checkpoints, History history, TileCache tiles) {
+        this.name = name;
+        this.checkpoints = checkpoints;
+        this.history = history;
+        this.tiles = tiles;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    boolean isVisible() {
+        return visible;
+    }
+
+    void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    float getOpacity() {
+        return opacity;
+    }
+
+    void setOpacity(float opacity) {
+        this.opacity = Math.max(0.0f, Math.min(1.0f, opacity));
+        snapshot = null;
+    }
+
+    boolean isLocked() {
+        return locked;
+    }
+
+    void setLocked(boolean locked) {
+        this.locked = locked;
+    }
+
+    // Shapes still held as objects, bottom to top
+    List<Shape> shapes() {
+        return contents.shapes();
+    }
+
+    // Whether shapes may be drawn, erased or cleared on the layer; a hidden layer is not edited blind
+    boolean isEditable() {
+        return visible && !locked;
+    }
+
+    // Whether the layer shows nothing at all, so it needs no raster
+    boolean isEmpty() {
+        return contents.shapes().isEmpty() && baked == null;
+    }
+
+    boolean contains(Shape shape) {
+        return contents.shapes().contains(shape);
+    }
+
+    // Add a shape on top; it is drawn into the raster by the next commit
+    void add(Shape shape) {
+        contents.shapes().add(shape);
+        shapeBytes += shape.estimatedBytes();
+        snapshot = null;
+    }
+
+    // Take the top shape off again and mark the area it covered for redrawing
+    Shape removeLast() {
+        Shape removed = contents.shapes().removeLast();
+        shapeBytes -= removed.estimatedBytes();
+        snapshot = null;
+        committedCount = contents.shapes().size();
+        contents.index().removeLast();
+        // Only the area under the removed shape has to be redrawn from the shapes beneath it
+        invalidate(removed.getBounds());
+        return removed;
+    }
+
+    // Swap in empty contents, returning the ones taken out with the baked raster they sit on
+    Contents clear() {
+        Contents cleared = new Contents(contents.shapes(), contents.index(), baked);
+        setContents(Contents.empty());
+        return cleared;
+    }
+
+    // Put back contents taken out by clear(), or the empty ones that replaced them
+    void setContents(Contents restored) {
+        contents = restored;
+        baked = restored.baked();
+        shapeBytes = 0;
+        for (Shape shape : restored.shapes()) {
+            shapeBytes += shape.estimatedBytes();
+        }
+        committedCount = restored.shapes().size();
+        snapshot = null;
+        invalidate();
+    }
+
+    // Take over shapes and a baked raster read from a document. No command can take the shapes back, but they
+    // stay shapes within the shape budget, so saving the document again keeps them as vectors
+    void load(List<Shape> shapes, BakedLayer baked) {
+        ShapeIndex index = new ShapeIndex();
+        for (Shape shape : shapes) {
+            index.add(shape);
+        }
+        loadedShapes = new ArrayList<>(shapes);
+        loadedCount = shapes.size();
+        setContents(new Contents(loadedShapes, index, baked));
+    }
+
+    // Current contents, so Clear All can bring back this very list on redo
+    Contents contents() {
+        return new Contents(contents.shapes(), contents.index(), baked);
+    }
+
+    // Mark the raster for a full rebuild before it is composed again
+    void invalidate() {
+        rasterValid = false;
+        pending = null;
+    }
+
+    // Mark part of the raster for redrawing before it is composed again
+    void invalidate(java.awt.Rectangle region) {
+        staleRegion.add(region);
+    }
+
+    // Unchanging copy of the shapes, baked raster and opacity, shared by every snapshot until they change
+    SceneSnapshot.LayerSnapshot snapshot() {
+        if (snapshot == null) {
+            snapshot = new SceneSnapshot.LayerSnapshot(contents.shapes(), baked == null ? null : baked.snapshot(),
+                    opacity);
+        }
+        return snapshot;
+    }
+
+    // Draw full rebuilds of many shapes on a render thread, or on the caller's thread if it is null; onRebuilt
+    // runs on the EDT after a raster drawn there has been swapped in
+    void setRenderThread(RenderThread renderThread, Runnable onRebuilt) {
+        this.renderThread = renderThread;
+        this.onRebuilt = onRebuilt;
+        pending = null;
+    }
+
+    // Area the layer has drawn into, shapes and baked tiles, in canvas coordinates
+    java.awt.Rectangle contentBounds() {
+        java.awt.Rectangle bounds = baked == null ? new java.awt.Rectangle(0, 0, -1, -1) : baked.bounds();
+        for (Shape shape : contents.shapes()) {
+            bounds.add(shape.getBounds());
+        }
+        return bounds;
+    }
+
+    // Union of the bounds of the shapes that are not in the raster yet
+    java.awt.Rectangle uncommittedBounds() {
+        // A negative size marks the rectangle as empty, so add() does not pull in the origin
+        java.awt.Rectangle bounds = new java.awt.Rectangle(0, 0, -1, -1);
+        for (int i = committedCount; i < contents.shapes().size(); i++) {
+            bounds.add(contents.shapes().get(i).getBounds());
+        }
+        return bounds;
+    }
+
+    // Rasterize the shapes added since the last commit, returning the area of the raster they changed
+    java.awt.Rectangle commit() {
+        java.awt.Rectangle dirty = new java.awt.Rectangle(0, 0, -1, -1);
+        if (raster == null) {
+            // The first shape on an empty layer needs a raster, which the next update allocates and draws
+            rasterValid = false;
+        }
+        ArrayList<Shape> shapes = contents.shapes();
+        List<Shape> added = shapes.subList(committedCount, shapes.size());
+        for (Shape shape : added) {
+            contents.index().add(shape);
+            if (rasterValid) {
+                dirty.add(shape.getBounds());
+            } else if (pending != null) {
+                // The rebuild under way may have started without it
+                staleRegion.add(shape.getBounds());
+            }
+        }
+        if (rasterValid && !added.isEmpty()) {
+            drawOver(added);
+        }
+        committedCount = shapes.size();
+        // With a region still waiting to be redrawn, the raster does not show this state yet
+        if (rasterValid && staleRegion.isEmpty()) {
+            takeCheckpointIfDue();
+        }
+        return dirty;
+    }
+
+    // Graphics drawing straight into the raster for an eraser stroke in progress, or null if the raster
+    // is not drawn yet; no checkpoint is taken of it until the stroke is committed
+    Graphics2D createLiveGraphics() {
+        if (!rasterValid || raster == null) {
+            return null;
+        }
+        liveEdit = true;
+        return createGraphics();
+    }
+
+    // Finish a stroke drawn through createLiveGraphics. Its shape may be simplified from the dragged points, so
+    // the area they touched is drawn again from the shapes to match what a later redraw would show
+    void endLiveEdit(java.awt.Rectangle touched) {
+        if (liveEdit) {
+            liveEdit = false;
+            invalidate(touched);
+        }
+    }
+
+    // Copy the raster if enough shapes were drawn since the last usable checkpoint
+    private void takeCheckpointIfDue() {
+        if (liveEdit) {
+            return;
+        }
+        // Counted from the first shape ever added, so the count still means the same after a bake
+        int shapeCount = contents.index().removedCount() + committedCount;
+        if (checkpoints.isDue(this, history.epoch(), history.position(), shapeCount)) {
+            checkpoints.add(this, history.epoch(), history.position(), shapeCount, new Point(originX, originY), raster);
+        }
+    }
+
+    // Move the raster to start at another point of the canvas. The pixels still in view are moved along and
+    // only the strips scrolled into view are drawn again by the next update
+    void scrollTo(int x, int y) {
+        int dx = originX - x;
+        int dy = originY - y;
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+        originX = x;
+        originY = y;
+        toCanvas = canvasTransform();
+        // A rebuild of the old view is of no use any more
+        pending = null;
+        if (raster == null || !rasterValid) {
+            return;
+        }
+        java.awt.Rectangle exposed = scrollImage(raster, scale, dx, dy, x, y);
+        if (exposed == null) {
+            // The old pixels stay where they were on the canvas until the raster is rebuilt
+            rasterValid = false;
+        } else {
+            rasterToCanvas = toCanvas;
+            staleRegion.add(exposed);
+        }
+    }
+
+    // Move the pixels of an image of the view, in device pixels at scale, along with a scroll by dx, dy to the
+    // view origin x, y; returns the area of the canvas scrolled into view that has to be drawn, or null if no
+    // pixel could be kept
+    static java.awt.Rectangle scrollImage(BufferedImage image, double scale, int dx, int dy, int x, int y) {
+        int width = (int) Math.ceil(image.getWidth() / scale);
+        int height = (int) Math.ceil(image.getHeight() / scale);
+        double deviceDx = dx * scale;
+        double deviceDy = dy * scale;
+        // A move by a fraction of a device pixel or past the whole image leaves nothing to keep
+        if (deviceDx != Math.rint(deviceDx) || deviceDy != Math.rint(deviceDy)
+                || Math.abs(dx) >= width || Math.abs(dy) >= height) {
+            return null;
+        }
+        Graphics2D g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.copyArea(0, 0, image.getWidth(), image.getHeight(), (int) deviceDx, (int) deviceDy);
+        g2d.dispose();
+        java.awt.Rectangle exposed = new java.awt.Rectangle(0, 0, -1, -1);
+        if (dx > 0) {
+            exposed.add(new java.awt.Rectangle(x, y, dx, height));
+        } else if (dx < 0) {
+            exposed.add(new java.awt.Rectangle(x + width + dx, y, -dx, height));
+        }
+        if (dy > 0) {
+            exposed.add(new java.awt.Rectangle(x, y, width, dy));
+        } else if (dy < 0) {
+            exposed.add(new java.awt.Rectangle(x, y + height + dy, width, -dy));
+        }
+        return exposed;
+    }
+
+    // Transform drawing the raster at its origin in canvas coordinates
+    private AffineTransform canvasTransform() {
+        AffineTransform transform = AffineTransform.getTranslateInstance(originX, originY);
+        transform.scale(1 / scale, 1 / scale);
+        return transform;
+    }
+
+    // Make sure the raster has the given device size and scale and holds every committed shape,
+    // returning the area of it that was redrawn in canvas coordinates
+    java.awt.Rectangle update(int width, int height, double scale, GraphicsConfiguration gc) {
+        java.awt.Rectangle full = new java.awt.Rectangle(originX, originY,
+                (int) Math.ceil(width / scale), (int) Math.ceil(height / scale));
+        boolean fits = raster != null && raster.getWidth() == width && raster.getHeight() == height
+                && this.scale == scale;
+        if (!fits) {
+            rasterValid = false;
+        }
+        if (!fits && isEmpty()) {
+            // Nothing to draw, so no memory is spent on a raster until the layer gets a shape
+            raster = null;
+            pending = null;
+            java.awt.Rectangle redrawn = rasterValid ? new java.awt.Rectangle(staleRegion) : full;
+            rasterValid = true;
+            staleRegion.setBounds(0, 0, -1, -1);
+            return redrawn;
+        }
+        // The old raster, if any, is shown until the render thread has drawn the new one
+        if (!rasterValid && rebuildLater(width, height, scale, gc)) {
+            return new java.awt.Rectangle(0, 0, -1, -1);
+        }
+        if (!fits) {
+            raster = createRaster(width, height, gc);
+            this.scale = scale;
+            this.toCanvas = canvasTransform();
+        }
+        java.awt.Rectangle redrawn;
+        if (!rasterValid) {
+            redrawn = full;
+            rasterValid = true;
+            rasterToCanvas = toCanvas;
+            pending = null;
+        } else if (!staleRegion.isEmpty()) {
+            redrawn = new java.awt.Rectangle(staleRegion);
+        } else {
+            return staleRegion.getBounds();
+        }
+        staleRegion.setBounds(0, 0, -1, -1);
+        render(redrawn);
+        takeCheckpointIfDue();
+        return redrawn;
+    }
+
+    // Redraw one region of the raster from the nearest checkpoint, or from transparent pixels and the baked
+    // shapes, and the shapes after it that intersect the region. The tiles the region reaches into are drawn
+    // whole, so its pixels are the ones a full redraw gives, and a large region, as after a resize or an undo
+    // past the checkpoints, is drawn on all cores.
+    private void render(java.awt.Rectangle region) {
+        CheckpointStore.Checkpoint checkpoint = startingCheckpoint(raster.getWidth(), raster.getHeight());
+        BufferedImage start = checkpoint == null ? null : checkpoint.raster();
+        ShapeIndex index = contents.index();
+        int first = checkpoint == null ? index.removedCount() : checkpoint.shapeCount();
+        AffineTransform toGrid = gridTransform(originX, originY, scale);
+        Point origin = gridOrigin(originX, originY, scale);
+        java.awt.Rectangle area = TileRenderer.toGrid(region, toGrid)
+                .intersection(new java.awt.Rectangle(origin, new Dimension(raster.getWidth(), raster.getHeight())));
+        List<java.awt.Rectangle> tiles = RENDERER.tiles(area);
+        // The index and the graphics are set up on this thread, so the workers only draw
+        AffineTransform gridToCanvas = fromGrid(origin, originX, originY, scale);
+        ArrayList<List<Shape>> shapes = new ArrayList<>(tiles.size());
+        Graphics2D[] graphics = new Graphics2D[tiles.size()];
+        for (int i = 0; i < tiles.size(); i++) {
+            ArrayList<Shape> tileShapes = new ArrayList<>();
+            index.query(TileRenderer.toGrid(tiles.get(i), gridToCanvas), first, tileShapes);
+            shapes.add(tileShapes);
+            graphics[i] = TileRenderer.partGraphics(raster, origin.x, origin.y, tiles.get(i));
+        }
+        BakedLayer bakedShapes = baked;
+        try {
+            RENDERER.run(area, tiles.size(), i -> renderTile(graphics[i], tiles.get(i), raster, origin, toGrid,
+                    start, bakedShapes, shapes.get(i)));
+        } finally {
+            for (Graphics2D g2d : graphics) {
+                g2d.dispose();
+            }
+        }
+    }
+
+    // Draw shapes over the raster, in the tiles they reach into
+    private void drawOver(List<Shape> shapes) {
+        AffineTransform toGrid = gridTransform(originX, originY, scale);
+        Point origin = gridOrigin(originX, originY, scale);
+        java.awt.Rectangle area = new java.awt.Rectangle(0, 0, -1, -1);
+        for (Shape shape : shapes) {
+            area.add(TileRenderer.toGrid(shape.getBounds(), toGrid));
+        }
+        area = area.intersection(new java.awt.Rectangle(origin, new Dimension(raster.getWidth(), raster.getHeight())));
+        List<java.awt.Rectangle> tiles = RENDERER.tiles(area);
+        List<List<Shape>> bins = RENDERER.bin(area, tiles, shapes, toGrid);
+        for (int i = 0; i < tiles.size(); i++) {
+            if (bins.get(i).isEmpty()) {
+                continue;
+            }
+            java.awt.Rectangle tile = tiles.get(i);
+            java.awt.Rectangle whole = TileRenderer.wholeTile(tile);
+            BufferedImage tileImage = TileRenderer.tileImage(raster);
+            TileRenderer.copyIn(raster, origin.x, origin.y, tile, tileImage);
+            Graphics2D g2d = TileRenderer.tileGraphics(tileImage, whole, toGrid);
+            for (Shape shape : bins.get(i)) {
+                shape.draw(g2d);
+            }
+            g2d.dispose();
+            g2d = TileRenderer.partGraphics(raster, origin.x, origin.y, tile);
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.drawImage(tileImage, whole.x, whole.y, null);
+            g2d.dispose();
+        }
+    }
+
+    // Latest checkpoint of the current view a raster of the given size can be rebuilt from, or null to start from
+    // the baked shapes
+    private CheckpointStore.Checkpoint startingCheckpoint(int width, int height) {
+        CheckpointStore.Checkpoint checkpoint = checkpoints.best(this, history.epoch(), history.position(),
+                new Point(originX, originY));
+        int bakedCount = contents.index().removedCount();
+        // A checkpoint from before the latest bake is missing shapes that can no longer be drawn one by one, and
+        // one of a smaller view is missing the pixels past its edges
+        if (checkpoint != null && (checkpoint.shapeCount() < bakedCount
+                || checkpoint.shapeCount() > bakedCount + committedCount
+                || checkpoint.raster().getWidth() != width || checkpoint.raster().getHeight() != height)) {
+            return null;
+        }
+        return checkpoint;
+    }
+
+    // Hand a full rebuild to the render thread if there is one and it has many shapes to draw, returning whether
+    // the raster is left to it. Its job draws from a snapshot, in the same tiles as render(), so the pixels are
+    // the same as drawing here; shapes committed meanwhile are marked stale and drawn after the swap.
+    private boolean rebuildLater(int width, int height, double scale, GraphicsConfiguration gc) {
+        if (renderThread == null) {
+            return false;
+        }
+        Rebuild job = new Rebuild(width, height, scale);
+        if (job.equals(pending)) {
+            return true;
+        }
+        CheckpointStore.Checkpoint checkpoint = startingCheckpoint(width, height);
+        int bakedCount = contents.index().removedCount();
+        int from = checkpoint == null ? 0 : checkpoint.shapeCount() - bakedCount;
+        if (committedCount - from < ASYNC_SHAPES) {
+            return false;
+        }
+        SceneSnapshot.LayerSnapshot layer = snapshot();
+        List<Shape> shapes = layer.shapes().subList(from, committedCount);
+        BufferedImage start = checkpoint == null ? null : checkpoint.raster();
+        int x = originX;
+        int y = originY;
+        pending = job;
+        staleRegion.setBounds(0, 0, -1, -1);
+        renderThread.submit(this, () -> rebuild(job, x, y, gc, start, layer.baked(), shapes),
+                image -> swapIn(job, image));
+        return true;
+    }
+
+    // Draw a whole raster at an origin on the render thread
+    private static BufferedImage rebuild(Rebuild job, int x, int y, GraphicsConfiguration gc, BufferedImage start,
+                                         BakedLayer baked, List<Shape> shapes) {
+        BufferedImage image = createRaster(job.width(), job.height(), gc);
+        AffineTransform toGrid = gridTransform(x, y, job.scale());
+        Point origin = gridOrigin(x, y, job.scale());
+        java.awt.Rectangle full = new java.awt.Rectangle(origin, new Dimension(job.width(), job.height()));
+        List<java.awt.Rectangle> tiles = RENDERER.tiles(full);
+        List<List<Shape>> bins = RENDERER.bin(full, tiles, shapes, toGrid);
+        Graphics2D[] graphics = new Graphics2D[tiles.size()];
+        for (int i = 0; i < tiles.size(); i++) {
+            graphics[i] = TileRenderer.partGraphics(image, origin.x, origin.y, tiles.get(i));
+        }
+        try {
+            RENDERER.run(full, tiles.size(), i -> renderTile(graphics[i], tiles.get(i), image, origin, toGrid, start,
+                    baked, bins.get(i)));
+        } finally {
+            for (Graphics2D g2d : graphics) {
+                g2d.dispose();
+            }
+        }
+        return image;
+    }
+
+    // Swap in a raster drawn on the render thread, unless the layer changed in a way it does not cover
+    private void swapIn(Rebuild job, BufferedImage image) {
+        if (pending != job) {
+            return;
+        }
+        pending = null;
+        raster = image;
+        scale = job.scale();
+        toCanvas = canvasTransform();
+        rasterToCanvas = toCanvas;
+        rasterValid = true;
+        onRebuilt.run();
+    }
+
+    // Transparent raster, so erased pixels let the layers and background underneath show through
+    private static BufferedImage createRaster(int width, int height, GraphicsConfiguration gc) {
+        return gc != null
+                ? gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    // Redraw the part of one tile of a raster whose top left pixel lies at grid point origin, through graphics
+    // drawing into that part in grid coordinates: the tile is drawn whole in the tile image of the thread, from
+    // the pixels of a checkpoint of the raster, or from scratch and the baked shapes if it is null, and the shapes
+    private static void renderTile(Graphics2D g2d, java.awt.Rectangle tile, BufferedImage raster, Point origin,
+                                   AffineTransform toGrid, BufferedImage checkpoint, BakedLayer baked,
+                                   List<Shape> shapes) {
+        java.awt.Rectangle whole = TileRenderer.wholeTile(tile);
+        BufferedImage tileImage = TileRenderer.tileImage(raster);
+        if (checkpoint != null) {
+            TileRenderer.copyIn(checkpoint, origin.x, origin.y, tile, tileImage);
+        } else {
+            TileRenderer.clear(tileImage);
+        }
+        Graphics2D tileGraphics = TileRenderer.tileGraphics(tileImage, whole, toGrid);
+        if (checkpoint == null && baked != null) {
+            baked.draw(tileGraphics);
+        }
+        for (Shape shape : shapes) {
+            shape.draw(tileGraphics);
+        }
+        tileGraphics.dispose();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(tileImage, whole.x, whole.y, null);
+    }
+
+    // Transform from canvas coordinates onto the grid of tiles of a raster at an origin and scale, whose top left
+    // pixel lies at gridOrigin(); it only scales unless the origin falls between device pixels
+    private static AffineTransform gridTransform(int x, int y, double scale) {
+        AffineTransform transform = AffineTransform.getTranslateInstance(Math.floor(x * scale),
+                Math.floor(y * scale));
+        transform.scale(scale, scale);
+        transform.translate(-x, -y);
+        return transform;
+    }
+
+    // Grid point of the top left pixel of a raster at an origin and scale
+    private static Point gridOrigin(int x, int y, double scale) {
+        return new Point((int) Math.floor(x * scale), (int) Math.floor(y * scale));
+    }
+
+    // Transform from the grid of tiles of a raster at an origin and scale back to canvas coordinates
+    private static AffineTransform fromGrid(Point gridOrigin, int x, int y, double scale) {
+        AffineTransform transform = AffineTransform.getTranslateInstance(x, y);
+        transform.scale(1 / scale, 1 / scale);
+        transform.translate(-gridOrigin.x, -gridOrigin.y);
+        return transform;
+    }
+
+    // Graphics for the raster, scaled and moved so shapes are drawn in canvas coordinates
+    private Graphics2D createGraphics() {
+        Graphics2D g2d = raster.createGraphics();
+        g2d.scale(scale, scale);
+        g2d.translate(-originX, -originY);
+        return g2d;
+    }
+
+    // Compose the cached raster onto graphics in canvas coordinates with the layer's opacity
+    void draw(Graphics2D g2d) {
+        if (!visible || raster == null || opacity == 0.0f) {
+            return;
+        }
+        if (opacity == 1.0f) {
+            g2d.drawImage(raster, rasterToCanvas, null);
+            return;
+        }
+        Composite composite = g2d.getComposite();
+        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+        g2d.drawImage(raster, rasterToCanvas, null);
+        g2d.setComposite(composite);
+    }
+
+    // Move the bottom shapes that no command can take back any more into the baked raster; while shapes read
+    // from a document are at the bottom, only as many as the layer holds past shapeBudget
+    void bakeExpired(int undoableShapes, int shapeBudget, double scale, int canvasWidth, int canvasHeight) {
+        ArrayList<Shape> shapes = contents.shapes();
+        int expired = Math.min(shapes.size() - undoableShapes, committedCount);
+        int loaded = shapes == loadedShapes ? loadedCount : 0;
+        if (loaded > 0) {
+            // Shapes read from a document, and those drawn over them, are baked only past the budget, a few per
+            // change so neither an open nor a later edit waits for a large bake
+            expired = Math.min(expired, Math.min(shapes.size() - shapeBudget, BUDGET_BAKE_STEP));
+        }
+        int count = 0;
+        // An image still loading would be baked from its preview, so it and the shapes above it wait for the decode
+        while (count < expired && !(shapes.get(count) instanceof ImageShape image && image.isLoading())) {
+            count++;
+        }
+        if (count > 0) {
+            if (baked == null) {
+                baked = new BakedLayer(tiles, scale, canvasWidth, canvasHeight);
+            }
+            // Baked, taken off the list and out of the index together
+            List<Shape> expiredShapes = shapes.subList(0, count);
+            baked.bake(expiredShapes);
+            for (Shape shape : expiredShapes) {
+                shapeBytes -= shape.estimatedBytes();
+            }
+            expiredShapes.clear();
+            contents.index().removeFirst(count);
+            committedCount -= count;
+            if (loaded > 0) {
+                loadedCount -= Math.min(count, loaded);
+            }
+            snapshot = null;
+        }
+    }
+
+    // Rough heap held by the layer's shapes and baked raster, not counting the raster cache
+    long estimatedBytes() {
+        return shapeBytes + (baked == null ? 0 : baked.bytes());
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,136 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Decodes an image file on a background thread. A subsampled preview is
+ * decoded first and shown right away; the full-resolution decode then
+ * replaces it in the same shape, converted to the panel's render format.
+ * Images above TILE_THRESHOLD pixels are decoded one band of tiles at a
+ * time, so the whole picture is never held as a single raster.
+ *
+ * @author DKRORY
+ */
+class OpenWorker extends SwingWorker<ImagePyramid, BufferedImage> {
+
+    private static final Logger LOGGER = Logger.getLogger(OpenWorker.class.getName());
+
+    // Longest side of the preview, in pixels
+    static final int PREVIEW_SIZE = 1024;
+    // Images with more pixels than this are stored as tiles
+    static final long TILE_THRESHOLD = 4096L * 4096L;
+
+    private final DrawingPanel panel;
+    private final File file;
+    // Configuration of the panel's screen, captured on the EDT; null when headless
+    private final GraphicsConfiguration gc;
+    private final long startNanos = System.nanoTime();
+    private volatile int width;
+    private volatile int height;
+    // Shape showing the preview, only touched on the EDT
+    private ImageShape shape;
+
+    OpenWorker(DrawingPanel panel, File file) {
+        this.panel = panel;
+        this.file = file;
+        this.gc = panel.getGraphicsConfiguration();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    // Milliseconds since the load was started
+    long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    protected ImagePyramid doInBackground() throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                throw new IOException("Cannot read " + file.getName());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                // The stream is read more than once (preview, then the full image), so it must stay seekable
+                reader.setInput(in, false, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+
+                int subsampling = Math.ceilDiv(Math.max(width, height), PREVIEW_SIZE);
+                if (subsampling > 1) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    publish(reader.read(0, param));
+                    LOGGER.fine("Preview of " + file.getName() + " ready after " + elapsedMillis() + " ms");
+                }
+                if (isCancelled()) {
+                    return null;
+                }
+                if ((long) width * height > TILE_THRESHOLD) {
+                    TiledRaster tiles = readTiles(reader);
+                    return tiles == null ? null : new ImagePyramid(tiles, gc);
+                }
+                return ImagePyramid.of(reader.read(0), gc);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Decode the image one band of tile rows at a time and cut each band into render-format tiles
+    private TiledRaster readTiles(ImageReader reader) throws IOException {
+        int tileSize = TiledRaster.TILE_SIZE;
+        TiledRaster raster = new TiledRaster(width, height, tileSize);
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int row = 0; row * tileSize < height; row++) {
+            if (isCancelled()) {
+                return null;
+            }
+            int bandY = row * tileSize;
+            param.setSourceRegion(new java.awt.Rectangle(0, bandY, width, Math.min(tileSize, height - bandY)));
+            BufferedImage band = reader.read(0, param);
+            for (int column = 0; column * tileSize < width; column++) {
+                int tileX = column * tileSize;
+                int tileWidth = Math.min(tileSize, width - tileX);
+                raster.setTile(column, row, ImagePyramid.convert(band, tileX, 0, tileWidth, band.getHeight(), gc));
+            }
+            setProgress(Math.min(100, (bandY + tileSize) * 100 / height));
+        }
+        return raster;
+    }
+
+    // Show the preview on the EDT while the full image is still decoding
+    @Override
+    protected void process(List<BufferedImage> previews) {
+        if (shape == null) {
+            shape = panel.addImage(new ImageShape(previews.getLast(), width, height, new Point(0, 0)));
+        }
+    }
+
+    // Put the full-resolution image on the panel, replacing the preview if one is shown; called on the EDT
+    void showImage(ImagePyramid pyramid) {
+        if (shape == null) {
+            panel.addImage(new ImageShape(pyramid, new Point(0, 0)));
+        } else {
+            panel.imageDecoded(shape, pyramid);
+        }
+    }
+}
@@ -2,6 +2,14 @@ package org.example;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 /**
  *
  * @author DKRORY
@@ -9,6 +17,9 @@ import java.awt.*;
 
 public class PaintBrushFrame extends JFrame {
     protected static DrawingPanel drawingPanel;
+    // Scroll the drawing panel's view over the canvas
+    private final JScrollBar horizontalBar = new JScrollBar(JScrollBar.HORIZONTAL);
+    private final JScrollBar verticalBar = new JScrollBar(JScrollBar.VERTICAL);
 
     PaintBrushFrame() {
         // Set the title and size of the main window
@@ -26,9 +37,77 @@ public class PaintBrushFrame extends JFrame {
         drawingPanel = new DrawingPanel();
         drawingPanel.setSize(1300, 700);
         drawingPanel.setBackground(Color.white);
-        this.add(drawingPanel, BorderLayout.CENTER);
+        // Heavy redraws, e.g. undoing a Clear All of thousands of shapes, are drawn off the EDT
+        drawingPanel.setRenderThread(new RenderThread(SwingUtilities::invokeLater));
+        controlPanel.trackDrawing(drawingPanel);
+        // Every change is journaled as it is made, and the drawing of the last session comes back from the journal
+        try {
+            Journal journal = Journal.open(Journal.defaultDirectory(), drawingPanel);
+            drawingPanel.setJournal(journal);
+            // Closing the window exits right after its listeners, so the last records and a snapshot still
+            // being written go to disk here; the writer thread would otherwise die with the app
+            this.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    drawingPanel.setJournal(null);
+                    try {
+                        journal.close();
+                    } catch (IOException | InterruptedException ex) {
+                        Logger.getLogger(PaintBrushFrame.class.getName()).log(Level.WARNING, "Autosave not closed", ex);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Logger.getLogger(PaintBrushFrame.class.getName()).log(Level.WARNING, "Autosave is off", e);
+        }
+        // -Dpaintbrush.trace=<file> records the input of the session, to be replayed with TraceReplay
+        String trace = System.getProperty("paintbrush.trace");
+        if (trace != null) {
+            try {
+                InputTrace.Recorder recorder = new InputTrace.Recorder(Path.of(trace), drawingPanel);
+                drawingPanel.setTraceRecorder(recorder);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        recorder.close();
+                    } catch (IOException e) {
+                        Logger.getLogger(PaintBrushFrame.class.getName()).log(Level.WARNING, "Input trace lost", e);
+                    }
+                }));
+            } catch (IOException e) {
+                Logger.getLogger(PaintBrushFrame.class.getName()).log(Level.WARNING, "Input trace is off", e);
+            }
+        }
+        // The canvas is larger than the window, so scroll bars move the view over it
+        JPanel canvasPanel = new JPanel(new BorderLayout());
+        canvasPanel.add(drawingPanel, BorderLayout.CENTER);
+        canvasPanel.add(verticalBar, BorderLayout.LINE_END);
+        canvasPanel.add(horizontalBar, BorderLayout.PAGE_END);
+        horizontalBar.addAdjustmentListener(
+                e -> drawingPanel.setViewOrigin(e.getValue(), drawingPanel.getViewOrigin().y));
+        verticalBar.addAdjustmentListener(
+                e -> drawingPanel.setViewOrigin(drawingPanel.getViewOrigin().x, e.getValue()));
+        drawingPanel.addPropertyChangeListener("viewOrigin", event -> updateScrollBars());
+        drawingPanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                updateScrollBars();
+            }
+        });
+        this.add(canvasPanel, BorderLayout.CENTER);
         this.setVisible(true);
 
 
     }
+
+    // Show the part of the canvas in view on the scroll bars; setting a bar to where the view already is
+    // does not move the view, so this does not feed back
+    private void updateScrollBars() {
+        Point origin = drawingPanel.getViewOrigin();
+        horizontalBar.setValues(origin.x, drawingPanel.getWidth(), 0, drawingPanel.getCanvasWidth());
+        verticalBar.setValues(origin.y, drawingPanel.getHeight(), 0, drawingPanel.getCanvasHeight());
+        horizontalBar.setBlockIncrement(Math.max(1, drawingPanel.getWidth() - 64));
+        verticalBar.setBlockIncrement(Math.max(1, drawingPanel.getHeight() - 64));
+        horizontalBar.setUnitIncrement(64);
+        verticalBar.setUnitIncrement(64);
+    }
 }
@@ -0,0 +1,524 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP service rendering the documents under a root directory to PNG on
+ * demand, for other tools to fetch drawings and thumbnails from. It runs
+ * on the JDK's built-in HTTP server with a virtual thread per request:
+ * <pre>
+ * GET /render/{path}?scale=0.25&amp;region=x,y,w,h   PNG of a document, all of it by default
+ * GET /metrics                                    request latency and cache counters, as text
+ * </pre>
+ * Encoded results are kept in an LRU cache bounded by size, keyed by a
+ * hash of the document's contents, the scale and the region, so a changed
+ * file is rendered again and identical copies share their entries. Requests
+ * for a result being rendered wait for it instead of rendering it again,
+ * and no more documents are rendered at once than there are cores.
+ * <p>
+ * Requests are not authenticated, so the server listens on the loopback
+ * interface unless another address is given with --bind.
+ * <pre>
+ * java -cp PaintBrushApp.jar org.example.RenderServer [--bind 127.0.0.1] [--port 8080] [--cache-mb 64] root
+ * </pre>
+ *
+ * @author DKRORY
+ */
+public class RenderServer {
+
+    private static final Logger LOGGER = Logger.getLogger(RenderServer.class.getName());
+
+    // Largest image a request may ask for, in pixels
+    static final long MAX_PIXELS = 64L << 20;
+    static final double MAX_SCALE = 8.0;
+    // Latencies kept for the percentiles of /metrics, the most recent ones
+    private static final int LATENCY_SAMPLES = 8192;
+    // Document hashes kept, for the most recently requested documents
+    private static final int HASHED_DOCUMENTS = 4096;
+    // Times a request hashes a document again that changed while it was being rendered
+    private static final int RENDER_ATTEMPTS = 3;
+
+    // What a rendered result is cached under; region is null for the whole drawing
+    private record Key(String documentHash, double scale, java.awt.Rectangle region) {
+    }
+
+    // Hash of a document's contents, valid while the file keeps its size and modification time
+    private record Stamp(long size, long modified, String hash) {
+    }
+
+    // A document no longer has the contents of the hash its render was asked for
+    private static final class DocumentChanged extends IOException {
+        DocumentChanged(Path document) {
+            super(document.getFileName() + " changed while it was being rendered");
+        }
+    }
+
+    private final Path root;
+    private final HttpServer server;
+    private final RenderCache cache;
+    private final Semaphore renders = new Semaphore(Runtime.getRuntime().availableProcessors());
+    // Least recently used first; guarded by itself
+    private final LinkedHashMap<Path, Stamp> hashes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Stamp> eldest) {
+            return size() > HASHED_DOCUMENTS;
+        }
+    };
+    private final Metrics metrics = new Metrics();
+
+    // Server for the documents under root on a loopback port, 0 for any free one; it answers once started
+    RenderServer(Path root, int port, long cacheBytes) throws IOException {
+        this(root, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), cacheBytes);
+    }
+
+    // Server for the documents under root on an address and port
+    RenderServer(Path root, InetSocketAddress address, long cacheBytes) throws IOException {
+        this.root = root.toRealPath();
+        this.cache = new RenderCache(cacheBytes);
+        server = HttpServer.create(address, 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/render/", this::render);
+        server.createContext("/metrics", this::metrics);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        // Headers and body go out in separate writes; with Nagle's algorithm the body would wait for the
+        // client's delayed ACK of the headers, some 40 ms a request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        InetAddress bind = InetAddress.getLoopbackAddress();
+        int port = 8080;
+        long cacheMegabytes = 64;
+        Path root = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--bind" -> bind = InetAddress.getByName(args[++i]);
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--cache-mb" -> cacheMegabytes = Long.parseLong(args[++i]);
+                default -> root = Path.of(args[i]);
+            }
+        }
+        if (root == null || !Files.isDirectory(root)) {
+            System.err.println("Usage: RenderServer [--bind 127.0.0.1] [--port 8080] [--cache-mb 64] root");
+            System.exit(2);
+        }
+        RenderServer server = new RenderServer(root, new InetSocketAddress(bind, port), cacheMegabytes << 20);
+        server.start();
+        LOGGER.info("Serving the documents in " + server.root + " on " + bind.getHostAddress() + " port "
+                + server.getPort());
+    }
+
+    void start() {
+        server.start();
+    }
+
+    // Stop answering, letting requests in progress finish for up to a second
+    void stop() {
+        server.stop(1);
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // GET /render/{path}: the document rendered as PNG, from the cache when it has it. Every request gets an
+    // answer and is counted, whatever fails
+    private void render(HttpExchange exchange) {
+        long start = System.nanoTime();
+        int status = 500;
+        try (exchange) {
+            byte[] body;
+            try {
+                Path document = document(exchange.getRequestURI());
+                Map<String, String> query = query(exchange.getRequestURI());
+                double scale = Double.parseDouble(query.getOrDefault("scale", "1"));
+                java.awt.Rectangle region = region(query.get("region"));
+                if (!(scale > 0 && scale <= MAX_SCALE)) {
+                    throw new IllegalArgumentException("scale must be above 0 and at most " + MAX_SCALE);
+                }
+                RenderCache.Result result = null;
+                for (int attempt = 1; result == null; attempt++) {
+                    Key key = new Key(hash(document), scale, region);
+                    try {
+                        result = cache.get(key, () -> renderPng(document, key.documentHash(), scale, region));
+                    } catch (DocumentChanged e) {
+                        synchronized (hashes) {
+                            hashes.remove(document);
+                        }
+                        if (attempt == RENDER_ATTEMPTS) {
+                            throw e;
+                        }
+                    }
+                }
+                exchange.getResponseHeaders().set("Content-Type", "image/png");
+                exchange.getResponseHeaders().set("X-Cache", result.hit() ? "hit" : "miss");
+                status = 200;
+                body = result.png();
+            } catch (NoSuchFileException e) {
+                status = 404;
+                body = ("No document " + e.getFile() + "\n").getBytes(StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Rendering " + exchange.getRequestURI() + " failed", e);
+                status = 500;
+                body = ("Rendering failed: " + e + "\n").getBytes(StandardCharsets.UTF_8);
+            }
+            send(exchange, status, body);
+        } catch (IOException e) {
+            // The client is gone before it had the whole response
+            LOGGER.log(Level.FINE, "Answering " + exchange.getRequestURI() + " failed", e);
+        } finally {
+            metrics.requestDone(status, System.nanoTime() - start);
+        }
+    }
+
+    // GET /metrics: counters and latency percentiles of the requests so far, one "name value" per line
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            StringBuilder text = new StringBuilder();
+            metrics.appendTo(text);
+            cache.appendTo(text);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            send(exchange, 200, text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // The document a request path names under the root, as its real path, which must not leave the root either
+    // by .. or by a symbolic link
+    private Path document(URI uri) throws IOException {
+        String name = uri.getPath().substring("/render/".length());
+        Path document = root.resolve(name).normalize();
+        if (!document.startsWith(root) || !DocumentFile.isDocument(document)) {
+            throw new NoSuchFileException(name);
+        }
+        try {
+            document = document.toRealPath();
+        } catch (NoSuchFileException e) {
+            throw new NoSuchFileException(name);
+        }
+        if (!document.startsWith(root) || !DocumentFile.isDocument(document) || !Files.isRegularFile(document)) {
+            throw new NoSuchFileException(name);
+        }
+        return document;
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new LinkedHashMap<>();
+        if (uri.getRawQuery() != null) {
+            for (String parameter : uri.getRawQuery().split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    // Canvas region "x,y,w,h" of a request, null for the whole drawing
+    private static java.awt.Rectangle region(String value) {
+        if (value == null) {
+            return null;
+        }
+        int[] parts = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+        if (parts.length != 4 || parts[2] <= 0 || parts[3] <= 0) {
+            throw new IllegalArgumentException("region must be x,y,width,height");
+        }
+        return new java.awt.Rectangle(parts[0], parts[1], parts[2], parts[3]);
+    }
+
+    // SHA-256 of a document's contents, hashed again only when the file changes
+    private String hash(Path document) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(document, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        Stamp stamp;
+        synchronized (hashes) {
+            stamp = hashes.get(document);
+        }
+        if (stamp == null || stamp.size() != attributes.size() || stamp.modified() != modified) {
+            stamp = new Stamp(attributes.size(), modified, sha256(document));
+            synchronized (hashes) {
+                hashes.put(document, stamp);
+            }
+        }
+        return stamp.hash();
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest digest = sha256();
+            long size = channel.size();
+            for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                MappedByteBuffer part = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Integer.MAX_VALUE, size - position));
+                digest.update(part);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    private static String sha256(ByteBuffer bytes) {
+        MessageDigest digest = sha256();
+        digest.update(bytes.duplicate());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The whole of a document read into memory
+    private static ByteBuffer readAll(Path document) throws IOException {
+        try (FileChannel channel = FileChannel.open(document, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(document.getFileName() + " is too large to render");
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes) < 0) {
+                    // Cut short since its size was taken
+                    throw new DocumentChanged(document);
+                }
+            }
+            return bytes.flip();
+        }
+    }
+
+    // Read a document and render it, or a region of it, as PNG; at most one render per core runs at a time. The
+    // document is read into memory once and parsed from the bytes that were checked against its hash, so what
+    // is rendered is what the result is cached under
+    private byte[] renderPng(Path document, String hash, double scale, java.awt.Rectangle region)
+            throws IOException {
+        renders.acquireUninterruptibly();
+        try {
+            ByteBuffer bytes = readAll(document);
+            if (!sha256(bytes).equals(hash)) {
+                throw new DocumentChanged(document);
+            }
+            // Tile caches are not shared between threads, so every render gets its own
+            SceneSnapshot snapshot = DocumentFile.read(bytes, document.getFileName().toString(), null,
+                    new TileCache()).snapshot();
+            java.awt.Rectangle area = region != null ? region
+                    : new java.awt.Rectangle(0, 0, snapshot.getWidth(), snapshot.getHeight());
+            if (area.width * scale * area.height * scale > MAX_PIXELS) {
+                throw new IllegalArgumentException("The image would be larger than " + MAX_PIXELS + " pixels");
+            }
+            BufferedImage image = snapshot.render(TileRenderer.sequential(), scale, area, drawn -> true);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, "png", png)) {
+                throw new IOException("No PNG writer available");
+            }
+            return png.toByteArray();
+        } finally {
+            renders.release();
+        }
+    }
+
+    /**
+     * Encoded results, least recently used first, within a budget of bytes.
+     * A result being rendered is shared with the requests asking for it in
+     * the meantime.
+     *
+     * @author DKRORY
+     */
+    private static final class RenderCache {
+
+        // A result and whether it came from the cache or from a render already under way
+        record Result(byte[] png, boolean hit) {
+        }
+
+        interface Renderer {
+            byte[] render() throws IOException;
+        }
+
+        private final long budget;
+        private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final ConcurrentHashMap<Key, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+        private long bytes = 0;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder shared = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        RenderCache(long budget) {
+            this.budget = budget;
+        }
+
+        // The result for a key, rendered by renderer unless it is cached or another request is rendering it
+        Result get(Key key, Renderer renderer) throws IOException {
+            byte[] cached = lookup(key);
+            if (cached != null) {
+                hits.increment();
+                return new Result(cached, true);
+            }
+            CompletableFuture<byte[]> mine = new CompletableFuture<>();
+            CompletableFuture<byte[]> running = rendering.putIfAbsent(key, mine);
+            if (running != null) {
+                shared.increment();
+                return new Result(join(running), true);
+            }
+            try {
+                // Another request may have finished the same render between the lookup and now
+                byte[] png = lookup(key);
+                if (png == null) {
+                    misses.increment();
+                    png = renderer.render();
+                    put(key, png);
+                } else {
+                    hits.increment();
+                }
+                mine.complete(png);
+                return new Result(png, false);
+            } catch (IOException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                rendering.remove(key, mine);
+            }
+        }
+
+        private synchronized byte[] lookup(Key key) {
+            return entries.get(key);
+        }
+
+        // Keep a result, evicting the least recently used ones beyond the budget; one larger than the whole
+        // budget is not kept
+        private synchronized void put(Key key, byte[] png) {
+            if (png.length > budget) {
+                return;
+            }
+            byte[] old = entries.put(key, png);
+            bytes += png.length - (old == null ? 0 : old.length);
+            var eldest = entries.entrySet().iterator();
+            while (bytes > budget) {
+                bytes -= eldest.next().getValue().length;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        // The result of another request's render, with its exception if it failed
+        private static byte[] join(CompletableFuture<byte[]> running) throws IOException {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+
+        synchronized void appendTo(StringBuilder text) {
+            long lookups = hits.sum() + shared.sum() + misses.sum();
+            text.append("cache_hits ").append(hits.sum()).append('\n')
+                    .append("cache_shared ").append(shared.sum()).append('\n')
+                    .append("cache_misses ").append(misses.sum()).append('\n')
+                    .append("cache_hit_rate ")
+                    .append(String.format("%.3f", lookups == 0 ? 0.0 : (double) (lookups - misses.sum()) / lookups))
+                    .append('\n')
+                    .append("cache_evictions ").append(evictions.sum()).append('\n')
+                    .append("cache_entries ").append(entries.size()).append('\n')
+                    .append("cache_bytes ").append(bytes).append('\n');
+        }
+    }
+
+    /**
+     * Request counters and the latencies of the most recent requests.
+     *
+     * @author DKRORY
+     */
+    private static final class Metrics {
+
+        private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+        private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final long[] latencies = new long[LATENCY_SAMPLES];
+        private long recorded = 0;
+
+        void requestDone(int status, long nanos) {
+            requests.increment();
+            if (status >= 400) {
+                errors.increment();
+            }
+            synchronized (this) {
+                latencies[(int) (recorded++ % LATENCY_SAMPLES)] = nanos;
+            }
+        }
+
+        void appendTo(StringBuilder text) {
+            long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(latencies, (int) Math.min(recorded, LATENCY_SAMPLES));
+            }
+            Arrays.sort(sorted);
+            text.append("requests ").append(requests.sum()).append('\n')
+                    .append("errors ").append(errors.sum()).append('\n');
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                long nanos = sorted.length == 0 ? 0
+                        : sorted[Math.max(0, (int) Math.ceil(PERCENTILES[i] * sorted.length) - 1)];
+                text.append("latency_").append(PERCENTILE_NAMES[i]).append("_us ").append(nanos / 1000).append('\n');
+            }
+            text.append("latency_max_us ").append(sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1000)
+                    .append('\n');
+        }
+    }
+}
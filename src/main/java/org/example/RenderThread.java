@@ -0,0 +1,103 @@
+package org.example;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dedicated thread that draws the heavy frames, such as a layer raster
+ * rebuilt from scratch, from immutable snapshots while the EDT keeps
+ * handling input. Each job draws into an image of its own, the back
+ * buffer, and hands it to a callback run by the deliver executor,
+ * normally the EDT, which swaps it in if the drawing has not changed in
+ * the meantime. A job submitted for a key replaces the one still queued
+ * for it, so only the latest state of a layer is drawn.
+ *
+ * @author DKRORY
+ */
+final class RenderThread {
+
+    private static final Logger LOGGER = Logger.getLogger(RenderThread.class.getName());
+
+    private record Job<T>(Supplier<T> render, Consumer<T> done) {
+        void run(Executor deliver) {
+            T result = render.get();
+            deliver.execute(() -> done.accept(result));
+        }
+    }
+
+    private final Executor deliver;
+    private final Thread thread;
+    // Jobs waiting to be drawn, oldest first, by key; guarded by this
+    private final LinkedHashMap<Object, Job<?>> queue = new LinkedHashMap<>();
+    private boolean running = false;
+    private boolean shutdown = false;
+
+    // Render thread handing its results to deliver, e.g. SwingUtilities::invokeLater
+    RenderThread(Executor deliver) {
+        this.deliver = deliver;
+        this.thread = new Thread(this::loop, "Render");
+        thread.setDaemon(true);
+        // Below the EDT, so input is handled first when both want the same core
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    // Draw render() on the render thread and pass its result to done through the deliver executor,
+    // dropping a job for the same key that has not started yet
+    synchronized <T> void submit(Object key, Supplier<T> render, Consumer<T> done) {
+        queue.remove(key);
+        queue.put(key, new Job<>(render, done));
+        notifyAll();
+    }
+
+    // Wait until every submitted job has been drawn and handed to the deliver executor
+    synchronized void awaitIdle() throws InterruptedException {
+        while (running || !queue.isEmpty()) {
+            wait();
+        }
+    }
+
+    // Stop once the job being drawn is done; queued jobs are dropped
+    synchronized void shutdown() {
+        shutdown = true;
+        queue.clear();
+        notifyAll();
+    }
+
+    private void loop() {
+        while (true) {
+            Job<?> job;
+            synchronized (this) {
+                while (queue.isEmpty() && !shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                Iterator<Job<?>> oldest = queue.values().iterator();
+                job = oldest.next();
+                oldest.remove();
+                running = true;
+            }
+            try {
+                job.run(deliver);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Render job failed", e);
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
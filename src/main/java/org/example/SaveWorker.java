@@ -0,0 +1,151 @@
+package org.example;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Renders a scene snapshot and encodes it as PNG on a background thread.
+ * Progress runs from 0 to 50 while shapes are drawn and from 50 to 100
+ * while the image is encoded. The file is written next to the target
+ * under a temporary name and moved into place only when it is complete,
+ * so a failed or cancelled save never leaves a truncated file behind.
+ *
+ * @author DKRORY
+ */
+class SaveWorker extends SwingWorker<Path, Void> {
+
+    private static final Logger LOGGER = Logger.getLogger(SaveWorker.class.getName());
+
+    private final SceneSnapshot snapshot;
+    private final Path target;
+    private final long startNanos = System.nanoTime();
+
+    SaveWorker(SceneSnapshot snapshot, Path target) {
+        this.snapshot = snapshot;
+        this.target = target;
+    }
+
+    Path getTarget() {
+        return target;
+    }
+
+    // Milliseconds since the save was started
+    long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    protected Path doInBackground() throws IOException {
+        BufferedImage image = render();
+        if (image == null) {
+            return null;
+        }
+        long renderedMillis = elapsedMillis();
+
+        Path directory = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            if (!encode(image, temp)) {
+                return null;
+            }
+            moveIntoPlace(temp);
+        } finally {
+            // Left over only when the save failed or was cancelled
+            Files.deleteIfExists(temp);
+        }
+        LOGGER.fine("Rendered " + target.getFileName() + " in " + renderedMillis + " ms, encoded in "
+                + (elapsedMillis() - renderedMillis) + " ms");
+        return target;
+    }
+
+    // Draw the snapshot, or return null if the save is cancelled on the way
+    private BufferedImage render() {
+        if (isCancelled()) {
+            return null;
+        }
+        int shapeCount = snapshot.getShapeCount();
+        // Drawn in tiles on every core; progress comes in from the workers
+        return snapshot.render(TileRenderer.common(), drawn -> {
+            if (isCancelled()) {
+                return false;
+            }
+            setProgress(drawn * 50 / shapeCount);
+            return true;
+        });
+    }
+
+    // Write the image as PNG, returning false if the save is cancelled while encoding
+    private boolean encode(BufferedImage image, Path file) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+        if (!writers.hasNext()) {
+            throw new IOException("No PNG writer available");
+        }
+        ImageWriter writer = writers.next();
+        writer.addIIOWriteProgressListener(new EncodeProgress());
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), null);
+        } finally {
+            writer.dispose();
+        }
+        return !isCancelled();
+    }
+
+    // Replace the target with the finished file in one step where the file system allows it
+    private void moveIntoPlace(Path temp) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Maps the encoder's progress onto the second half of the bar and stops it when the save is cancelled
+    private class EncodeProgress implements IIOWriteProgressListener {
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            if (isCancelled()) {
+                source.abort();
+            } else {
+                setProgress(50 + Math.min(50, (int) (percentageDone / 2)));
+            }
+        }
+
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+        }
+    }
+}
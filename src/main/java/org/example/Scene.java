@@ -0,0 +1,183 @@
+package org.example;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The document being drawn: its layers bottom to top and which one is
+ * active, the undo history of every change, the checkpoints rebuilding
+ * the layer rasters and the tile cache of their baked shapes. It lives on
+ * the EDT, which is the only thread changing it; other threads only get
+ * SceneSnapshots of it. Each layer keeps its own snapshot until it
+ * changes, so taking one after an edit copies just the layer edited and
+ * shares the rest with the snapshot before.
+ *
+ * @author DKRORY
+ */
+final class Scene {
+
+    // Undo/redo history of every change to the drawing
+    private final History history = new History();
+    // Copies of the layer rasters that undo, redo and Clear All rebuild from instead of replaying every shape
+    private final CheckpointStore checkpoints = new CheckpointStore();
+    // Tiles of the baked layers, spilled off the heap beyond their memory budget
+    private final TileCache tiles = new TileCache();
+
+    // Shapes a layer keeps as objects before those read from a document are baked too
+    static final int DEFAULT_SHAPE_BUDGET = 100_000;
+
+    // Layers bottom to top; new shapes go on the active one
+    private final ArrayList<Layer> layers = new ArrayList<>();
+    private final List<Layer> layersView = Collections.unmodifiableList(layers);
+    private Layer active;
+    private int nextLayerNumber = 1;
+    private int shapeBudget = DEFAULT_SHAPE_BUDGET;
+
+    // Scene with one empty layer
+    Scene() {
+        active = newLayer();
+        layers.add(active);
+    }
+
+    History history() {
+        return history;
+    }
+
+    CheckpointStore checkpoints() {
+        return checkpoints;
+    }
+
+    TileCache tiles() {
+        return tiles;
+    }
+
+    // Layers bottom to top, as a read-only view
+    List<Layer> layers() {
+        return layersView;
+    }
+
+    Layer active() {
+        return active;
+    }
+
+    int activeIndex() {
+        return layers.indexOf(active);
+    }
+
+    void setActive(int index) {
+        active = layers.get(index);
+    }
+
+    // New empty layer named after its number, not in the stack yet
+    Layer newLayer() {
+        return new Layer("Layer " + nextLayerNumber++, checkpoints, history, tiles);
+    }
+
+    // Put a layer into the stack and make it active
+    void insert(Layer layer, int index) {
+        layers.add(index, layer);
+        active = layer;
+    }
+
+    // Take a layer out of the stack, making the one below it active if it was
+    void remove(Layer layer) {
+        int index = layers.indexOf(layer);
+        layers.remove(index);
+        if (active == layer) {
+            active = layers.get(Math.max(index - 1, 0));
+        }
+    }
+
+    // Replace the layers with those of a document read from a file and start a new history, in which the
+    // opened drawing cannot be undone
+    void open(DocumentFile.Document document) {
+        history.clear();
+        checkpoints.clear();
+        layers.clear();
+        nextLayerNumber = 1;
+        for (DocumentFile.LayerData data : document.layers()) {
+            Layer layer = newLayer();
+            layer.setName(data.name());
+            layer.setVisible(data.visible());
+            layer.setLocked(data.locked());
+            layer.setOpacity(data.opacity());
+            layer.load(data.shapes(), data.baked());
+            layers.add(layer);
+        }
+        if (layers.isEmpty()) {
+            layers.add(newLayer());
+        }
+        active = layers.get(Math.clamp(document.activeLayer(), 0, layers.size() - 1));
+    }
+
+    // The drawing as a document that can be written to a file off the EDT, sharing the layer snapshots
+    DocumentFile.Document document(Color background, int canvasWidth, int canvasHeight) {
+        ArrayList<DocumentFile.LayerData> saved = new ArrayList<>();
+        for (Layer layer : layers) {
+            SceneSnapshot.LayerSnapshot snapshot = layer.snapshot();
+            saved.add(new DocumentFile.LayerData(layer.getName(), layer.isVisible(), layer.isLocked(),
+                    layer.getOpacity(), snapshot.shapes(), snapshot.baked()));
+        }
+        return new DocumentFile.Document(canvasWidth, canvasHeight, background, activeIndex(), saved);
+    }
+
+    // Record an applied command; checkpoints of the redo branch it replaces can never be reached again
+    void record(Command command) {
+        checkpoints.dropAfter(history.position());
+        history.record(command);
+    }
+
+    // Shapes a layer keeps as objects, counting those read from a document, before the bottom ones are baked
+    void setShapeBudget(int shapeBudget) {
+        this.shapeBudget = shapeBudget;
+    }
+
+    // Move the bottom shapes of each layer that no command can take back any more into its baked layer
+    void bakeExpired(double scale, int canvasWidth, int canvasHeight) {
+        for (Layer layer : layers) {
+            layer.bakeExpired(history.undoableShapeCount(layer), shapeBudget, scale, canvasWidth, canvasHeight);
+        }
+    }
+
+    // Number of shapes still held as objects, over all layers
+    int shapeCount() {
+        int count = 0;
+        for (Layer layer : layers) {
+            count += layer.shapes().size();
+        }
+        return count;
+    }
+
+    // Rough heap held by the shapes, baked rasters, checkpoints and what the history keeps for undo and redo
+    long estimatedBytes() {
+        long bytes = checkpoints.bytes() + history.estimatedBytes();
+        for (Layer layer : layers) {
+            bytes += layer.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    // Area the visible layers have drawn into, in canvas coordinates; empty (negative width) if none has
+    java.awt.Rectangle contentBounds() {
+        java.awt.Rectangle drawn = new java.awt.Rectangle(0, 0, -1, -1);
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                drawn.add(layer.contentBounds());
+            }
+        }
+        return drawn;
+    }
+
+    // Immutable copy of the visible layers over a background, covering the canvas from its origin to width x height
+    SceneSnapshot snapshot(Color background, int width, int height) {
+        ArrayList<SceneSnapshot.LayerSnapshot> visible = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                visible.add(layer.snapshot());
+            }
+        }
+        return new SceneSnapshot(visible, background, width, height);
+    }
+}
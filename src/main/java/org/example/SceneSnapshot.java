@@ -0,0 +1,208 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable copy of the drawing taken on the EDT: the visible layers bottom
+ * to top, each with its shapes in drawing order, the raster of the shapes
+ * baked below them and its opacity, plus the background color and the
+ * canvas size. Shapes do not change once they are committed, so the
+ * snapshot can be rendered on any thread while the user keeps drawing.
+ *
+ * @author DKRORY
+ */
+final class SceneSnapshot {
+
+    // One visible layer as it was when the snapshot was taken; baked is null when no shape has been baked yet
+    record LayerSnapshot(List<Shape> shapes, BakedLayer baked, float opacity) {
+        LayerSnapshot {
+            shapes = List.copyOf(shapes);
+        }
+    }
+
+    private final List<LayerSnapshot> layers;
+    private final Color background;
+    private final int width;
+    private final int height;
+
+    SceneSnapshot(List<LayerSnapshot> layers, Color background, int width, int height) {
+        this.layers = List.copyOf(layers);
+        this.background = background;
+        this.width = width;
+        this.height = height;
+    }
+
+    // Visible layers in the order they are composed, bottom to top
+    List<LayerSnapshot> getLayers() {
+        return layers;
+    }
+
+    // Number of shapes drawn by render(), over all layers
+    int getShapeCount() {
+        int count = 0;
+        for (LayerSnapshot layer : layers) {
+            count += layer.shapes().size();
+        }
+        return count;
+    }
+
+    Color getBackground() {
+        return background;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    // Whether another snapshot shows the same drawing: layers keep their snapshot until they change, so it holds
+    // the same ones over the same background and size
+    boolean isSameDrawing(SceneSnapshot other) {
+        if (layers.size() != other.layers.size() || !background.equals(other.background)
+                || width != other.width || height != other.height) {
+            return false;
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i) != other.layers.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Blank image of the canvas size, in the ARGB format the drawing is saved in
+    BufferedImage createImage() {
+        return createImage(new java.awt.Rectangle(0, 0, width, height));
+    }
+
+    // Blank image the size of an area
+    private static BufferedImage createImage(java.awt.Rectangle area) {
+        return new BufferedImage(Math.max(area.width, 1), Math.max(area.height, 1), BufferedImage.TYPE_INT_ARGB);
+    }
+
+    // Render the whole scene into a new image
+    BufferedImage render() {
+        return render(drawn -> true);
+    }
+
+    // Render the whole scene into a new image, passing the number of shapes drawn so far to progress after
+    // each shape; returns null as soon as progress answers false
+    BufferedImage render(IntPredicate progress) {
+        return render(TileRenderer.sequential(), progress);
+    }
+
+    // Render the whole scene into a new image in tiles drawn by renderer, passing progress the share of
+    // getShapeCount() drawn so far, possibly from several threads at once; returns null as soon as progress
+    // answers false. The pixels are the same whatever the renderer.
+    BufferedImage render(TileRenderer renderer, IntPredicate progress) {
+        return render(renderer, 1.0, progress);
+    }
+
+    // Render the whole scene scaled into a new image, e.g. below 1 for a thumbnail, in tiles drawn by renderer
+    // as render(renderer, progress) does
+    BufferedImage render(TileRenderer renderer, double scale, IntPredicate progress) {
+        return render(renderer, scale, new java.awt.Rectangle(0, 0, width, height), progress);
+    }
+
+    // Render a region of the canvas scaled into a new image, which starts where the region does and holds the
+    // pixels a render of the whole canvas at that scale has there, in tiles drawn by renderer as
+    // render(renderer, progress) does
+    BufferedImage render(TileRenderer renderer, double scale, java.awt.Rectangle region, IntPredicate progress) {
+        // The image covers the region scaled, rounded out to whole pixels; tiles are in these scaled coordinates
+        int x = (int) Math.floor(region.x * scale);
+        int y = (int) Math.floor(region.y * scale);
+        java.awt.Rectangle area = new java.awt.Rectangle(x, y,
+                Math.max((int) Math.ceil((region.x + region.width) * scale) - x, 1),
+                Math.max((int) Math.ceil((region.y + region.height) * scale) - y, 1));
+        BufferedImage image = createImage(area);
+        List<java.awt.Rectangle> tiles = renderer.tiles(area);
+        ArrayList<List<List<Shape>>> bins = new ArrayList<>(layers.size());
+        long binned = 0;
+        for (LayerSnapshot layer : layers) {
+            List<List<Shape>> layerBins = renderer.bin(area, tiles, layer.shapes(), scale);
+            for (List<Shape> bin : layerBins) {
+                binned += bin.size();
+            }
+            bins.add(layerBins);
+        }
+        // Shapes are drawn once per tile they reach into, which progress maps back onto the shape count
+        long total = binned;
+        int shapeCount = getShapeCount();
+        AtomicLong drawn = new AtomicLong();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        IntPredicate tileProgress = shapes -> {
+            long done = drawn.addAndGet(shapes);
+            if (cancelled.get() || !progress.test((int) (done * shapeCount / total))) {
+                cancelled.set(true);
+                return false;
+            }
+            return true;
+        };
+        // Graphics are made up front on this thread, so the workers only draw
+        Graphics2D[] imageGraphics = new Graphics2D[tiles.size()];
+        try {
+            for (int t = 0; t < tiles.size(); t++) {
+                imageGraphics[t] = TileRenderer.partGraphics(image, area.x, area.y, tiles.get(t));
+            }
+            renderer.run(area, tiles.size(), t -> renderTile(imageGraphics[t], image, tiles.get(t), scale, bins, t,
+                    tileProgress));
+        } finally {
+            for (Graphics2D g2d : imageGraphics) {
+                if (g2d != null) {
+                    g2d.dispose();
+                }
+            }
+        }
+        return cancelled.get() ? null : image;
+    }
+
+    // The bottom layer is copied into the image as it is drawn when it is opaque
+    private boolean isDirect(int layer) {
+        return layer == 0 && layers.get(layer).opacity() == 1.0f;
+    }
+
+    // Draw every layer and the background into one tile of the image, the shapes scaled onto it; the graphics
+    // are in the scaled coordinates of the area the image covers. Each layer is drawn into the tile image of
+    // the thread, since erase shapes clear pixels of their own layer only, and composed over the layers below.
+    private void renderTile(Graphics2D g2d, BufferedImage image, java.awt.Rectangle tile, double scale,
+                            List<List<List<Shape>>> bins, int index, IntPredicate progress) {
+        java.awt.Rectangle whole = TileRenderer.wholeTile(tile);
+        AffineTransform toGrid = AffineTransform.getScaleInstance(scale, scale);
+        BufferedImage tileImage = TileRenderer.tileImage(image);
+        for (int i = 0; i < layers.size(); i++) {
+            LayerSnapshot layer = layers.get(i);
+            TileRenderer.clear(tileImage);
+            Graphics2D target = TileRenderer.tileGraphics(tileImage, whole, toGrid);
+            try {
+                if (layer.baked() != null) {
+                    layer.baked().draw(target);
+                }
+                for (Shape shape : bins.get(i).get(index)) {
+                    shape.draw(target);
+                    if (!progress.test(1)) {
+                        return;
+                    }
+                }
+            } finally {
+                target.dispose();
+            }
+            g2d.setComposite(isDirect(i) ? AlphaComposite.Src
+                    : AlphaComposite.getInstance(AlphaComposite.SRC_OVER, layer.opacity()));
+            g2d.drawImage(tileImage, whole.x, whole.y, null);
+        }
+        // Fill the background in under the layers, where they left the image transparent
+        g2d.setComposite(AlphaComposite.DstOver);
+        g2d.setColor(background);
+        g2d.fillRect(tile.x, tile.y, tile.width, tile.height);
+    }
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Read-only view of a polyline as separate one-segment subpaths, straight
+ * over the packed coordinate arrays. With a dashed stroke it paints the
+ * same pixels as calling drawLine for every segment (each subpath keeps
+ * its own caps and restarts the dash pattern), but in a single draw call.
+ * Solid strokes can differ by an edge pixel where segments overlap, so
+ * those are still drawn segment by segment.
+ *
+ * @author DKRORY
+ */
+final class SegmentPath implements java.awt.Shape {
+
+    private final int[] xs;
+    private final int[] ys;
+
+    SegmentPath(int[] xs, int[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    @Override
+    public java.awt.Rectangle getBounds() {
+        return getBounds2D().getBounds();
+    }
+
+    @Override
+    public Rectangle2D getBounds2D() {
+        if (xs.length == 0) {
+            return new Rectangle2D.Float();
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return new Rectangle2D.Float(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    // Line segments enclose no area
+    @Override
+    public boolean contains(double x, double y) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Point2D p) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(double x, double y, double w, double h) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Rectangle2D r) {
+        return false;
+    }
+
+    @Override
+    public boolean intersects(double x, double y, double w, double h) {
+        return getBounds2D().intersects(x, y, w, h);
+    }
+
+    @Override
+    public boolean intersects(Rectangle2D r) {
+        return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+
+    @Override
+    public PathIterator getPathIterator(AffineTransform at) {
+        return new SegmentIterator(at);
+    }
+
+    @Override
+    public PathIterator getPathIterator(AffineTransform at, double flatness) {
+        return new SegmentIterator(at);
+    }
+
+    // Emits moveTo(p[i - 1]), lineTo(p[i]) for every segment
+    private final class SegmentIterator implements PathIterator {
+        private final AffineTransform transform;
+        private final int steps;
+        private int step = 0;
+
+        SegmentIterator(AffineTransform transform) {
+            this.transform = transform;
+            this.steps = xs.length < 2 ? 0 : (xs.length - 1) * 2;
+        }
+
+        @Override
+        public int getWindingRule() {
+            return WIND_NON_ZERO;
+        }
+
+        @Override
+        public boolean isDone() {
+            return step >= steps;
+        }
+
+        @Override
+        public void next() {
+            step++;
+        }
+
+        @Override
+        public int currentSegment(float[] coords) {
+            int point = (step + 1) / 2;
+            coords[0] = xs[point];
+            coords[1] = ys[point];
+            if (transform != null) {
+                transform.transform(coords, 0, coords, 0, 1);
+            }
+            return (step & 1) == 0 ? SEG_MOVETO : SEG_LINETO;
+        }
+
+        @Override
+        public int currentSegment(double[] coords) {
+            int point = (step + 1) / 2;
+            coords[0] = xs[point];
+            coords[1] = ys[point];
+            if (transform != null) {
+                transform.transform(coords, 0, coords, 0, 1);
+            }
+            return (step & 1) == 0 ? SEG_MOVETO : SEG_LINETO;
+        }
+    }
+}
@@ -2,15 +2,26 @@ package org.example;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
 
 /**
  * @author DKRORY
  */
 
-enum ShapeType {LINE, RECTANGLE, OVAL, FREEHAND, ERASE}
+enum ShapeType {LINE, RECTANGLE, OVAL, FREEHAND, ERASE, FILL}
 
 abstract class Shape {
+    // Stroke widths used by the different kinds of shapes
+    static final float OUTLINE_WIDTH = 2.0f;
+    static final float FREEHAND_WIDTH = 5.0f;
+    static final float ERASER_WIDTH = 20.0f;
+
+    // Strokes are immutable, so every shape shares these instead of building its own on each paint
+    static final BasicStroke SOLID_OUTLINE = new BasicStroke(OUTLINE_WIDTH);
+    static final BasicStroke DOTTED_OUTLINE = dotted(OUTLINE_WIDTH);
+    static final BasicStroke SOLID_FREEHAND = new BasicStroke(FREEHAND_WIDTH);
+    static final BasicStroke DOTTED_FREEHAND = dotted(FREEHAND_WIDTH);
+    static final BasicStroke ERASER = new BasicStroke(ERASER_WIDTH);
+
     protected Point start;
     protected Point end;
     protected Color color;
@@ -18,6 +29,59 @@ abstract class Shape {
     protected boolean isFilled;
 
     abstract void draw(Graphics g);
+
+    // Stroke with the 3px on / 3px off dash pattern used for dotted shapes
+    private static BasicStroke dotted(float width) {
+        float[] dashPattern = {3, 3};
+        return new BasicStroke(width, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 2.0f, dashPattern, 0.0f);
+    }
+
+    // Set color and stroke, skipping the ones the graphics context already holds from the previous shape
+    static void applyStyle(Graphics2D g2d, Color color, Stroke stroke) {
+        if (!color.equals(g2d.getColor())) {
+            g2d.setColor(color);
+        }
+        if (g2d.getStroke() != stroke) {
+            g2d.setStroke(stroke);
+        }
+    }
+
+    // Area touched by draw(), stroke width included, used to repaint only what changed
+    abstract java.awt.Rectangle getBounds();
+
+    // Rough heap footprint in bytes: the object, its two points and its bounds
+    long estimatedBytes() {
+        return 112;
+    }
+
+    // Bounds of the segment between two points, grown to cover a stroke of the given width
+    static java.awt.Rectangle strokeBounds(int x1, int y1, int x2, int y2, float strokeWidth) {
+        java.awt.Rectangle bounds = new java.awt.Rectangle(Math.min(x1, x2), Math.min(y1, y2),
+                Math.abs(x2 - x1), Math.abs(y2 - y1));
+        // Square caps and miter joins reach at most half the width times sqrt(2) past the path,
+        // plus a pixel for rounding and for drawRect/drawOval covering width + 1 pixels
+        int pad = (int) Math.ceil(strokeWidth / 2 * Math.sqrt(2)) + 1;
+        bounds.grow(pad, pad);
+        return bounds;
+    }
+
+    // Bounds of a polyline given as packed coordinate arrays
+    static java.awt.Rectangle strokeBounds(int[] xs, int[] ys, float strokeWidth) {
+        if (xs.length == 0) {
+            return new java.awt.Rectangle();
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return strokeBounds(minX, minY, maxX, maxY, strokeWidth);
+    }
 }
 
 // Class representing a line shape
@@ -34,17 +98,15 @@ class Line extends Shape {
     @Override
     void draw(Graphics g) {
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setColor(color);
-
         // Set stroke properties based on whether the shape is dotted or solid
-        if (isDotted) {
-            float[] dashPattern = {3, 3};
-            g2d.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 2.0f, dashPattern, 0.0f));
-        } else {
-            g2d.setStroke(new BasicStroke(2.0f));
-        }
+        applyStyle(g2d, color, isDotted ? DOTTED_OUTLINE : SOLID_OUTLINE);
         g2d.drawLine(start.x, start.y, end.x, end.y);
     }
+
+    @Override
+    java.awt.Rectangle getBounds() {
+        return strokeBounds(start.x, start.y, end.x, end.y, OUTLINE_WIDTH);
+    }
 }
 
 // Class representing a rectangle shape
@@ -62,15 +124,8 @@ class Rectangle extends Shape {
     @Override
     void draw(Graphics g) {
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setColor(color);
-
         // Set stroke properties based on whether the shape is dotted or solid
-        if (isDotted) {
-            float[] dashPattern = {3, 3};
-            g2d.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 2.0f, dashPattern, 0.0f));
-        } else {
-            g2d.setStroke(new BasicStroke(2.0f));
-        }
+        applyStyle(g2d, color, isDotted ? DOTTED_OUTLINE : SOLID_OUTLINE);
 
         int width = Math.abs(end.x - start.x);
         int height = Math.abs(end.y - start.y);
@@ -84,6 +139,11 @@ class Rectangle extends Shape {
             g2d.drawRect(x, y, width, height);
         }
     }
+
+    @Override
+    java.awt.Rectangle getBounds() {
+        return strokeBounds(start.x, start.y, end.x, end.y, OUTLINE_WIDTH);
+    }
 }
 
 // Class representing an oval shape
@@ -102,15 +162,8 @@ class Oval extends Shape {
     @Override
     void draw(Graphics g) {
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setColor(color);
-
         // Set stroke properties based on whether the shape is dotted or solid
-        if (isDotted) {
-            float[] dashPattern = {3, 3};
-            g2d.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 2.0f, dashPattern, 0.0f));
-        } else {
-            g2d.setStroke(new BasicStroke(2.0f));
-        }
+        applyStyle(g2d, color, isDotted ? DOTTED_OUTLINE : SOLID_OUTLINE);
 
         int width = Math.abs(end.x - start.x);
         int height = Math.abs(end.y - start.y);
@@ -124,36 +177,163 @@ class Oval extends Shape {
             g2d.drawOval(x, y, width, height);
         }
     }
+
+    @Override
+    java.awt.Rectangle getBounds() {
+        return strokeBounds(start.x, start.y, end.x, end.y, OUTLINE_WIDTH);
+    }
 }
 
 // Class representing an image shape
 class ImageShape extends Shape {
 
-    private final BufferedImage image;
     private final Point position;
+    private final int width;
+    private final int height;
+    // Low-resolution stand-in stretched over the image's area until the full raster is decoded
+    private volatile BufferedImage preview;
+    private volatile ImagePyramid pyramid;
 
     // Constructor for the ImageShape class
     public ImageShape(BufferedImage image, Point position) {
-        this.image = image;
+        this(ImagePyramid.of(image, null), position);
+    }
+
+    // Image whose full-resolution pyramid is already built
+    ImageShape(ImagePyramid pyramid, Point position) {
+        this.pyramid = pyramid;
+        this.position = position;
+        this.width = pyramid.getWidth();
+        this.height = pyramid.getHeight();
+    }
+
+    // Image shown from a subsampled preview until setPyramid swaps in the full decode
+    ImageShape(BufferedImage preview, int width, int height, Point position) {
+        this.preview = preview;
         this.position = position;
+        this.width = width;
+        this.height = height;
+    }
+
+    // Replace the preview with the full-resolution pyramid, which covers the same area
+    void setPyramid(ImagePyramid pyramid) {
+        this.pyramid = pyramid;
+        this.preview = null;
+    }
+
+    // Whether only the preview is shown so far, so the pixels drawn will still change
+    boolean isLoading() {
+        return pyramid == null;
+    }
+
+    // The full-resolution pyramid, or null while only the preview is shown
+    ImagePyramid getPyramid() {
+        return pyramid;
+    }
+
+    // Whether the image has no transparent pixels
+    boolean isOpaque() {
+        BufferedImage shown = preview;
+        // setPyramid sets the pyramid before it drops the preview
+        return shown == null ? pyramid.isOpaque() : shown.getTransparency() == Transparency.OPAQUE;
+    }
+
+    // Pixels of the full-size level the pyramid always holds, counted while the preview is shown too, so the
+    // estimate of a shape never changes while the layer and history keep running totals of it
+    @Override
+    long estimatedBytes() {
+        return super.estimatedBytes() + (long) width * height * 4;
     }
 
     // Override method to draw the image on the graphics context
     @Override
     void draw(Graphics g) {
-        g.drawImage(image, position.x, position.y, null);
+        ImagePyramid full = pyramid;
+        if (full != null) {
+            // Blits the level that matches the scale, and only the tiles under the clip
+            full.draw((Graphics2D) g, position.x, position.y);
+        } else {
+            g.drawImage(preview, position.x, position.y, width, height, null);
+        }
+    }
+
+    @Override
+    java.awt.Rectangle getBounds() {
+        return new java.awt.Rectangle(position.x, position.y, width, height);
     }
 }
 
-// Class representing a Freehand shape
-class Freehand extends Shape {
+// Base class for shapes made of a polyline of mouse samples
+abstract class StrokeShape extends Shape {
 
-    private final ArrayList<Point> points;
+    // Coordinates packed into primitive arrays, owned by this shape
+    protected final int[] xs;
+    protected final int[] ys;
+    private final java.awt.Rectangle bounds;
+    private final SegmentPath segments;
 
+    // Copy the points out of the buffer, trimmed to their count
+    protected StrokeShape(StrokeBuffer points, float strokeWidth) {
+        this(points.copyXs(), points.copyYs(), strokeWidth);
+    }
+
+    // Take over packed coordinate arrays of the same length, e.g. read from a document
+    protected StrokeShape(int[] xs, int[] ys, float strokeWidth) {
+        this.xs = xs;
+        this.ys = ys;
+        this.bounds = strokeBounds(xs, ys, strokeWidth);
+        this.segments = new SegmentPath(xs, ys);
+    }
+
+    // Draw lines connecting consecutive points with the stroke already set on the graphics context
+    protected void drawSegments(Graphics2D g2d, boolean dashed) {
+        if (dashed) {
+            // Dashing every drawLine separately allocates inside Java2D, so dash the whole stroke in one call
+            g2d.draw(segments);
+            return;
+        }
+        for (int i = 1; i < xs.length; i++) {
+            g2d.drawLine(xs[i - 1], ys[i - 1], xs[i], ys[i]);
+        }
+    }
+
+    int pointCount() {
+        return xs.length;
+    }
+
+    int x(int i) {
+        return xs[i];
+    }
+
+    int y(int i) {
+        return ys[i];
+    }
+
+    // Two packed int arrays and the path view over them on top of the shape itself
+    @Override
+    long estimatedBytes() {
+        return super.estimatedBytes() + 64 + 8L * xs.length;
+    }
+
+    @Override
+    java.awt.Rectangle getBounds() {
+        return new java.awt.Rectangle(bounds);
+    }
+}
+
+// Class representing a Freehand shape
+class Freehand extends StrokeShape {
 
     // Constructor for the Freehand class
-    public Freehand(ArrayList<Point> points, Color color, boolean dotted) {
-        this.points = new ArrayList<>(points);
+    public Freehand(StrokeBuffer points, Color color, boolean dotted) {
+        super(points, FREEHAND_WIDTH);
+        this.color = color;
+        this.isDotted = dotted;
+    }
+
+    // Freehand stroke over packed coordinate arrays, which it takes over
+    Freehand(int[] xs, int[] ys, Color color, boolean dotted) {
+        super(xs, ys, FREEHAND_WIDTH);
         this.color = color;
         this.isDotted = dotted;
     }
@@ -162,45 +342,106 @@ class Freehand extends Shape {
     @Override
     void draw(Graphics g) {
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setColor(color);
         // Set stroke properties based on whether the shape is dotted or solid
-        if (isDotted) {
-            float[] dashPattern = {3, 3};
-            g2d.setStroke(new BasicStroke(5, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 2.0f, dashPattern, 0.0f));
-        } else {
-            g2d.setStroke(new BasicStroke(5.0f));
-        }
+        applyStyle(g2d, color, isDotted ? DOTTED_FREEHAND : SOLID_FREEHAND);
         // Draw lines connecting the points to represent the Freehand shape
-        for (int i = 1; i < points.size(); i++) {
-            Point p1 = points.get(i - 1);
-            Point p2 = points.get(i);
-            g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
-        }
+        drawSegments(g2d, isDotted);
     }
 }
 
-class Erase extends Shape {
-    private final ArrayList<Point> erasedPoints;
+class Erase extends StrokeShape {
 
     // Constructor for the Erase class
-    public Erase(ArrayList<Point> points) {
-        this.erasedPoints = new ArrayList<>(points);
+    public Erase(StrokeBuffer points) {
+        super(points, ERASER_WIDTH);
+    }
+
+    // Eraser stroke over packed coordinate arrays, which it takes over
+    Erase(int[] xs, int[] ys) {
+        super(xs, ys, ERASER_WIDTH);
     }
 
     // Override method to Erase
     @Override
     void draw(Graphics g) {
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setColor(PaintBrushFrame.drawingPanel.getBackground());
-        // Set stroke properties based on whether the shape is dotted or solid
-        g2d.setStroke(new BasicStroke(20.0f));
-        // Draw lines connecting the points to represent the Freehand shape
-        for (int i = 1; i < erasedPoints.size(); i++) {
-            Point p1 = erasedPoints.get(i - 1);
-            Point p2 = erasedPoints.get(i);
-            g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+        // Erasing clears the pixels of the transparent layer being drawn on, so the background painted
+        // under it shows through whatever its color is now or later
+        Composite composite = g2d.getComposite();
+        g2d.setComposite(AlphaComposite.Clear);
+        applyStyle(g2d, g2d.getColor(), ERASER);
+        // Draw lines connecting the points to represent the erased path
+        drawSegments(g2d, false);
+        g2d.setComposite(composite);
+    }
+}
+
+// Class representing a paint bucket fill: the area FloodFill found, as rectangles filled with one color
+class Fill extends Shape {
+
+    // Rectangles packed as x, y, width, height, not overlapping, so a translucent color is blended once
+    private final int[] rects;
+    private final java.awt.Rectangle bounds;
+
+    // Fill over packed rectangles in canvas coordinates, which it takes over
+    Fill(int[] rects, Color color) {
+        this.rects = rects;
+        this.color = color;
+        if (rects.length == 0) {
+            bounds = new java.awt.Rectangle();
+            return;
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < rects.length; i += 4) {
+            minX = Math.min(minX, rects[i]);
+            minY = Math.min(minY, rects[i + 1]);
+            maxX = Math.max(maxX, rects[i] + rects[i + 2]);
+            maxY = Math.max(maxY, rects[i + 1] + rects[i + 3]);
+        }
+        bounds = new java.awt.Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    int rectCount() {
+        return rects.length / 4;
+    }
+
+    // Side i of the rectangles packed as x, y, width, height
+    int rect(int i) {
+        return rects[i];
+    }
+
+    // Override method to draw the filled area on the graphics context
+    @Override
+    void draw(Graphics g) {
+        Graphics2D g2d = (Graphics2D) g;
+        applyStyle(g2d, color, g2d.getStroke());
+        java.awt.Rectangle clip = g2d.getClipBounds();
+        for (int i = 0; i < rects.length; i += 4) {
+            int x = rects[i];
+            int y = rects[i + 1];
+            int width = rects[i + 2];
+            int height = rects[i + 3];
+            // A fill of a detailed area has a rectangle for almost every row, so skip the ones outside the clip
+            if (clip == null || x < clip.x + clip.width && x + width > clip.x
+                    && y < clip.y + clip.height && y + height > clip.y) {
+                g2d.fillRect(x, y, width, height);
+            }
         }
     }
+
+    // The packed rectangles on top of the shape itself
+    @Override
+    long estimatedBytes() {
+        return super.estimatedBytes() + 16 + 4L * rects.length;
+    }
+
+    @Override
+    java.awt.Rectangle getBounds() {
+        return new java.awt.Rectangle(bounds);
+    }
 }
 
 /*
@@ -0,0 +1,185 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Uniform grid over shape bounds, so painting a small region only visits
+ * the shapes that can touch it. Shapes are kept in the order they were
+ * added, which is the order they have to be drawn in. Positions in that
+ * order count from the first shape ever added, so they stay the same when
+ * the oldest shapes are baked away with removeFirst.
+ *
+ * @author DKRORY
+ */
+class ShapeIndex {
+
+    private static final int CELL_SIZE = 128;
+
+    // One indexed shape with its bounds captured when it was added
+    private static final class Entry {
+        final Shape shape;
+        final java.awt.Rectangle bounds;
+        // Position in the drawing order; the entry's index in the entries list is order - removed
+        final int order;
+        // Last query that collected this entry, so shapes spanning several cells are reported once
+        long seenBy;
+
+        Entry(Shape shape, int order) {
+            this.shape = shape;
+            this.bounds = shape.getBounds();
+            this.order = order;
+        }
+    }
+
+    private final HashMap<Long, ArrayList<Entry>> cells = new HashMap<>();
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private final ArrayList<Entry> hits = new ArrayList<>();
+    private long queryCount = 0;
+    // Shapes taken off the bottom with removeFirst
+    private int removed = 0;
+
+    // Add a shape on top of the ones already indexed
+    void add(Shape shape) {
+        Entry entry = new Entry(shape, removed + entries.size());
+        entries.add(entry);
+        java.awt.Rectangle b = entry.bounds;
+        if (b.isEmpty()) {
+            return;
+        }
+        for (int cy = cellOf(b.y); cy <= cellOf(b.y + b.height - 1); cy++) {
+            for (int cx = cellOf(b.x); cx <= cellOf(b.x + b.width - 1); cx++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>()).add(entry);
+            }
+        }
+    }
+
+    // Remove the topmost shape; it is always the last entry of every cell it was added to
+    void removeLast() {
+        Entry entry = entries.removeLast();
+        java.awt.Rectangle b = entry.bounds;
+        if (b.isEmpty()) {
+            return;
+        }
+        for (int cy = cellOf(b.y); cy <= cellOf(b.y + b.height - 1); cy++) {
+            for (int cx = cellOf(b.x); cx <= cellOf(b.x + b.width - 1); cx++) {
+                Long key = key(cx, cy);
+                ArrayList<Entry> cell = cells.get(key);
+                cell.removeLast();
+                if (cell.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    // Remove the count bottom shapes; they are always the first entries of every cell they were added to. They
+    // are taken off each list at once, so baking many shapes together stays linear in their number
+    void removeFirst(int count) {
+        List<Entry> gone = entries.subList(0, count);
+        int end = removed + count;
+        for (Entry entry : gone) {
+            java.awt.Rectangle b = entry.bounds;
+            if (b.isEmpty()) {
+                continue;
+            }
+            for (int cy = cellOf(b.y); cy <= cellOf(b.y + b.height - 1); cy++) {
+                for (int cx = cellOf(b.x); cx <= cellOf(b.x + b.width - 1); cx++) {
+                    Long key = key(cx, cy);
+                    ArrayList<Entry> cell = cells.get(key);
+                    if (cell == null) {
+                        // Emptied for an earlier shape of the same batch
+                        continue;
+                    }
+                    int kept = 0;
+                    while (kept < cell.size() && cell.get(kept).order < end) {
+                        kept++;
+                    }
+                    if (kept == cell.size()) {
+                        cells.remove(key);
+                    } else {
+                        cell.subList(0, kept).clear();
+                    }
+                }
+            }
+        }
+        gone.clear();
+        removed = end;
+    }
+
+    void clear() {
+        cells.clear();
+        entries.clear();
+        removed = 0;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    // Number of shapes removed from the bottom, which is the drawing order of the first one left
+    int removedCount() {
+        return removed;
+    }
+
+    // Collect the shapes whose bounds intersect the area into out, bottom to top
+    void query(java.awt.Rectangle area, List<Shape> out) {
+        query(area, 0, out);
+    }
+
+    // Same as query(area, out), leaving out the shapes below drawing order first
+    void query(java.awt.Rectangle area, int first, List<Shape> out) {
+        if (area.isEmpty()) {
+            return;
+        }
+        int minCx = cellOf(area.x);
+        int maxCx = cellOf(area.x + area.width - 1);
+        int minCy = cellOf(area.y);
+        int maxCy = cellOf(area.y + area.height - 1);
+        long cellsCovered = (long) (maxCx - minCx + 1) * (maxCy - minCy + 1);
+
+        // When the area spans more cells than are populated, or only a few shapes are asked for, a straight scan is cheaper
+        int firstIndex = Math.max(first - removed, 0);
+        if (cellsCovered >= cells.size() || entries.size() - firstIndex <= cellsCovered) {
+            for (int i = firstIndex; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (entry.bounds.intersects(area)) {
+                    out.add(entry.shape);
+                }
+            }
+            return;
+        }
+
+        long query = ++queryCount;
+        hits.clear();
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                ArrayList<Entry> cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (Entry entry : cell) {
+                    if (entry.seenBy != query && entry.order >= first && entry.bounds.intersects(area)) {
+                        entry.seenBy = query;
+                        hits.add(entry);
+                    }
+                }
+            }
+        }
+        // Restore drawing order, which matters for overlapping shapes and for Erase
+        hits.sort((a, b) -> Integer.compare(a.order, b.order));
+        for (Entry entry : hits) {
+            out.add(entry.shape);
+        }
+        hits.clear();
+    }
+
+    private static int cellOf(int coordinate) {
+        return Math.floorDiv(coordinate, CELL_SIZE);
+    }
+
+    private static Long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
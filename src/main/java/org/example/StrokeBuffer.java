@@ -0,0 +1,131 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of stroke coordinates packed into two int arrays, so a
+ * mouse sample costs eight bytes instead of a boxed Point.
+ *
+ * @author DKRORY
+ */
+class StrokeBuffer {
+
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private int size = 0;
+
+    void add(int x, int y) {
+        if (size == xs.length) {
+            xs = Arrays.copyOf(xs, size * 2);
+            ys = Arrays.copyOf(ys, size * 2);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int x(int i) {
+        return xs[i];
+    }
+
+    int y(int i) {
+        return ys[i];
+    }
+
+    int lastX() {
+        return xs[size - 1];
+    }
+
+    int lastY() {
+        return ys[size - 1];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    // Trimmed copy of the x coordinates, sized to the number of points
+    int[] copyXs() {
+        return Arrays.copyOf(xs, size);
+    }
+
+    // Trimmed copy of the y coordinates, sized to the number of points
+    int[] copyYs() {
+        return Arrays.copyOf(ys, size);
+    }
+
+    // Drop points that lie within tolerance pixels of the simplified path (Ramer-Douglas-Peucker)
+    void simplify(double tolerance) {
+        if (tolerance <= 0 || size < 3) {
+            return;
+        }
+        boolean[] keep = new boolean[size];
+        keep[0] = true;
+        keep[size - 1] = true;
+        double toleranceSq = tolerance * tolerance;
+
+        // Explicit stack of (first, last) ranges, so very long strokes cannot overflow the call stack
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double farthestSq = toleranceSq;
+            for (int i = first + 1; i < last; i++) {
+                double distanceSq = distanceToSegmentSq(i, first, last);
+                if (distanceSq > farthestSq) {
+                    farthestSq = distanceSq;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            keep[farthest] = true;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+        }
+
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                xs[kept] = xs[i];
+                ys[kept] = ys[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    // Squared distance from point i to the segment between points a and b
+    private double distanceToSegmentSq(int i, int a, int b) {
+        double dx = xs[b] - xs[a];
+        double dy = ys[b] - ys[a];
+        double px = xs[i] - xs[a];
+        double py = ys[i] - ys[a];
+        double lengthSq = dx * dx + dy * dy;
+        if (lengthSq == 0) {
+            return px * px + py * py;
+        }
+        double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSq));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,198 @@
+package org.example;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The tiles of the baked layers that have their pixels on the heap, least
+ * recently used first, kept within a memory budget. When the budget is
+ * exceeded the least recently used tiles are written to a memory-mapped
+ * spill file and dropped from the heap; opening one again reads it back.
+ * Tiles are only weakly held here, so a tile whose layer is gone is
+ * released by the garbage collector, spill slot included. The cache is
+ * used on the EDT only; snapshots read their tiles without it.
+ *
+ * @author DKRORY
+ */
+final class TileCache {
+
+    private static final Logger LOGGER = Logger.getLogger(TileCache.class.getName());
+
+    // Side of a tile in device pixels
+    static final int TILE_SIZE = 256;
+    static final long TILE_BYTES = (long) TILE_SIZE * TILE_SIZE * 4;
+    static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    // Square of pixels of a baked layer, on the heap or in the spill file
+    static final class Tile {
+        private final long id;
+        // Null while the pixels are only in the spill file
+        private BufferedImage image;
+        private TileSpill spill;
+        // Slot in the spill file once the tile has been evicted, kept for the next eviction
+        private int slot = -1;
+        // Set once a snapshot holds the tile, which must then stay unchanged
+        private boolean shared;
+
+        private Tile(long id, BufferedImage image) {
+            this.id = id;
+            this.image = image;
+        }
+
+        boolean isShared() {
+            return shared;
+        }
+
+        void share() {
+            shared = true;
+        }
+
+        synchronized boolean isResident() {
+            return image != null;
+        }
+
+        // The pixels for drawing, read back into a new image if the tile was evicted; safe on any thread
+        // as long as the tile is shared, since nothing draws into it any more
+        synchronized BufferedImage read() {
+            if (image != null) {
+                return image;
+            }
+            BufferedImage loaded = newTileImage();
+            spill.read(slot, pixels(loaded));
+            return loaded;
+        }
+
+        // Make the pixels resident again
+        private synchronized BufferedImage load() {
+            if (image == null) {
+                image = read();
+            }
+            return image;
+        }
+
+        // Write the pixels to the spill file and let go of them
+        private synchronized void evict(TileSpill target) throws IOException {
+            if (slot < 0) {
+                spill = target;
+                slot = target.allocate(this);
+            }
+            spill.write(slot, pixels(image));
+            image = null;
+        }
+    }
+
+    // Weak entry of the LRU list, remembering its tile's id to find the entry once the tile is collected
+    private static final class TileReference extends WeakReference<Tile> {
+        final long id;
+
+        TileReference(Tile tile, ReferenceQueue<Tile> queue) {
+            super(tile, queue);
+            this.id = tile.id;
+        }
+    }
+
+    // Resident tiles by id in access order, least recently used first
+    private final LinkedHashMap<Long, TileReference> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<Tile> collected = new ReferenceQueue<>();
+    private long nextId = 0;
+    private long budget = DEFAULT_BUDGET;
+    // Created on the first eviction; stays null if it cannot be created, and tiles then stay on the heap
+    private TileSpill spill;
+    private boolean spillFailed = false;
+
+    // New transparent tile, resident and most recently used
+    Tile create() {
+        Tile tile = new Tile(nextId++, newTileImage());
+        resident.put(tile.id, new TileReference(tile, collected));
+        evictOverBudget();
+        return tile;
+    }
+
+    // New tile with the pixels of another, for drawing into a tile a snapshot holds
+    Tile copy(Tile source) {
+        BufferedImage pixels = open(source);
+        Tile tile = create();
+        System.arraycopy(pixels(pixels), 0, pixels(tile.image), 0, TILE_SIZE * TILE_SIZE);
+        return tile;
+    }
+
+    // The tile's pixels, read back from the spill file if needed; marks it most recently used
+    BufferedImage open(Tile tile) {
+        BufferedImage image = tile.load();
+        if (resident.get(tile.id) == null) {
+            resident.put(tile.id, new TileReference(tile, collected));
+            evictOverBudget();
+        }
+        return image;
+    }
+
+    // Evict least recently used tiles until the resident ones fit the budget; the most recent one stays,
+    // since the caller is about to draw it
+    private void evictOverBudget() {
+        purgeCollected();
+        Iterator<TileReference> eldest = resident.values().iterator();
+        while (bytes() > budget && resident.size() > 1 && !spillFailed) {
+            Tile tile = eldest.next().get();
+            eldest.remove();
+            if (tile != null && !evict(tile)) {
+                // Keep it on the heap after all
+                resident.put(tile.id, new TileReference(tile, collected));
+                return;
+            }
+        }
+    }
+
+    private boolean evict(Tile tile) {
+        try {
+            if (spill == null) {
+                spill = new TileSpill(TILE_SIZE * TILE_SIZE);
+            }
+            tile.evict(spill);
+            return true;
+        } catch (IOException e) {
+            spillFailed = true;
+            LOGGER.log(Level.WARNING, "Cannot spill tiles, keeping them in memory", e);
+            return false;
+        }
+    }
+
+    // Forget the entries of tiles the garbage collector has released
+    private void purgeCollected() {
+        for (java.lang.ref.Reference<? extends Tile> ref; (ref = collected.poll()) != null; ) {
+            TileReference entry = (TileReference) ref;
+            // Only this very entry, without counting as an access
+            resident.remove(entry.id, entry);
+        }
+    }
+
+    // Memory in bytes that resident tiles may use before they are spilled
+    void setBudget(long budget) {
+        this.budget = budget;
+        evictOverBudget();
+    }
+
+    // Heap held by resident tiles
+    long bytes() {
+        return resident.size() * TILE_BYTES;
+    }
+
+    // Tiles in the spill file
+    int spilledCount() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    private static BufferedImage newTileImage() {
+        return new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,208 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Splits drawing into the square tiles of a fixed grid of device pixels,
+ * drawn on a fork/join pool when the area is large. Every tile is drawn
+ * whole into a tile-sized image of its own, with only the shapes whose
+ * bounds reach into it, and then copied into place, so workers write
+ * disjoint pixels of the target. Java2D cuts a path to the device it draws
+ * into before stroking it, which can move a dash or a step of a curve by a
+ * pixel depending on where that device starts and ends; since a tile is
+ * always drawn into the same device, a pixel comes out the same in a full
+ * redraw, a region redraw, an export or a baked tile, with no need to turn
+ * that clipping off.
+ *
+ * @author DKRORY
+ */
+final class TileRenderer {
+
+    // Side of a tile, the one of the tiles of a baked layer, so both are drawn alike
+    static final int TILE_SIZE = BakedLayer.TILE_SIZE;
+    // Areas of fewer pixels are drawn on the calling thread
+    static final long MIN_PARALLEL_PIXELS = 8L * TILE_SIZE * TILE_SIZE;
+
+    // Tile images of each thread by image type; images of a custom type are not kept
+    private static final ThreadLocal<BufferedImage[]> TILE_IMAGES =
+            ThreadLocal.withInitial(() -> new BufferedImage[BufferedImage.TYPE_BYTE_INDEXED + 1]);
+
+    private final ForkJoinPool pool;
+
+    TileRenderer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Renderer on the common pool, which has a worker per core
+    static TileRenderer common() {
+        return new TileRenderer(ForkJoinPool.commonPool());
+    }
+
+    // Renderer that draws every tile on the calling thread
+    static TileRenderer sequential() {
+        return new TileRenderer(null);
+    }
+
+    // Whether an area is worth drawing on several threads
+    boolean isParallel(java.awt.Rectangle area) {
+        return pool != null && pool.getParallelism() > 1 && (long) area.width * area.height >= MIN_PARALLEL_PIXELS;
+    }
+
+    // The parts of the tiles of the grid that an area in grid coordinates covers, row by row
+    List<java.awt.Rectangle> tiles(java.awt.Rectangle area) {
+        ArrayList<java.awt.Rectangle> tiles = new ArrayList<>();
+        if (area.isEmpty()) {
+            return tiles;
+        }
+        int top = Math.floorDiv(area.y, TILE_SIZE) * TILE_SIZE;
+        int left = Math.floorDiv(area.x, TILE_SIZE) * TILE_SIZE;
+        for (int y = top; y < area.y + area.height; y += TILE_SIZE) {
+            for (int x = left; x < area.x + area.width; x += TILE_SIZE) {
+                tiles.add(new java.awt.Rectangle(x, y, TILE_SIZE, TILE_SIZE).intersection(area));
+            }
+        }
+        return tiles;
+    }
+
+    // The whole tile of the grid that a part of one returned by tiles() lies in
+    static java.awt.Rectangle wholeTile(java.awt.Rectangle part) {
+        return new java.awt.Rectangle(Math.floorDiv(part.x, TILE_SIZE) * TILE_SIZE,
+                Math.floorDiv(part.y, TILE_SIZE) * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+    }
+
+    // The shapes whose bounds, scaled by scale onto the grid, reach into each of the tiles(area), in drawing order
+    List<List<Shape>> bin(java.awt.Rectangle area, List<java.awt.Rectangle> tiles, List<Shape> shapes, double scale) {
+        return bin(area, tiles, shapes, AffineTransform.getScaleInstance(scale, scale));
+    }
+
+    // The shapes whose bounds, mapped by toGrid, reach into each of the tiles(area), in drawing order
+    List<List<Shape>> bin(java.awt.Rectangle area, List<java.awt.Rectangle> tiles, List<Shape> shapes,
+                          AffineTransform toGrid) {
+        ArrayList<List<Shape>> bins = new ArrayList<>(tiles.size());
+        for (int i = 0; i < tiles.size(); i++) {
+            bins.add(new ArrayList<>());
+        }
+        if (tiles.isEmpty()) {
+            return bins;
+        }
+        int firstColumn = Math.floorDiv(area.x, TILE_SIZE);
+        int firstRow = Math.floorDiv(area.y, TILE_SIZE);
+        int columns = Math.floorDiv(area.x + area.width - 1, TILE_SIZE) - firstColumn + 1;
+        for (Shape shape : shapes) {
+            java.awt.Rectangle bounds = toGrid(shape.getBounds(), toGrid).intersection(area);
+            if (bounds.isEmpty()) {
+                continue;
+            }
+            int lastColumn = Math.floorDiv(bounds.x + bounds.width - 1, TILE_SIZE) - firstColumn;
+            int lastRow = Math.floorDiv(bounds.y + bounds.height - 1, TILE_SIZE) - firstRow;
+            for (int row = Math.floorDiv(bounds.y, TILE_SIZE) - firstRow; row <= lastRow; row++) {
+                for (int column = Math.floorDiv(bounds.x, TILE_SIZE) - firstColumn; column <= lastColumn; column++) {
+                    bins.get(row * columns + column).add(shape);
+                }
+            }
+        }
+        return bins;
+    }
+
+    // Bounds mapped onto the grid by toGrid, rounded outwards to whole pixels
+    static java.awt.Rectangle toGrid(java.awt.Rectangle bounds, AffineTransform toGrid) {
+        return toGrid.createTransformedShape(bounds).getBounds();
+    }
+
+    // Tile-sized image of the pixel format of target for the calling thread to draw a tile into. The thread gets
+    // the same image back every time, so it has to be done with it before asking again, and it starts out with
+    // whatever the tile before left in it
+    static BufferedImage tileImage(BufferedImage target) {
+        int type = target.getType();
+        if (type == BufferedImage.TYPE_CUSTOM) {
+            ColorModel model = target.getColorModel();
+            return new BufferedImage(model, model.createCompatibleWritableRaster(TILE_SIZE, TILE_SIZE),
+                    model.isAlphaPremultiplied(), null);
+        }
+        BufferedImage[] images = TILE_IMAGES.get();
+        if (images[type] == null) {
+            images[type] = new BufferedImage(TILE_SIZE, TILE_SIZE, type);
+        }
+        return images[type];
+    }
+
+    // Graphics drawing into the tile image of a whole tile, in the coordinates toGrid maps onto the grid
+    static Graphics2D tileGraphics(BufferedImage tileImage, java.awt.Rectangle tile, AffineTransform toGrid) {
+        Graphics2D g2d = tileImage.createGraphics();
+        g2d.translate(-tile.x, -tile.y);
+        g2d.clipRect(tile.x, tile.y, TILE_SIZE, TILE_SIZE);
+        g2d.transform(toGrid);
+        return g2d;
+    }
+
+    // Make a tile image transparent
+    static void clear(BufferedImage tileImage) {
+        Graphics2D g2d = tileImage.createGraphics();
+        g2d.setComposite(AlphaComposite.Clear);
+        g2d.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        g2d.dispose();
+    }
+
+    // Copy a part of a tile from an image whose top left pixel lies at grid point (x, y) into the tile image
+    static void copyIn(BufferedImage image, int x, int y, java.awt.Rectangle part, BufferedImage tileImage) {
+        java.awt.Rectangle tile = wholeTile(part);
+        Graphics2D g2d = tileImage.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(image, part.x - tile.x, part.y - tile.y, part.x + part.width - tile.x,
+                part.y + part.height - tile.y, part.x - x, part.y - y, part.x + part.width - x,
+                part.y + part.height - y, null);
+        g2d.dispose();
+    }
+
+    // Graphics drawing into the part of a tile of an image whose top left pixel lies at grid point (x, y), in grid
+    // coordinates, so a tile image drawn at its tile lands in place
+    static Graphics2D partGraphics(BufferedImage image, int x, int y, java.awt.Rectangle part) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.translate(-x, -y);
+        g2d.clipRect(part.x, part.y, part.width, part.height);
+        return g2d;
+    }
+
+    // Run draw for every tile index below count, on several threads if the area they cover is worth it, and wait
+    // for all of them; the first exception is rethrown
+    void run(java.awt.Rectangle area, int count, IntConsumer draw) {
+        if (count <= 1 || !isParallel(area)) {
+            for (int i = 0; i < count; i++) {
+                draw.accept(i);
+            }
+            return;
+        }
+        pool.invoke(new TileTask(draw, 0, count));
+    }
+
+    // Halves its range of tiles until one is left, so idle workers steal the other halves
+    private static final class TileTask extends RecursiveAction {
+        private final IntConsumer draw;
+        private final int from;
+        private final int to;
+
+        TileTask(IntConsumer draw, int from, int to) {
+            this.draw = draw;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                draw.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(draw, from, middle), new TileTask(draw, middle, to));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Memory-mapped scratch file holding the pixels of tiles evicted from the
+ * tile cache. The file is mapped in chunks as it grows, so spilled pixels
+ * live in the page cache instead of the Java heap and the operating system
+ * pages them in and out as they are used. A slot is reused once the tile
+ * that was written to it has been garbage collected.
+ *
+ * @author DKRORY
+ */
+final class TileSpill {
+
+    // Slots mapped at a time
+    private static final int CHUNK_SLOTS = 64;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int slotInts;
+    private final FileChannel channel;
+    private final ArrayList<IntBuffer> chunks = new ArrayList<>();
+    private final BitSet usedSlots = new BitSet();
+
+    // Spill file for slots of slotInts pixels each, deleted again when the JVM exits
+    TileSpill(int slotInts) throws IOException {
+        this.slotInts = slotInts;
+        Path file = Files.createTempFile("paintbrush-tiles", ".spill");
+        file.toFile().deleteOnExit();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    // Reserve a free slot for the pixels of owner, released when owner is garbage collected
+    synchronized int allocate(Object owner) throws IOException {
+        int slot = usedSlots.nextClearBit(0);
+        int chunk = slot / CHUNK_SLOTS;
+        while (chunks.size() <= chunk) {
+            long chunkBytes = (long) CHUNK_SLOTS * slotInts * 4;
+            // Mapping past the end of the file grows it
+            long offset = chunks.size() * chunkBytes;
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, offset, chunkBytes).asIntBuffer());
+        }
+        usedSlots.set(slot);
+        // The cleanup action must not hold the owner, or it would never become unreachable
+        CLEANER.register(owner, () -> free(slot));
+        return slot;
+    }
+
+    private synchronized void free(int slot) {
+        usedSlots.clear(slot);
+    }
+
+    synchronized void write(int slot, int[] pixels) {
+        chunks.get(slot / CHUNK_SLOTS).put((slot % CHUNK_SLOTS) * slotInts, pixels, 0, slotInts);
+    }
+
+    synchronized void read(int slot, int[] pixels) {
+        chunks.get(slot / CHUNK_SLOTS).get((slot % CHUNK_SLOTS) * slotInts, pixels, 0, slotInts);
+    }
+
+    // Slots holding pixels right now
+    synchronized int size() {
+        return usedSlots.cardinality();
+    }
+}
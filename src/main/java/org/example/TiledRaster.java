@@ -0,0 +1,141 @@
+package org.example;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Image held as a grid of separate tiles, so a huge picture never needs
+ * one contiguous raster and drawing a small region only touches the
+ * tiles under it. Small images are wrapped as a single tile. The tiles of
+ * an image read from a document are only made from its pixels in the
+ * file when they are first drawn.
+ *
+ * @author DKRORY
+ */
+final class TiledRaster {
+
+    static final int TILE_SIZE = 1024;
+
+    // Makes a tile of a raster whose pixels are kept elsewhere, e.g. in a mapped document file
+    interface TileSource {
+        BufferedImage load(int column, int row);
+    }
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final BufferedImage[] tiles;
+    // Null when every tile is set with setTile
+    private final TileSource source;
+
+    // Empty grid for an image of the given size, filled in with setTile
+    TiledRaster(int width, int height, int tileSize) {
+        this(width, height, tileSize, null);
+    }
+
+    // Grid whose tiles are loaded from source the first time they are drawn, on whatever thread draws them
+    TiledRaster(int width, int height, int tileSize, TileSource source) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = Math.ceilDiv(width, tileSize);
+        this.tiles = new BufferedImage[columns * Math.ceilDiv(height, tileSize)];
+        this.source = source;
+    }
+
+    // One-tile raster around an image that is small enough to keep whole
+    static TiledRaster wrap(BufferedImage image) {
+        TiledRaster raster = new TiledRaster(image.getWidth(), image.getHeight(),
+                Math.max(1, Math.max(image.getWidth(), image.getHeight())));
+        raster.setTile(0, 0, image);
+        return raster;
+    }
+
+    void setTile(int column, int row, BufferedImage tile) {
+        tiles[row * columns + column] = tile;
+    }
+
+    // The tile at an index, row by row, loading it from the source if it has one
+    private BufferedImage tile(int index) {
+        return source == null ? tiles[index] : load(index);
+    }
+
+    private synchronized BufferedImage load(int index) {
+        if (tiles[index] == null) {
+            tiles[index] = source.load(index % columns, index / columns);
+        }
+        return tiles[index];
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getTileSize() {
+        return tileSize;
+    }
+
+    // Whether the tiles have no alpha channel
+    boolean isOpaque() {
+        return tile(0) == null || tile(0).getTransparency() == Transparency.OPAQUE;
+    }
+
+    // Draw the tiles that intersect the graphics' clip with the raster's top left corner at (x, y)
+    void draw(Graphics g, int x, int y) {
+        if (tiles.length == 1) {
+            g.drawImage(tile(0), x, y, null);
+            return;
+        }
+        int minColumn = 0;
+        int minRow = 0;
+        int maxColumn = columns - 1;
+        int maxRow = tiles.length / columns - 1;
+        java.awt.Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            minColumn = Math.max(minColumn, Math.floorDiv(clip.x - x, tileSize));
+            minRow = Math.max(minRow, Math.floorDiv(clip.y - y, tileSize));
+            maxColumn = Math.min(maxColumn, Math.floorDiv(clip.x + clip.width - 1 - x, tileSize));
+            maxRow = Math.min(maxRow, Math.floorDiv(clip.y + clip.height - 1 - y, tileSize));
+        }
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                BufferedImage tile = tile(row * columns + column);
+                if (tile != null) {
+                    g.drawImage(tile, x + column * tileSize, y + row * tileSize, null);
+                }
+            }
+        }
+    }
+
+    // Draw the raster stretched over the area (x, y, destWidth, destHeight), skipping tiles outside the clip
+    void draw(Graphics g, int x, int y, int destWidth, int destHeight) {
+        if (destWidth == width && destHeight == height) {
+            draw(g, x, y);
+            return;
+        }
+        java.awt.Rectangle clip = g.getClipBounds();
+        int rows = tiles.length / columns;
+        for (int row = 0; row < rows; row++) {
+            // Edges are rounded the same way for neighbouring tiles, so they meet without gaps
+            int dy1 = y + (int) ((long) row * tileSize * destHeight / height);
+            int dy2 = y + (int) ((long) Math.min((row + 1) * tileSize, height) * destHeight / height);
+            if (clip != null && (dy2 <= clip.y || dy1 >= clip.y + clip.height)) {
+                continue;
+            }
+            for (int column = 0; column < columns; column++) {
+                BufferedImage tile = tile(row * columns + column);
+                int dx1 = x + (int) ((long) column * tileSize * destWidth / width);
+                int dx2 = x + (int) ((long) Math.min((column + 1) * tileSize, width) * destWidth / width);
+                if (tile == null || clip != null && (dx2 <= clip.x || dx1 >= clip.x + clip.width)) {
+                    continue;
+                }
+                g.drawImage(tile, dx1, dy1, dx2, dy2, 0, 0, tile.getWidth(), tile.getHeight(), null);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.example;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Headless replay of an input trace recorded with InputTrace, as a load
+ * generator: every event goes through the panel's listeners and setters
+ * on the EDT, followed by the paint of the area it changed, and the time
+ * until that paint is done is its latency. At the recorded speed events
+ * are sent when they happened, whether or not the EDT is done with the
+ * ones before, so a slow event also shows up as latency of the ones
+ * queued behind it. At maximum speed the next event is sent once the last
+ * one is painted, and the latency is the work each one takes.
+ * <p>
+ * Drag input is drawn as it arrives, without the frame pacing of the app,
+ * so each event is charged with its own drawing. Percentiles of every kind
+ * of event are printed at the end, with a checksum of the final drawing
+ * that two replays of the same trace agree on.
+ * <pre>
+ * java -cp PaintBrushApp.jar org.example.TraceReplay session.trace [--max-speed] [--warmup n]
+ * </pre>
+ *
+ * @author DKRORY
+ */
+public class TraceReplay {
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // Latencies of the events of one replay, in the order of the trace, and how long it took
+    record Result(long[] latencies, long elapsedNanos, long checksum) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        Path trace = null;
+        boolean maxSpeed = false;
+        int warmup = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--max-speed" -> maxSpeed = true;
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                default -> trace = Path.of(args[i]);
+            }
+        }
+        if (trace == null) {
+            System.err.println("Usage: TraceReplay <trace> [--max-speed] [--warmup n]");
+            System.exit(2);
+        }
+        List<InputTrace.Event> events = InputTrace.read(trace);
+        // Warm-up replays let the JIT compile the drawing code before the one that is measured
+        for (int i = 0; i < warmup; i++) {
+            replay(trace, events, maxSpeed);
+        }
+        Result result = replay(trace, events, maxSpeed);
+        report(trace, events, result, maxSpeed);
+        System.exit(0);
+    }
+
+    // Replay the events of a trace into a new panel and measure each
+    static Result replay(Path trace, List<InputTrace.Event> events, boolean maxSpeed)
+            throws IOException, InterruptedException, InvocationTargetException {
+        RenderThread renderThread = new RenderThread(SwingUtilities::invokeLater);
+        Replayer replayer = new Replayer(events.size());
+        try {
+            SwingUtilities.invokeAndWait(() -> replayer.setUp(renderThread));
+            onEdt(() -> InputTrace.prepare(trace, replayer.panel));
+            long start = System.nanoTime();
+            for (int i = 0; i < events.size(); i++) {
+                InputTrace.Event event = events.get(i);
+                int index = i;
+                if (maxSpeed) {
+                    SwingUtilities.invokeAndWait(() -> replayer.apply(index, event, System.nanoTime()));
+                } else {
+                    long due = start + event.nanos();
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    SwingUtilities.invokeLater(() -> replayer.apply(index, event, due));
+                }
+            }
+            // Wait for the events still queued, then for the layers the render thread is rebuilding
+            SwingUtilities.invokeAndWait(() -> {
+            });
+            long elapsed = System.nanoTime() - start;
+            renderThread.awaitIdle();
+            long[] checksum = new long[1];
+            SwingUtilities.invokeAndWait(() -> checksum[0] = replayer.checksum());
+            return new Result(replayer.latencies, elapsed, checksum[0]);
+        } finally {
+            renderThread.shutdown();
+        }
+    }
+
+    // Run a task that reads a file on the EDT, passing its exception on
+    private static void onEdt(IOTask task) throws IOException, InterruptedException, InvocationTargetException {
+        IOException[] failure = new IOException[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    // Print the latency percentiles of every kind of event in the trace, in microseconds
+    private static void report(Path trace, List<InputTrace.Event> events, Result result, boolean maxSpeed) {
+        long recorded = events.isEmpty() ? 0 : events.get(events.size() - 1).nanos();
+        System.out.printf("Replayed %d events of %s at %s speed in %.2f s (recorded in %.2f s)%n", events.size(),
+                trace, maxSpeed ? "maximum" : "recorded", result.elapsedNanos() / 1e9, recorded / 1e9);
+        System.out.printf("%-14s %8s %10s %10s %10s %10s %10s%n", "Event (us)", "count", "p50", "p90", "p99",
+                "p99.9", "max");
+        for (InputTrace.Kind kind : InputTrace.Kind.values()) {
+            long[] latencies = new long[events.size()];
+            int count = 0;
+            for (int i = 0; i < events.size(); i++) {
+                if (events.get(i).kind() == kind) {
+                    latencies[count++] = result.latencies()[i];
+                }
+            }
+            if (count > 0) {
+                printRow(kind.name(), Arrays.copyOf(latencies, count));
+            }
+        }
+        if (!events.isEmpty()) {
+            printRow("all", result.latencies().clone());
+        }
+        System.out.printf("Drawing checksum %08x%n", result.checksum());
+    }
+
+    private static void printRow(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        StringBuilder row = new StringBuilder(String.format("%-14s %8d", name, latencies.length));
+        for (double percentile : PERCENTILES) {
+            int rank = (int) Math.ceil(percentile * latencies.length) - 1;
+            row.append(String.format(" %10d", TimeUnit.NANOSECONDS.toMicros(latencies[Math.max(0, rank)])));
+        }
+        row.append(String.format(" %10d", TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1])));
+        System.out.println(row);
+    }
+
+    /**
+     * The panel a trace is replayed into, with the image standing in for
+     * the screen. Everything here runs on the EDT.
+     *
+     * @author DKRORY
+     */
+    private static final class Replayer {
+
+        private final long[] latencies;
+        private DrawingPanel panel;
+        private BufferedImage screen;
+        private DirtyRegions dirtyRegions;
+
+        Replayer(int eventCount) {
+            latencies = new long[eventCount];
+        }
+
+        void setUp(RenderThread renderThread) {
+            panel = new DrawingPanel();
+            panel.setFrameRate(0);
+            panel.setRenderThread(renderThread);
+            dirtyRegions = new DirtyRegions(panel);
+            RepaintManager.setCurrentManager(dirtyRegions);
+        }
+
+        // Apply an event and paint what it changed; its latency counts from when it was due
+        void apply(int index, InputTrace.Event event, long due) {
+            InputTrace.apply(event, panel);
+            paintDirty();
+            latencies[index] = System.nanoTime() - due;
+        }
+
+        // Paint the area repaints asked for since the last paint, as Swing would on the next frame
+        void paintDirty() {
+            java.awt.Rectangle dirty = dirtyRegions.take();
+            if (dirty.isEmpty()) {
+                return;
+            }
+            if (screen == null || screen.getWidth() != panel.getWidth() || screen.getHeight() != panel.getHeight()) {
+                screen = new BufferedImage(Math.max(1, panel.getWidth()), Math.max(1, panel.getHeight()),
+                        BufferedImage.TYPE_INT_RGB);
+                dirty.setBounds(0, 0, screen.getWidth(), screen.getHeight());
+            }
+            Graphics2D g2d = screen.createGraphics();
+            g2d.clipRect(dirty.x, dirty.y, dirty.width, dirty.height);
+            panel.paintComponent(g2d);
+            g2d.dispose();
+        }
+
+        // CRC-32 of the whole panel painted as it is now
+        long checksum() {
+            panel.repaint();
+            paintDirty();
+            CRC32 crc = new CRC32();
+            if (screen != null) {
+                for (int pixel : ((DataBufferInt) screen.getRaster().getDataBuffer()).getData()) {
+                    crc.update(pixel);
+                    crc.update(pixel >> 8);
+                    crc.update(pixel >> 16);
+                }
+            }
+            return crc.getValue();
+        }
+
+        /**
+         * Repaint manager collecting the areas of the panel to repaint,
+         * which a headless panel would otherwise drop. Repaints asked for
+         * outside an event, e.g. when the render thread hands back a layer,
+         * are painted in an EDT task of their own.
+         *
+         * @author DKRORY
+         */
+        private final class DirtyRegions extends RepaintManager {
+
+            private final JComponent panel;
+            private final java.awt.Rectangle dirty = new java.awt.Rectangle();
+
+            DirtyRegions(JComponent panel) {
+                this.panel = panel;
+            }
+
+            @Override
+            public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+                if (c != panel || w <= 0 || h <= 0) {
+                    return;
+                }
+                if (dirty.isEmpty()) {
+                    dirty.setBounds(x, y, w, h);
+                    SwingUtilities.invokeLater(Replayer.this::paintDirty);
+                } else {
+                    dirty.add(new java.awt.Rectangle(x, y, w, h));
+                }
+            }
+
+            // The area to repaint within the panel, which is then cleared
+            java.awt.Rectangle take() {
+                java.awt.Rectangle taken = dirty.intersection(new java.awt.Rectangle(panel.getSize()));
+                dirty.setBounds(0, 0, 0, 0);
+                return taken;
+            }
+        }
+    }
+}
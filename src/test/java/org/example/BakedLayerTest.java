@@ -0,0 +1,59 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Shapes baked into tiles behind the undo horizon are drawn as they were
+ * before: a short history, which bakes all but the last few shapes, paints
+ * the view pixel for pixel as a history that keeps every shape does, also
+ * along outlines that cross a tile edge.
+ *
+ * @author DKRORY
+ */
+class BakedLayerTest {
+
+    // Shapes of every kind, solid and dotted, filled and outlined, across many tiles
+    static DrawingPanel drawing(int historyLimit, long seed) {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(RegionRedrawTest.WIDTH, RegionRedrawTest.HEIGHT);
+        panel.setFrameRate(0);
+        panel.setCanvasSize(2000, 1500);
+        panel.setHistoryLimit(historyLimit);
+        Random random = new Random(seed);
+        for (int i = 0; i < 200; i++) {
+            Point start = new Point(random.nextInt(700), random.nextInt(500));
+            Point end = new Point(start.x + random.nextInt(300) - 100, start.y + random.nextInt(300) - 100);
+            Color color = new Color(random.nextInt(), true);
+            boolean dotted = random.nextInt(4) == 0;
+            panel.drawShape(switch (random.nextInt(4)) {
+                case 0 -> new Line(start, end, color, dotted);
+                case 1 -> new org.example.Rectangle(start, end, color, dotted, random.nextBoolean());
+                case 2 -> new Oval(start, end, color, dotted, random.nextBoolean());
+                default -> new Freehand(new int[]{start.x, (start.x + end.x) / 2 + 15, end.x},
+                        new int[]{start.y, (start.y + end.y) / 2 - 15, end.y}, color, dotted);
+            });
+            if (i % 50 == 0) {
+                RegionRedrawTest.paint(panel);
+            }
+        }
+        return panel;
+    }
+
+    @Test
+    void bakedShapesPaintAsTheShapesThemselves() {
+        for (long seed : new long[]{5, 11, 18, 26, 29}) {
+            DrawingPanel baked = drawing(5, seed);
+            DrawingPanel kept = drawing(Integer.MAX_VALUE, seed);
+            assertTrue(baked.getShapeCount() < 10, "shapes left unbaked: " + baked.getShapeCount());
+            assertEquals(200, kept.getShapeCount());
+
+            assertArrayEquals(RegionRedrawTest.paintFullRedraw(kept), RegionRedrawTest.paintFullRedraw(baked),
+                    "seed " + seed);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * An area searched over the canvas tile by tile is the one a single search
+ * of the same tiles put together finds, with no seam where they meet, and
+ * a fill clicked in the panel that runs past the view covers all of its
+ * area, however large, once the search off the EDT is done.
+ *
+ * @author DKRORY
+ */
+class CanvasFillTest {
+
+    // The rectangles of the fill on top of a layer
+    static int[] lastFill(DrawingPanel panel, int layer) {
+        List<Shape> shapes = panel.snapshot().getLayers().get(layer).shapes();
+        Fill fill = assertInstanceOf(Fill.class, shapes.get(shapes.size() - 1));
+        int[] rects = new int[4 * fill.rectCount()];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = fill.rect(i);
+        }
+        return rects;
+    }
+
+    // Click the panel with the fill tool at a point of the view
+    static void clickFill(DrawingPanel panel, int x, int y) {
+        panel.setCurrentShape(ShapeType.FILL);
+        MouseEvent press = new MouseEvent(panel, MouseEvent.MOUSE_PRESSED, 0L, InputEvent.BUTTON1_DOWN_MASK, x, y, 1,
+                false, MouseEvent.BUTTON1);
+        for (MouseListener l : panel.getMouseListeners()) {
+            l.mousePressed(press);
+        }
+    }
+
+    // Panel with the outline of a rectangle far larger than its view, which the fill must not leave
+    static DrawingPanel largeOutline() {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(RegionRedrawTest.WIDTH, RegionRedrawTest.HEIGHT);
+        panel.setFrameRate(0);
+        panel.setCanvasSize(6000, 4000);
+        panel.drawShape(new org.example.Rectangle(new Point(20, 10), new Point(5900, 3950), Color.BLACK, false,
+                false));
+        RegionRedrawTest.paint(panel);
+        panel.setCurrentColor(Color.ORANGE);
+        return panel;
+    }
+
+    // The drawing rendered tile by tile, as CanvasFill renders it, and put together into one image
+    static BufferedImage renderTiles(SceneSnapshot snapshot) {
+        BufferedImage image = snapshot.createImage();
+        Graphics2D g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        for (int y = 0; y < snapshot.getHeight(); y += CanvasFill.TILE_SIZE) {
+            for (int x = 0; x < snapshot.getWidth(); x += CanvasFill.TILE_SIZE) {
+                java.awt.Rectangle tile = new java.awt.Rectangle(x, y,
+                        Math.min(CanvasFill.TILE_SIZE, snapshot.getWidth() - x),
+                        Math.min(CanvasFill.TILE_SIZE, snapshot.getHeight() - y));
+                g2d.drawImage(snapshot.render(TileRenderer.sequential(), 1.0, tile, drawn -> true), x, y, null);
+            }
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    // The area found from a point by one search of the drawing put together from its tiles
+    static boolean[] searchWhole(BufferedImage image, int x, int y, int tolerance) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] rects = new FloodFill().fill(pixels, image.getWidth(), image.getHeight(), x, y, tolerance, 0, 0);
+        return FloodFillTest.covered(rects, image.getWidth(), image.getHeight());
+    }
+
+    @Test
+    void areaSearchedTileByTileHasNoSeam() {
+        SceneSnapshot snapshot = RegionRedrawTest.drawing(9).snapshot();
+        BufferedImage image = renderTiles(snapshot);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // On the background, which runs through every tile, and inside shapes, some across tile edges
+        int[][] points = {{5, 5}, {width - 3, height - 3}, {500, 500}, {510, 515}, {700, 300}, {300, 700}};
+        for (int tolerance : new int[]{0, 60}) {
+            for (int[] point : points) {
+                int[] tiled = new CanvasFill(snapshot, point[0], point[1], tolerance).fill();
+
+                assertArrayEquals(searchWhole(image, point[0], point[1], tolerance),
+                        FloodFillTest.covered(tiled, width, height),
+                        "at " + point[0] + ", " + point[1] + " tolerance " + tolerance);
+            }
+        }
+    }
+
+    // The inside of the outline is well over the 8M pixels a fill used to be cut off at
+    @Test
+    void fillPastTheViewCoversTheWholeArea() {
+        DrawingPanel panel = largeOutline();
+        SceneSnapshot canvas = new SceneSnapshot(panel.snapshot().getLayers(), panel.getBackground(), 6000, 4000);
+        clickFill(panel, 300, 200);
+
+        assertEquals(2, panel.getShapeCount());
+        int[] rects = lastFill(panel, 0);
+        boolean[] area = searchWhole(renderTiles(canvas), 300, 200, 0);
+        long pixels = 0;
+        for (boolean filled : area) {
+            pixels += filled ? 1 : 0;
+        }
+        assertTrue(pixels > 20_000_000L, pixels + " pixels");
+        assertArrayEquals(area, FloodFillTest.covered(rects, 6000, 4000));
+    }
+
+    // A search on the render thread is not committed over a drawing that changed meanwhile, but searched again
+    @Test
+    void fillFoundAfterTheDrawingChangedIsSearchedAgain() throws InterruptedException {
+        ArrayList<Runnable> delivered = new ArrayList<>();
+        RenderThread renderThread = new RenderThread(job -> {
+            synchronized (delivered) {
+                delivered.add(job);
+            }
+        });
+        try {
+            DrawingPanel panel = largeOutline();
+            panel.setRenderThread(renderThread);
+            clickFill(panel, 300, 200);
+            // A wall across the outline, drawn before the search is handed back
+            panel.drawShape(new Line(new Point(3000, 0), new Point(3000, 3999), Color.BLACK, false));
+            for (int round = 0; round < 3; round++) {
+                renderThread.awaitIdle();
+                List<Runnable> jobs;
+                synchronized (delivered) {
+                    jobs = List.copyOf(delivered);
+                    delivered.clear();
+                }
+                jobs.forEach(Runnable::run);
+            }
+
+            assertEquals(3, panel.getShapeCount());
+            int[] rects = lastFill(panel, 0);
+            for (int i = 0; i < rects.length; i += 4) {
+                assertTrue(rects[i] + rects[i + 2] <= 3000, "past the wall: rectangle " + i / 4);
+            }
+        } finally {
+            renderThread.shutdown();
+        }
+    }
+}
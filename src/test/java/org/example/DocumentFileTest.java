@@ -0,0 +1,184 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Documents written by DocumentFile read back as the same drawing, and a
+ * file that is not a whole document is refused instead of opened.
+ *
+ * @author DKRORY
+ */
+class DocumentFileTest {
+
+    @TempDir
+    Path directory;
+
+    // A drawing of every kind of shape on two layers, the older shapes baked behind a short history
+    static DocumentFile.Document drawing() {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(400, 300);
+        panel.setCanvasSize(600, 500);
+        panel.setHistoryLimit(3);
+        panel.setBackground(new Color(250, 245, 230));
+        panel.drawShape(new Line(new Point(10, 10), new Point(580, 470), Color.BLUE, false));
+        panel.drawShape(new org.example.Rectangle(new Point(40, 60), new Point(300, 200), Color.RED, false, true));
+        panel.drawShape(new Oval(new Point(200, 150), new Point(520, 400), Color.GREEN, true, false));
+        panel.drawShape(new Freehand(new int[]{50, 120, 260, 330}, new int[]{400, 330, 420, 300}, Color.BLACK,
+                false));
+        panel.addLayer();
+        panel.setActiveLayerOpacity(0.5f);
+        panel.drawShape(new Fill(new int[]{100, 100, 200, 50, 150, 150, 60, 120}, Color.ORANGE));
+        panel.drawShape(new Erase(new int[]{90, 400}, new int[]{120, 130}));
+        panel.drawShape(new Oval(new Point(300, 20), new Point(560, 260), Color.MAGENTA, false, true));
+        return panel.document();
+    }
+
+    // Every pixel of the document's visible layers over its background
+    static int[] pixels(DocumentFile.Document document) {
+        BufferedImage image = document.snapshot().render();
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    void readGivesBackTheDrawingWritten() throws IOException {
+        DocumentFile.Document written = drawing();
+        Path file = directory.resolve("drawing.pbd");
+        DocumentFile.write(written, file);
+        DocumentFile.Document read = DocumentFile.read(file, null, new TileCache());
+
+        assertEquals(written.canvasWidth(), read.canvasWidth());
+        assertEquals(written.canvasHeight(), read.canvasHeight());
+        assertEquals(written.background(), read.background());
+        assertEquals(written.activeLayer(), read.activeLayer());
+        assertEquals(written.layers().size(), read.layers().size());
+        for (int i = 0; i < written.layers().size(); i++) {
+            DocumentFile.LayerData expected = written.layers().get(i);
+            DocumentFile.LayerData actual = read.layers().get(i);
+            assertEquals(expected.name(), actual.name());
+            assertEquals(expected.visible(), actual.visible());
+            assertEquals(expected.locked(), actual.locked());
+            assertEquals(expected.opacity(), actual.opacity());
+            assertEquals(expected.baked() == null, actual.baked() == null);
+            assertEquals(classesAndBounds(expected.shapes()), classesAndBounds(actual.shapes()));
+        }
+        // The short history left shapes baked on the first layer, so the pixels come from both kinds of record
+        assertNotNull(read.layers().get(0).baked());
+        assertArrayEquals(pixels(written), pixels(read));
+    }
+
+    // Fifty shapes drawn in a panel that keeps every one of them as a shape
+    static DrawingPanel fiftyShapes() {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(400, 300);
+        panel.setCanvasSize(600, 500);
+        for (int i = 0; i < 50; i++) {
+            Point start = new Point(10 * i, 7 * i);
+            Point end = new Point(start.x + 60, start.y + 40);
+            panel.drawShape(switch (i % 4) {
+                case 0 -> new Line(start, end, Color.BLUE, i % 8 == 0);
+                case 1 -> new org.example.Rectangle(start, end, Color.RED, false, i % 3 == 0);
+                case 2 -> new Oval(start, end, Color.GREEN, i % 6 == 2, false);
+                default -> new Freehand(new int[]{start.x, start.x + 30, end.x}, new int[]{start.y, end.y, start.y},
+                        Color.BLACK, false);
+            });
+        }
+        return panel;
+    }
+
+    // A document opened in the app and saved again keeps its shapes as shapes, not as baked tiles
+    @Test
+    void documentOpenedAndSavedAgainKeepsItsShapes() throws IOException {
+        DrawingPanel drawn = fiftyShapes();
+        Path file = directory.resolve("drawing.pbd");
+        DocumentFile.write(drawn.document(), file);
+
+        DrawingPanel opened = new DrawingPanel();
+        opened.setSize(400, 300);
+        opened.openDocument(DocumentFile.read(file, null, opened.getTileCache()));
+        RegionRedrawTest.paint(opened);
+        assertEquals(50, opened.getShapeCount());
+        Path again = directory.resolve("again.pbd");
+        DocumentFile.write(opened.document(), again);
+        DocumentFile.Document saved = DocumentFile.read(again, null, new TileCache());
+
+        assertNull(saved.layers().get(0).baked());
+        assertEquals(classesAndBounds(drawn.document().layers().get(0).shapes()),
+                classesAndBounds(saved.layers().get(0).shapes()));
+        assertArrayEquals(pixels(drawn.document()), pixels(saved));
+    }
+
+    // Past the shape budget the shapes of an opened document are baked a few at a time, bottom first, until the
+    // layer is within the budget again
+    @Test
+    void openedShapesPastTheBudgetAreBakedAFewPerChange() throws IOException {
+        Path file = directory.resolve("drawing.pbd");
+        DocumentFile.write(fiftyShapes().document(), file);
+
+        DrawingPanel opened = new DrawingPanel();
+        opened.setSize(400, 300);
+        opened.setShapeBudget(20);
+        opened.openDocument(DocumentFile.read(file, null, opened.getTileCache()));
+        int afterOpen = opened.getShapeCount();
+        assertTrue(afterOpen > 20 && afterOpen < 50, "shapes after the open: " + afterOpen);
+        for (int i = 0; i < 5; i++) {
+            opened.drawShape(new Line(new Point(5, 5 + i), new Point(300, 200), Color.MAGENTA, false));
+        }
+
+        assertEquals(20, opened.getShapeCount());
+        assertNotNull(opened.document().layers().get(0).baked());
+    }
+
+    @Test
+    void writeReplacesTheFileWithoutLeavingTemporaryFiles() throws IOException {
+        Path file = directory.resolve("drawing.pbd");
+        DocumentFile.write(drawing(), file);
+        DocumentFile.write(drawing(), file);
+
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(file), files.toList());
+        }
+        DocumentFile.read(file, null, new TileCache());
+    }
+
+    // A save cut short anywhere, in the header, the shape records or the pixels, is refused
+    @Test
+    void readRefusesATruncatedFile() throws IOException {
+        Path complete = directory.resolve("complete.pbd");
+        DocumentFile.write(drawing(), complete);
+        long size = Files.size(complete);
+        // In the header, just past its 48 bytes, halfway and one byte short
+        for (long cut : new long[]{10, 64, size / 2, size - 1}) {
+            Path file = Files.copy(complete, directory.resolve("cut-" + cut + ".pbd"));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+
+            assertThrows(IOException.class, () -> DocumentFile.read(file, null, new TileCache()), "cut at " + cut);
+        }
+    }
+
+    @Test
+    void readRefusesAFileThatIsNoDocument() throws IOException {
+        Path file = directory.resolve("notes.pbd");
+        Files.writeString(file, "Not a drawing, just a few lines of text that happen to end in .pbd\n".repeat(4));
+
+        IOException e = assertThrows(IOException.class, () -> DocumentFile.read(file, null, new TileCache()));
+        assertTrue(e.getMessage().contains("not a Paint Brush document"), e.getMessage());
+    }
+
+    private static List<String> classesAndBounds(List<Shape> shapes) {
+        return shapes.stream().map(shape -> shape.getClass().getSimpleName() + shape.getBounds()).toList();
+    }
+}
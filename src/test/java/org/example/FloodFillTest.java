@@ -0,0 +1,154 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The area FloodFill finds is the one a plain breadth-first search of the
+ * pixels finds: inside a closed outline, through a gap in one, and among
+ * ragged specks, each pixel covered by one rectangle only.
+ *
+ * @author DKRORY
+ */
+class FloodFillTest {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+    private static final int WHITE = 0xffffffff;
+    private static final int BLACK = 0xff000000;
+
+    // White pixels with the outline of a black rectangle from (40, 30) to (160, 120), one pixel wide
+    static int[] outline() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, WHITE);
+        for (int x = 40; x <= 160; x++) {
+            pixels[30 * WIDTH + x] = BLACK;
+            pixels[120 * WIDTH + x] = BLACK;
+        }
+        for (int y = 30; y <= 120; y++) {
+            pixels[y * WIDTH + 40] = BLACK;
+            pixels[y * WIDTH + 160] = BLACK;
+        }
+        return pixels;
+    }
+
+    // Pixels covered by rectangles packed as x, y, width, height, failing if any is covered twice
+    static boolean[] covered(int[] rects, int width, int height) {
+        boolean[] covered = new boolean[width * height];
+        for (int i = 0; i < rects.length; i += 4) {
+            for (int y = rects[i + 1]; y < rects[i + 1] + rects[i + 3]; y++) {
+                for (int x = rects[i]; x < rects[i] + rects[i + 2]; x++) {
+                    assertFalse(covered[y * width + x], "covered twice at " + x + ", " + y);
+                    covered[y * width + x] = true;
+                }
+            }
+        }
+        return covered;
+    }
+
+    // The area around (x, y) found by a breadth-first search over the four neighbours of each pixel
+    static boolean[] reference(int[] pixels, int width, int height, int x, int y, int tolerance) {
+        boolean[] area = new boolean[width * height];
+        int seed = pixels[y * width + x];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        area[y * width + x] = true;
+        queue.add(y * width + x);
+        while (!queue.isEmpty()) {
+            int index = queue.poll();
+            int px = index % width;
+            int py = index / width;
+            int[][] neighbours = {{px - 1, py}, {px + 1, py}, {px, py - 1}, {px, py + 1}};
+            for (int[] n : neighbours) {
+                int next = n[1] * width + n[0];
+                if (n[0] >= 0 && n[1] >= 0 && n[0] < width && n[1] < height && !area[next]
+                        && FloodFill.matches(pixels[next], seed, tolerance)) {
+                    area[next] = true;
+                    queue.add(next);
+                }
+            }
+        }
+        return area;
+    }
+
+    @Test
+    void enclosedAreaStopsAtTheOutline() {
+        int[] pixels = outline();
+        boolean[] area = covered(new FloodFill().fill(pixels, WIDTH, HEIGHT, 100, 70, 0, 0, 0), WIDTH, HEIGHT);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inside = x > 40 && x < 160 && y > 30 && y < 120;
+                assertEquals(inside, area[y * WIDTH + x], "at " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void areaLeaksThroughAGapInTheOutline() {
+        int[] pixels = outline();
+        pixels[120 * WIDTH + 100] = WHITE;
+        boolean[] area = covered(new FloodFill().fill(pixels, WIDTH, HEIGHT, 100, 70, 0, 0, 0), WIDTH, HEIGHT);
+
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i] == WHITE, area[i], "at " + i % WIDTH + ", " + i / WIDTH);
+        }
+    }
+
+    @Test
+    void raggedAreaMatchesABreadthFirstSearch() {
+        Random random = new Random(17);
+        for (int tolerance : new int[]{0, 40}) {
+            // Specks of grey around the seed color, some within the tolerance, winding the area around them
+            int[] pixels = new int[WIDTH * HEIGHT];
+            for (int i = 0; i < pixels.length; i++) {
+                int grey = random.nextInt(3) == 0 ? 100 + random.nextInt(100) : 200;
+                pixels[i] = 0xff000000 | grey << 16 | grey << 8 | grey;
+            }
+            for (int seed = 0; seed < 5; seed++) {
+                int x = random.nextInt(WIDTH);
+                int y = random.nextInt(HEIGHT);
+                boolean[] area = covered(new FloodFill().fill(pixels, WIDTH, HEIGHT, x, y, tolerance, 0, 0),
+                        WIDTH, HEIGHT);
+
+                assertArrayEquals(reference(pixels, WIDTH, HEIGHT, x, y, tolerance), area,
+                        "seed " + x + ", " + y + " tolerance " + tolerance);
+            }
+        }
+    }
+
+    @Test
+    void rectanglesAreMovedByTheOffset() {
+        int[] rects = new FloodFill().fill(outline(), WIDTH, HEIGHT, 100, 70, 0, 1000, 2000);
+
+        int[] unmoved = new FloodFill().fill(outline(), WIDTH, HEIGHT, 100, 70, 0, 0, 0);
+        assertEquals(unmoved.length, rects.length);
+        for (int i = 0; i < rects.length; i += 4) {
+            assertEquals(unmoved[i] + 1000, rects[i]);
+            assertEquals(unmoved[i + 1] + 2000, rects[i + 1]);
+        }
+    }
+
+    // Searches sharing their filled bits add only what the ones before did not reach
+    @Test
+    void laterSeedsAddOnlyTheUnfilledArea() {
+        int[] pixels = outline();
+        FloodFill floodFill = new FloodFill();
+        long[] filled = new long[FloodFill.words(WIDTH, HEIGHT)];
+        boolean[] inside = covered(floodFill.fill(pixels, WIDTH, HEIGHT, filled, new int[]{100, 70}, 1, WHITE, 0,
+                0, 0), WIDTH, HEIGHT);
+        // Again inside, on the outline, and outside it
+        int[] again = floodFill.fill(pixels, WIDTH, HEIGHT, filled, new int[]{60, 50, 40, 30, 5, 5}, 3, WHITE, 0,
+                0, 0);
+        boolean[] outside = covered(again, WIDTH, HEIGHT);
+
+        for (int i = 0; i < pixels.length; i++) {
+            assertFalse(inside[i] && outside[i], "filled twice at " + i % WIDTH + ", " + i / WIDTH);
+            assertEquals(pixels[i] == WHITE, inside[i] || outside[i], "at " + i % WIDTH + ", " + i / WIDTH);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A drawing journaled by Journal comes back when the journal is opened
+ * again, also after undoing and redoing changes its snapshot holds, and a
+ * record cut short or damaged by a crash ends the replay without losing
+ * the records before it.
+ *
+ * @author DKRORY
+ */
+class JournalTest {
+
+    // Segment header, and length and checksum before every record, as Journal writes them
+    private static final int SEGMENT_HEADER = 8;
+    private static final int RECORD_HEADER = 8;
+
+    @TempDir
+    Path directory;
+
+    static DrawingPanel newPanel() {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(400, 300);
+        return panel;
+    }
+
+    // Journal three shapes into the directory, the way the app does until its window closes
+    private List<String> journalThreeShapes() throws IOException, InterruptedException {
+        DrawingPanel panel = newPanel();
+        Journal journal = Journal.open(directory, panel);
+        panel.setJournal(journal);
+        panel.drawShape(new Line(new Point(10, 10), new Point(300, 200), Color.BLUE, false));
+        panel.drawShape(new Oval(new Point(50, 40), new Point(200, 180), Color.RED, false, true));
+        panel.drawShape(new Freehand(new int[]{20, 80, 150}, new int[]{250, 190, 260}, Color.BLACK, false));
+        panel.setJournal(null);
+        journal.close();
+        return shapes(panel);
+    }
+
+    // Open the journal into a new panel, as the app does when it starts, and the shapes it recovered
+    private List<String> recover() throws IOException, InterruptedException {
+        DrawingPanel panel = newPanel();
+        Journal journal = Journal.open(directory, panel);
+        journal.close();
+        return shapes(panel);
+    }
+
+    @Test
+    void openingAgainRecoversEveryChange() throws IOException, InterruptedException {
+        DrawingPanel panel = newPanel();
+        Journal journal = Journal.open(directory, panel);
+        panel.setJournal(journal);
+        panel.drawShape(new Line(new Point(10, 10), new Point(300, 200), Color.BLUE, false));
+        panel.drawShape(new Oval(new Point(50, 40), new Point(200, 180), Color.RED, false, true));
+        panel.undo();
+        panel.addLayer();
+        panel.drawShape(new org.example.Rectangle(new Point(5, 5), new Point(90, 60), Color.GREEN, false, true));
+        panel.setJournal(null);
+        journal.close();
+
+        DrawingPanel recovered = newPanel();
+        Journal reopened = Journal.open(directory, recovered);
+        reopened.close();
+        assertEquals(2, recovered.snapshot().getLayers().size());
+        assertEquals(shapes(panel), shapes(recovered));
+    }
+
+    // Undoing what the recovered snapshot holds is journaled as records in its segment rather than as new snapshots
+    @Test
+    void undoAndRedoPastTheSnapshotAreRecovered() throws IOException, InterruptedException {
+        List<String> journaled = journalThreeShapes();
+        DrawingPanel panel = newPanel();
+        Journal journal = Journal.open(directory, panel);
+        panel.setJournal(journal);
+        panel.changeBackground(Color.PINK);
+        panel.undo();
+        panel.undo();
+        panel.redo();
+        panel.undo();
+        panel.undo();
+        panel.setJournal(null);
+        journal.close();
+        // Every change went into the segment the journal started with, none into a segment of its own
+        assertEquals(6, recordCount(segment()));
+
+        assertEquals(journaled.subList(0, 1), shapes(panel));
+        assertEquals(shapes(panel), recover());
+    }
+
+    @Test
+    void recoveryStopsAtARecordCutShort() throws IOException, InterruptedException {
+        List<String> journaled = journalThreeShapes();
+        Path segment = segment();
+        long last = lastRecord(segment);
+        // The file ends halfway through the last record
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(last + RECORD_HEADER + 4);
+        }
+
+        assertEquals(journaled.subList(0, 2), recover());
+    }
+
+    @Test
+    void recoveryStopsAtADamagedRecord() throws IOException, InterruptedException {
+        List<String> journaled = journalThreeShapes();
+        Path segment = segment();
+        long last = lastRecord(segment);
+        // The last record has its length, but a byte of it never reached the disk
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, last + RECORD_HEADER + 5);
+            b.put(0, (byte) ~b.get(0));
+            b.rewind();
+            channel.write(b, last + RECORD_HEADER + 5);
+        }
+
+        assertEquals(journaled.subList(0, 2), recover());
+    }
+
+    // The one segment file the journal left
+    private Path segment() throws IOException {
+        try (var files = Files.list(directory)) {
+            List<Path> segments = files.filter(file -> file.getFileName().toString().endsWith(".wal")).toList();
+            assertEquals(1, segments.size(), segments.toString());
+            return segments.get(0);
+        }
+    }
+
+    // Number of records in a segment
+    private static int recordCount(Path segment) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int count = 0;
+        for (int position = SEGMENT_HEADER; position + RECORD_HEADER <= in.limit() && in.getInt(position) > 0;
+             position += RECORD_HEADER + in.getInt(position)) {
+            count++;
+        }
+        return count;
+    }
+
+    // Offset of the last record of a segment, found by following the record lengths up to the unused space
+    private static long lastRecord(Path segment) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int last = -1;
+        int position = SEGMENT_HEADER;
+        while (position + RECORD_HEADER <= in.limit() && in.getInt(position) > 0) {
+            last = position;
+            position += RECORD_HEADER + in.getInt(position);
+        }
+        assertTrue(last > 0, "no record in " + segment);
+        return last;
+    }
+
+    // Class and bounds of every shape on the visible layers, bottom to top
+    private static List<String> shapes(DrawingPanel panel) {
+        return panel.snapshot().getLayers().stream()
+                .flatMap(layer -> layer.shapes().stream())
+                .map(shape -> shape.getClass().getSimpleName() + shape.getBounds())
+                .toList();
+    }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Redrawing part of a layer, from the shapes the index finds in it, gives
+ * the pixels a full redraw of every shape gives: after an undo, which
+ * redraws the area of the shape taken back, and after a scroll, which
+ * draws the area coming into view.
+ *
+ * @author DKRORY
+ */
+class RegionRedrawTest {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+
+    // Panel with a few hundred shapes of every kind, solid and dotted, over a canvas larger than the view
+    static DrawingPanel drawing(long seed) {
+        DrawingPanel panel = new DrawingPanel();
+        panel.setSize(WIDTH, HEIGHT);
+        panel.setFrameRate(0);
+        panel.setCanvasSize(2000, 1500);
+        panel.setHistoryLimit(Integer.MAX_VALUE);
+        Random random = new Random(seed);
+        for (int i = 0; i < 300; i++) {
+            Point start = new Point(random.nextInt(900), random.nextInt(700));
+            Point end = new Point(start.x + random.nextInt(300) - 100, start.y + random.nextInt(300) - 100);
+            Color color = new Color(random.nextInt(), true);
+            boolean dotted = random.nextInt(4) == 0;
+            panel.drawShape(switch (random.nextInt(4)) {
+                case 0 -> new Line(start, end, color, dotted);
+                case 1 -> new org.example.Rectangle(start, end, color, dotted, random.nextBoolean());
+                case 2 -> new Oval(start, end, color, dotted, random.nextBoolean());
+                default -> {
+                    int[] xs = new int[20];
+                    int[] ys = new int[20];
+                    for (int j = 0; j < xs.length; j++) {
+                        xs[j] = start.x + j * (end.x - start.x) / xs.length + random.nextInt(9) - 4;
+                        ys[j] = start.y + j * (end.y - start.y) / ys.length + random.nextInt(9) - 4;
+                    }
+                    yield new Freehand(xs, ys, color, dotted);
+                }
+            });
+        }
+        return panel;
+    }
+
+    // The panel painted whole, as the screen shows it
+    static int[] paint(DrawingPanel panel) {
+        BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = screen.createGraphics();
+        panel.paintComponent(g2d);
+        g2d.dispose();
+        return screen.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    // The panel painted after every shape was drawn again
+    static int[] paintFullRedraw(DrawingPanel panel) {
+        panel.redrawAll();
+        return paint(panel);
+    }
+
+    @Test
+    void undoRedrawsTheAreaAsAFullRedrawWould() {
+        DrawingPanel panel = drawing(3);
+        paint(panel);
+        for (int i = 0; i < 20; i++) {
+            panel.undo();
+            paint(panel);
+        }
+        int[] redrawnInRegions = paint(panel);
+
+        assertArrayEquals(paintFullRedraw(panel), redrawnInRegions);
+    }
+
+    @Test
+    void scrollDrawsTheExposedAreaAsAFullRedrawWould() {
+        DrawingPanel panel = drawing(5);
+        paint(panel);
+        panel.setViewOrigin(150, 90);
+        paint(panel);
+        panel.setViewOrigin(470, 260);
+        int[] redrawnInRegions = paint(panel);
+
+        assertArrayEquals(paintFullRedraw(panel), redrawnInRegions);
+    }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A snapshot rendered in parallel tiles gives the pixels of one rendered
+ * in a single pass, with a translucent layer whose eraser strokes clear
+ * pixels of its own only.
+ *
+ * @author DKRORY
+ */
+class SceneSnapshotTest {
+
+    // The drawing of RegionRedrawTest with a translucent layer on top, parts of it erased
+    static SceneSnapshot snapshot() {
+        DrawingPanel panel = RegionRedrawTest.drawing(7);
+        panel.addLayer();
+        panel.setActiveLayerOpacity(0.7f);
+        panel.drawShape(new org.example.Rectangle(new Point(100, 80), new Point(1000, 800), Color.CYAN, false, true));
+        panel.drawShape(new Erase(new int[]{50, 1100}, new int[]{300, 420}));
+        panel.drawShape(new Erase(new int[]{600, 640, 520}, new int[]{20, 500, 860}));
+        return panel.snapshot();
+    }
+
+    static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    void tilesDrawnInParallelMatchOnePass() {
+        SceneSnapshot snapshot = snapshot();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // Many of the shapes cross the edges of the tiles
+            TileRenderer parallel = new TileRenderer(pool);
+            java.awt.Rectangle whole = new java.awt.Rectangle(0, 0, snapshot.getWidth(), snapshot.getHeight());
+            assertTrue(parallel.isParallel(whole));
+
+            BufferedImage onePass = snapshot.render(TileRenderer.sequential(), drawn -> true);
+            BufferedImage tiled = snapshot.render(parallel, drawn -> true);
+
+            assertArrayEquals(pixels(onePass), pixels(tiled));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void scaledRegionsMatchOnePass() {
+        SceneSnapshot snapshot = snapshot();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            TileRenderer parallel = new TileRenderer(pool);
+            java.awt.Rectangle region = new java.awt.Rectangle(90, 40, 1000, 820);
+
+            BufferedImage onePass = snapshot.render(TileRenderer.sequential(), 1.5, region, drawn -> true);
+            BufferedImage tiled = snapshot.render(parallel, 1.5, region, drawn -> true);
+
+            assertArrayEquals(pixels(onePass), pixels(tiled));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
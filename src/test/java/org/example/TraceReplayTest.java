@@ -0,0 +1,42 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The trace committed with the tests, a short session with every tool,
+ * two layers, undo and redo, a scroll and a new background, replays to
+ * the same drawing every time: the checksum TraceReplay prints is the
+ * one recorded here.
+ *
+ * @author DKRORY
+ */
+class TraceReplayTest {
+
+    // "Drawing checksum" TraceReplay prints for the session; the pixels come from the Java 2D renderer of the
+    // JDK, so a JDK that draws differently needs it taken again from that output
+    private static final long SESSION_CHECKSUM = 0xcc0d25c6L;
+
+    static Path session() throws URISyntaxException {
+        return Path.of(Objects.requireNonNull(TraceReplayTest.class.getResource("/session.trace")).toURI());
+    }
+
+    @Test
+    void replayDrawsTheRecordedDrawing() throws Exception {
+        Path trace = session();
+        List<InputTrace.Event> events = InputTrace.read(trace);
+
+        TraceReplay.Result first = TraceReplay.replay(trace, events, true);
+        TraceReplay.Result second = TraceReplay.replay(trace, events, true);
+
+        assertEquals(events.size(), first.latencies().length);
+        assertEquals(first.checksum(), second.checksum());
+        assertEquals(SESSION_CHECKSUM, first.checksum());
+    }
+}